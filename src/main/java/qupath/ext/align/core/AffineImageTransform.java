@@ -3,13 +3,16 @@ package qupath.ext.align.core;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import qupath.lib.display.ImageDisplay;
 import qupath.lib.geom.Point2;
 import qupath.lib.gui.viewer.QuPathViewer;
 import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageServerBuilder;
 import qupath.lib.images.servers.PixelCalibration;
+import qupath.lib.regions.ImagePlane;
 import qupath.lib.roi.ROIs;
 import qupath.lib.roi.RoiTools;
 import qupath.lib.roi.interfaces.ROI;
@@ -19,8 +22,9 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -32,10 +36,14 @@ public class AffineImageTransform {
 
     private static final Logger logger = LoggerFactory.getLogger(AffineImageTransform.class);
     private final ObjectProperty<AffineTransform> transform = new SimpleObjectProperty<>(new AffineTransform());
+    private final ObjectProperty<PiecewiseAffineTransform> localTransform = new SimpleObjectProperty<>();
+    private final ObservableMap<ImagePlane, AffineTransform> planeTransforms = FXCollections.observableHashMap();
+    private final ObservableMap<ImagePlane, AffineTransform> unmodifiablePlaneTransforms = FXCollections.unmodifiableObservableMap(planeTransforms);
+    private final Map<ImagePlane, AffineTransform> planeInverseTransforms = new HashMap<>();
     private final ImageData<BufferedImage> imageData;
     private final QuPathViewer viewer;
     private AffineTransform inverseTransform = new AffineTransform();
-    private ImageDisplay imageDisplay;
+    private AffineTransform transformToInvert = null;
 
     /**
      * Create the affine image transform.
@@ -61,11 +69,12 @@ public class AffineImageTransform {
     @Override
     public String toString() {
         return String.format(
-                "Image transform of %s and %s with transform %s and inverse transform %s",
+                "Image transform of %s and %s with transform %s, inverse transform %s, and local transform %s",
                 imageData,
                 viewer,
                 transform.get(),
-                inverseTransform
+                getInverseTransform(),
+                localTransform.get()
         );
     }
 
@@ -90,6 +99,21 @@ public class AffineImageTransform {
             AutoAligner.AlignmentType alignmentType,
             AutoAligner.TransformationTypes transformationTypes,
             double downsample
+    ) throws Exception {
+        alignTransform(baseImageData, imageDataToAlign, alignmentType, transformationTypes, downsample, AutoAligner.EccOptions.DEFAULT);
+    }
+
+    /**
+     * Call {@link AutoAligner#getAlignTransformation(ImageData, ImageData, AffineTransform, AutoAligner.AlignmentType, AutoAligner.TransformationTypes, double, AutoAligner.EccOptions)}
+     * with the current transform and update the transform with the result.
+     */
+    public void alignTransform(
+            ImageData<BufferedImage> baseImageData,
+            ImageData<BufferedImage> imageDataToAlign,
+            AutoAligner.AlignmentType alignmentType,
+            AutoAligner.TransformationTypes transformationTypes,
+            double downsample,
+            AutoAligner.EccOptions eccOptions
     ) throws Exception {
         updateTransform(AutoAligner.getAlignTransformation(
                 baseImageData,
@@ -97,10 +121,147 @@ public class AffineImageTransform {
                 this.transform.get(),
                 alignmentType,
                 transformationTypes,
-                downsample
+                downsample,
+                eccOptions
+        ));
+    }
+
+    /**
+     * Call {@link AutoAligner#getLocalAlignTransformation(ImageData, ImageData, AffineTransform, AutoAligner.TransformationTypes, double, double, AutoAligner.EccOptions)}
+     * with the current transform as global transform and set the local transform to the result. The current transform is not
+     * modified.
+     */
+    public void alignLocalTransform(
+            ImageData<BufferedImage> baseImageData,
+            ImageData<BufferedImage> imageDataToAlign,
+            AutoAligner.TransformationTypes transformationTypes,
+            double downsample,
+            double tileSize,
+            AutoAligner.EccOptions eccOptions
+    ) throws Exception {
+        setLocalTransform(AutoAligner.getLocalAlignTransformation(
+                baseImageData,
+                imageDataToAlign,
+                this.transform.get(),
+                transformationTypes,
+                downsample,
+                tileSize,
+                eccOptions
+        ));
+    }
+
+    /**
+     * Get an observable value representing the local transform of this object. When not null, it refines
+     * the {@link #getTransform() global transform} with local deformations and is used instead of it when
+     * transforming ROIs or painting the image.
+     * <p>
+     * The local transform is estimated from the global transform, so it is reset to null each time the global
+     * transform is modified.
+     *
+     * @return an observable value representing the local transform of this object. Its value can be null
+     */
+    public ObservableValue<PiecewiseAffineTransform> getLocalTransform() {
+        return localTransform;
+    }
+
+    /**
+     * Set the local transform of this object.
+     *
+     * @param localTransform the new local transform. Can be null to only use the {@link #getTransform() global transform}
+     */
+    public void setLocalTransform(PiecewiseAffineTransform localTransform) {
+        this.localTransform.set(localTransform);
+
+        logger.trace("Local transform updated to {}", localTransform);
+    }
+
+    /**
+     * Call {@link AutoAligner#getPlaneAlignTransformations(ImageData, ImageData, AffineTransform, AutoAligner.TransformationTypes, double, AutoAligner.EccOptions, AutoAligner.PlaneAxis)}
+     * with the current transform as initial transform and set the plane transforms to the result. The current transform is not
+     * modified.
+     */
+    public void alignPlaneTransforms(
+            ImageData<BufferedImage> baseImageData,
+            ImageData<BufferedImage> imageDataToAlign,
+            AutoAligner.TransformationTypes transformationTypes,
+            double downsample,
+            AutoAligner.EccOptions eccOptions,
+            AutoAligner.PlaneAxis planeAxis
+    ) throws Exception {
+        setPlaneTransforms(AutoAligner.getPlaneAlignTransformations(
+                baseImageData,
+                imageDataToAlign,
+                this.transform.get(),
+                transformationTypes,
+                downsample,
+                eccOptions,
+                planeAxis
         ));
     }
 
+    /**
+     * Get an observable map containing the transforms specific to some planes of the image. When a plane has a
+     * transform in this map, it is used instead of the {@link #getTransform() global transform} when transforming ROIs
+     * located on this plane or when painting this plane.
+     * <p>
+     * Plane transforms are reset each time the global transform is modified.
+     *
+     * @return an unmodifiable observable map containing the transforms specific to some planes of the image
+     */
+    public ObservableMap<ImagePlane, AffineTransform> getPlaneTransforms() {
+        return unmodifiablePlaneTransforms;
+    }
+
+    /**
+     * Set the transforms specific to some planes of the image. Non-invertible transforms are skipped.
+     *
+     * @param planeTransforms the new plane transforms. Transforms are copied, so further changes to the provided
+     *                        transforms won't be reflected
+     * @throws NullPointerException if the provided map is null or contains null keys or values
+     */
+    public void setPlaneTransforms(Map<ImagePlane, AffineTransform> planeTransforms) {
+        Map<ImagePlane, AffineTransform> transforms = new HashMap<>();
+        Map<ImagePlane, AffineTransform> inverseTransforms = new HashMap<>();
+        for (Map.Entry<ImagePlane, AffineTransform> entry: planeTransforms.entrySet()) {
+            try {
+                inverseTransforms.put(Objects.requireNonNull(entry.getKey()), entry.getValue().createInverse());
+                transforms.put(entry.getKey(), new AffineTransform(entry.getValue()));
+            } catch (NoninvertibleTransformException e) {
+                logger.warn("Transform {} of plane {} is not invertible. Skipping it", entry.getValue(), entry.getKey(), e);
+            }
+        }
+
+        this.planeInverseTransforms.clear();
+        this.planeInverseTransforms.putAll(inverseTransforms);
+        this.planeTransforms.clear();
+        this.planeTransforms.putAll(transforms);
+
+        logger.trace("Plane transforms updated to {}", transforms);
+    }
+
+    /**
+     * Get the transform to use for the provided plane. This is the transform specific to this plane if it exists,
+     * or the {@link #getTransform() global transform} otherwise. Note that you shouldn't modify the returned transform.
+     *
+     * @param plane the plane whose transform should be retrieved
+     * @return the transform to use for the provided plane
+     */
+    public AffineTransform getTransform(ImagePlane plane) {
+        return planeTransforms.getOrDefault(plane, transform.get());
+    }
+
+    /**
+     * Get the inverse of the transform to use for the provided plane. This is the inverse of the transform specific to
+     * this plane if it exists, or {@link #getInverseTransform()} otherwise. Note that you shouldn't modify the returned transform.
+     *
+     * @param plane the plane whose inverse transform should be retrieved
+     * @return the inverse of the transform to use for the provided plane
+     */
+    public AffineTransform getInverseTransform(ImagePlane plane) {
+        AffineTransform planeInverseTransform = planeInverseTransforms.get(plane);
+        return planeInverseTransform == null ? getInverseTransform() : planeInverseTransform;
+    }
+
     /**
      * Update the transform with the provided matrix value.
      *
@@ -182,11 +343,21 @@ public class AffineImageTransform {
      * @return the inverse of the transform
      */
     public AffineTransform getInverseTransform() {
+        if (transformToInvert != null) {
+            try {
+                inverseTransform = transformToInvert.createInverse();
+                logger.trace("Inverse transform updated to {}", inverseTransform);
+            } catch (NoninvertibleTransformException e) {
+                logger.warn("Cannot create inverse transform of {}. Inverse transform still set to {}", transformToInvert, inverseTransform, e);
+            }
+            transformToInvert = null;
+        }
         return inverseTransform;
     }
 
     /**
-     * Transform the provided ROI with the current transform.
+     * Transform the provided ROI with the current {@link #getLocalTransform() local transform} if it is defined, or
+     * with the {@link #getTransform(ImagePlane) transform of the plane} of the ROI otherwise.
      *
      * @param roi the ROI to transform
      * @return a new ROI that represents the provided ROI transformed with the current transform
@@ -195,11 +366,16 @@ public class AffineImageTransform {
     public ROI transformROI(ROI roi) {
         logger.debug("Transforming {} with {}", roi, this);
 
-        if (roi.isPoint()) {
+        if (localTransform.get() != null) {
+            ROI transformedRoi = localTransform.get().transformROI(roi);
+            logger.debug("{} transformed to {} with local transform {}", roi, transformedRoi, localTransform.get());
+
+            return transformedRoi;
+        } else if (roi.isPoint()) {
             int nPoints = roi.getAllPoints().size();
             Point2D[] transformedPoints = new Point2D[nPoints];
 
-            transform.get().transform(
+            getTransform(roi.getImagePlane()).transform(
                     roi.getAllPoints().stream()
                             .map(point -> new Point2D.Double(point.getX(), point.getY()))
                             .toArray(Point2D[]::new),
@@ -217,7 +393,7 @@ public class AffineImageTransform {
                     roi.getImagePlane()
             );
         } else {
-            Shape transformedShape = transform.get().createTransformedShape(roi.getShape());
+            Shape transformedShape = getTransform(roi.getImagePlane()).createTransformedShape(roi.getShape());
             logger.debug("{} is not a ROI of points. Its shape was transformed from {} to {}", roi, roi.getShape(), transformedShape);
 
             return RoiTools.getShapeROI(transformedShape, roi.getImagePlane(), 0.5);
@@ -232,35 +408,64 @@ public class AffineImageTransform {
     }
 
     /**
-     * Get an image display that can be used when painting the image returned by {@link #getImageData()}.
-     * The first call to this function may take some time as it will generate the image display. Further calls
-     * will use the previously generated image display so will be faster.
+     * @return the viewer the image is transformed to
+     */
+    public QuPathViewer getViewer() {
+        return viewer;
+    }
+
+    /**
+     * Create a builder of an image server that lazily applies the current transform, plane transforms, and local
+     * transform on the image returned by {@link #getImageData()}. Built servers have the size and pixel calibration
+     * of the image currently opened in the viewer of this object, and are not affected by further changes to the
+     * transforms.
+     * <p>
+     * Built servers open their own server of the image returned by {@link #getImageData()}, so they don't depend
+     * on the server of this image being open.
      *
-     * @return an image display that can be used when painting the image
-     * @throws IOException if an error occurs while creating the image display
+     * @return a builder of image servers containing the transformed image on top of the image opened in the viewer
+     * of this object
+     * @throws IllegalStateException if no image is opened in the viewer of this object, or if the server of the image
+     * returned by {@link #getImageData()} cannot be recreated
      */
-    public ImageDisplay getImageDisplay() throws IOException {
-        if (imageDisplay == null) {
-            imageDisplay = ImageDisplay.create(imageData);
+    public TransformedImageServer.Builder createTransformedServerBuilder() {
+        if (viewer.getServer() == null) {
+            throw new IllegalStateException(String.format("No image opened in %s. Cannot create transformed server builder", viewer));
+        }
+        ImageServerBuilder.ServerBuilder<BufferedImage> builder = imageData.getServer().getBuilder();
+        if (builder == null) {
+            throw new IllegalStateException(String.format("%s has no server builder. Cannot create transformed server builder", imageData));
         }
-        return imageDisplay;
+
+        return new TransformedImageServer.Builder(
+                builder,
+                transform.get(),
+                planeTransforms,
+                localTransform.get(),
+                viewer.getServer().getMetadata()
+        );
     }
 
     private void updateTransform(AffineTransform transform) {
-        this.transform.set(transform);      // this is used to trigger any listener to this.transform
-
-        try {
-            inverseTransform = transform.createInverse();
-            logger.trace("Transform updated to {} and inverse transform updated to {}. Repainting {}", transform, inverseTransform, viewer);
-            viewer.repaint();
-        } catch (NoninvertibleTransformException e) {
-            logger.warn(
-                    "Cannot create inverse transform of {}. Inverse transform not updated and still set to {}. {} not repainted",
-                    transform,
-                    inverseTransform,
-                    viewer,
-                    e
-            );
+        this.localTransform.set(null);      // the local and plane transforms were estimated from the previous transform
+        this.planeTransforms.clear();
+        this.planeInverseTransforms.clear();
+
+        // The inverse is only computed when requested, so that several updates happening before the image is painted
+        // again (for example when dragging the image) lead to a single inversion
+        if (isInvertible(transform)) {
+            transformToInvert = transform;
+            logger.trace("Transform updated to {}. Inverse transform will be computed when requested", transform);
+        } else {
+            logger.warn("Transform {} is not invertible. Inverse transform not updated", transform);
         }
+
+        // This is done last so that listeners to this.transform (for example a repaint) see the new inverse transform
+        this.transform.set(transform);
+    }
+
+    private static boolean isInvertible(AffineTransform transform) {
+        // This is the condition used by AffineTransform.createInverse()
+        return Math.abs(transform.getDeterminant()) > Double.MIN_VALUE;
     }
 }
@@ -6,29 +6,41 @@ import org.bytedeco.opencv.global.opencv_core;
 import org.bytedeco.opencv.global.opencv_video;
 import org.bytedeco.opencv.opencv_core.Mat;
 import org.bytedeco.opencv.opencv_core.MatExpr;
+import org.bytedeco.opencv.opencv_core.Rect;
 import org.bytedeco.opencv.opencv_core.TermCriteria;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.geom.Point2;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.LabeledImageServer;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.classes.PathClass;
+import qupath.lib.regions.ImagePlane;
 import qupath.lib.regions.RegionRequest;
 import qupath.lib.roi.interfaces.ROI;
-import qupath.opencv.tools.OpenCVTools;
 
 import java.awt.*;
 import java.awt.color.ColorSpace;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ComponentColorModel;
 import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A static class to auto align one image on top of another.
@@ -38,6 +50,11 @@ public class AutoAligner {
     private static final Logger logger = LoggerFactory.getLogger(AutoAligner.class);
     private static final int ECC_MAX_COUNT = 100;
     private static final double ECC_EPSILON = 0.0001;
+    /**
+     * The minimum size in pixels (at the alignment downsample) of the tiles used by
+     * {@link #getLocalAlignTransformation(ImageData, ImageData, AffineTransform, TransformationTypes, double, double, EccOptions)}
+     */
+    public static final int MIN_LOCAL_TILE_SIZE = 16;
     /**
      * Define what combinations of transformation can be used when performing auto alignment.
      */
@@ -71,6 +88,162 @@ public class AutoAligner {
          */
         POINT_ANNOTATIONS
     }
+    /**
+     * Define a preprocessing stage applied on the images before looking at their pixel values with the
+     * {@link AlignmentType#INTENSITY} alignment type. Preprocessing can make the optimisation converge in fewer
+     * iterations on images with low contrast.
+     */
+    public enum PreprocessingStage {
+        /**
+         * The contrast of each image is enhanced with a contrast limited adaptive histogram equalization.
+         */
+        CLAHE,
+        /**
+         * Each image is replaced by the magnitude of its gradient, which emphasizes edges.
+         */
+        GRADIENT_MAGNITUDE,
+        /**
+         * The histogram of the image to align is matched to the histogram of the base image.
+         */
+        HISTOGRAM_MATCHING
+    }
+    /**
+     * Define along which axis transforms are estimated plane by plane by
+     * {@link #getPlaneAlignTransformations(ImageData, ImageData, AffineTransform, TransformationTypes, double, EccOptions, PlaneAxis)}.
+     */
+    public enum PlaneAxis {
+        /**
+         * Planes of each timepoint are aligned one z-slice after the other. Timepoints are processed in parallel.
+         */
+        Z,
+        /**
+         * Planes of each z-slice are aligned one timepoint after the other, which tracks drift over time.
+         * Z-slices are processed in parallel.
+         */
+        T
+    }
+    /**
+     * A selection of channels of an image, combined with a weighted sum to create the grayscale image given to the
+     * ECC criterion.
+     * <p>
+     * With multichannel fluorescence images, this allows to only align a relevant channel (for example the nuclear
+     * stain of each round of a cyclic immunofluorescence experiment) instead of the RGB rendering of the whole image.
+     * Only the selected channels are decoded, and the image is read by strips, so that aligning images with many
+     * channels doesn't require to hold all their channels in memory.
+     *
+     * @param weights a map whose keys are the indices (starting at 0) of the channels to use and whose values are the
+     *                weight of each channel. An empty map means that the RGB rendering of the whole image is used
+     */
+    public record ChannelSelection(Map<Integer, Double> weights) {
+
+        /**
+         * A selection representing the RGB rendering of the whole image, converted to grayscale
+         */
+        public static final ChannelSelection ALL_CHANNELS = new ChannelSelection(Map.of());
+
+        /**
+         * Create the selection.
+         *
+         * @throws NullPointerException if the provided map is null or contains null keys or values
+         * @throws IllegalArgumentException if a channel index is negative or if a weight is not finite
+         */
+        public ChannelSelection {
+            weights = Collections.unmodifiableMap(new TreeMap<>(weights));
+
+            for (Map.Entry<Integer, Double> entry: weights.entrySet()) {
+                if (entry.getKey() < 0) {
+                    throw new IllegalArgumentException(String.format("The channel index %d is negative", entry.getKey()));
+                }
+                if (!Double.isFinite(entry.getValue())) {
+                    throw new IllegalArgumentException(String.format("The weight %f of channel %d is not finite", entry.getValue(), entry.getKey()));
+                }
+            }
+        }
+
+        /**
+         * Create a selection containing only the provided channel.
+         *
+         * @param channel the index (starting at 0) of the channel to use
+         * @return a selection containing only the provided channel
+         * @throws IllegalArgumentException if the provided channel index is negative
+         */
+        public static ChannelSelection of(int channel) {
+            return new ChannelSelection(Map.of(channel, 1.0));
+        }
+
+        /**
+         * @return whether this selection represents the RGB rendering of the whole image
+         */
+        public boolean isAllChannels() {
+            return weights.isEmpty();
+        }
+    }
+    /**
+     * Options of the ECC criterion used with the {@link AlignmentType#INTENSITY} and {@link AlignmentType#AREA_ANNOTATIONS}
+     * alignment types.
+     *
+     * @param preprocessingStages the preprocessing stages to apply on the images, in order, before running the ECC criterion.
+     *                            Images prepared with these stages are cached, so aligning the same images again is faster.
+     *                            Only used with the {@link AlignmentType#INTENSITY} alignment type
+     * @param gaussianFilterSize the size of the Gaussian filter applied on the images by the ECC criterion before
+     *                           optimisation. It must be a positive odd number, and 1 means that no filter is applied
+     * @param numberOfThreads the maximum number of threads OpenCV can use while the alignment is running. This is useful
+     *                        when several alignments run concurrently, to avoid oversubscribing the processor cores.
+     *                        0 to use the number of threads of OpenCV
+     * @param baseChannels the channels of the base image to use. Only used with the {@link AlignmentType#INTENSITY}
+     *                     alignment type
+     * @param channelsToAlign the channels of the image to align to use. Only used with the {@link AlignmentType#INTENSITY}
+     *                        alignment type
+     */
+    public record EccOptions(
+            List<PreprocessingStage> preprocessingStages,
+            int gaussianFilterSize,
+            int numberOfThreads,
+            ChannelSelection baseChannels,
+            ChannelSelection channelsToAlign
+    ) {
+
+        /**
+         * The default size of the Gaussian filter applied by the ECC criterion
+         */
+        public static final int DEFAULT_GAUSSIAN_FILTER_SIZE = 5;
+        /**
+         * The default options, without any preprocessing stage, with the default Gaussian filter size,
+         * and without any limit on the number of threads
+         */
+        public static final EccOptions DEFAULT = new EccOptions(List.of(), DEFAULT_GAUSSIAN_FILTER_SIZE, 0);
+
+        /**
+         * Create the options.
+         *
+         * @throws NullPointerException if one of the provided parameter is null or if the provided list contains null elements
+         * @throws IllegalArgumentException if the Gaussian filter size is not a positive odd number, or if the number of
+         * threads is negative
+         */
+        public EccOptions {
+            preprocessingStages = List.copyOf(preprocessingStages);
+            Objects.requireNonNull(baseChannels);
+            Objects.requireNonNull(channelsToAlign);
+
+            if (gaussianFilterSize < 1 || gaussianFilterSize % 2 == 0) {
+                throw new IllegalArgumentException(String.format("The Gaussian filter size %d is not a positive odd number", gaussianFilterSize));
+            }
+            if (numberOfThreads < 0) {
+                throw new IllegalArgumentException(String.format("The number of threads %d is negative", numberOfThreads));
+            }
+        }
+
+        /**
+         * Create the options using the RGB rendering of the whole images.
+         *
+         * @throws NullPointerException if the provided list is null or contains null elements
+         * @throws IllegalArgumentException if the Gaussian filter size is not a positive odd number, or if the number of
+         * threads is negative
+         */
+        public EccOptions(List<PreprocessingStage> preprocessingStages, int gaussianFilterSize, int numberOfThreads) {
+            this(preprocessingStages, gaussianFilterSize, numberOfThreads, ChannelSelection.ALL_CHANNELS, ChannelSelection.ALL_CHANNELS);
+        }
+    }
 
     private AutoAligner() {
         throw new AssertionError("This class is not instantiable.");
@@ -102,12 +275,61 @@ public class AutoAligner {
             AlignmentType alignmentType,
             TransformationTypes transformationTypes,
             double downsample
+    ) throws Exception {
+        return getAlignTransformation(
+                baseImageData,
+                imageDataToAlign,
+                initialTransform,
+                alignmentType,
+                transformationTypes,
+                downsample,
+                EccOptions.DEFAULT
+        );
+    }
+
+    /**
+     * Attempt to find a transformation that would align an image on top of another.
+     * <p>
+     * This is the same as {@link #getAlignTransformation(ImageData, ImageData, AffineTransform, AlignmentType, TransformationTypes, double)}
+     * but with options for the ECC criterion.
+     *
+     * @param baseImageData the image to align to
+     * @param imageDataToAlign the image to align
+     * @param initialTransform an initial transformation from the base image to the image to align. See
+     *                         {@link #getAlignTransformation(ImageData, ImageData, AffineTransform, AlignmentType, TransformationTypes, double)}
+     * @param alignmentType what to look on the images when performing auto alignment
+     * @param transformationTypes what combinations of transformation can be used when performing auto alignment
+     * @param downsample the downsample at which the alignment should take place. Not used if the alignment type
+     *                   is {@link AlignmentType#POINT_ANNOTATIONS}
+     * @param eccOptions options of the ECC criterion. Not used if the alignment type is {@link AlignmentType#POINT_ANNOTATIONS}
+     * @return the transformation that aligns the provided image to align on top of the base image
+     * @throws NullPointerException if one of the provided parameter is used and null
+     * @throws Exception if the results don't converge or if any other error occurs
+     */
+    public static AffineTransform getAlignTransformation(
+            ImageData<BufferedImage> baseImageData,
+            ImageData<BufferedImage> imageDataToAlign,
+            AffineTransform initialTransform,
+            AlignmentType alignmentType,
+            TransformationTypes transformationTypes,
+            double downsample,
+            EccOptions eccOptions
     ) throws Exception {
         return switch (alignmentType) {
             case INTENSITY -> {
                 logger.debug("Image alignment of {} on {} using intensities", imageDataToAlign, baseImageData);
 
-                yield alignWithEccCriterion(baseImageData.getServer(), imageDataToAlign.getServer(), transformationTypes, initialTransform, downsample);
+                yield alignWithEccCriterion(
+                        baseImageData.getServer(),
+                        imageDataToAlign.getServer(),
+                        transformationTypes,
+                        initialTransform,
+                        downsample,
+                        ImagePlane.getDefaultPlane(),
+                        eccOptions,
+                        true,
+                        null
+                );
             }
             case AREA_ANNOTATIONS -> {
                 logger.debug("Image alignment of {} on {} using area annotations", imageDataToAlign, baseImageData);
@@ -147,7 +369,11 @@ public class AutoAligner {
                                 .build(),
                         transformationTypes,
                         initialTransform,
-                        1
+                        1,
+                        ImagePlane.getDefaultPlane(),
+                        new EccOptions(List.of(), eccOptions.gaussianFilterSize(), eccOptions.numberOfThreads()),
+                        false,      // labeled images depend on annotations, which can change
+                        null
                 );
             }
             case POINT_ANNOTATIONS -> {
@@ -158,33 +384,381 @@ public class AutoAligner {
         };
     }
 
+    /**
+     * Attempt to find a {@link PiecewiseAffineTransform} that would align an image on top of another by looking at
+     * the pixel values of the images.
+     * <p>
+     * The base image is split into tiles of the provided size, and a local transform is estimated for each tile
+     * with the ECC criterion. Tiles are processed in parallel, and each one uses the provided global transform as a
+     * starting point. If the estimation fails for a tile (for example because it doesn't contain enough texture),
+     * or if the local result moves the tile center too far from where the global transform maps it, the global
+     * transform is used for this tile.
+     *
+     * @param baseImageData the image to align to
+     * @param imageDataToAlign the image to align
+     * @param globalTransform a global transformation from the base image to the image to align. The images should
+     *                        already be aligned with it (for example with {@link #getAlignTransformation(ImageData, ImageData, AffineTransform, AlignmentType, TransformationTypes, double)})
+     * @param transformationTypes what combinations of transformation can be used for each tile
+     * @param downsample the downsample at which the alignment should take place
+     * @param tileSize the size in pixels of the base image of each tile. It must correspond to at least
+     *                 {@link #MIN_LOCAL_TILE_SIZE} pixels at the provided downsample
+     * @param eccOptions options of the ECC criterion
+     * @return a piecewise affine transform that aligns the provided image to align on top of the base image
+     * @throws NullPointerException if one of the provided parameter is null
+     * @throws IllegalArgumentException if the provided tile size is too small or if the provided global transform
+     * is not invertible
+     * @throws Exception if an error occurs while reading the images
+     */
+    public static PiecewiseAffineTransform getLocalAlignTransformation(
+            ImageData<BufferedImage> baseImageData,
+            ImageData<BufferedImage> imageDataToAlign,
+            AffineTransform globalTransform,
+            TransformationTypes transformationTypes,
+            double downsample,
+            double tileSize,
+            EccOptions eccOptions
+    ) throws Exception {
+        if (tileSize / downsample < MIN_LOCAL_TILE_SIZE) {
+            throw new IllegalArgumentException(String.format(
+                    "The tile size %f is too small for the downsample %f (at least %d pixels are needed at this downsample)",
+                    tileSize,
+                    downsample,
+                    MIN_LOCAL_TILE_SIZE
+            ));
+        }
+
+        ImageServer<BufferedImage> baseServer = baseImageData.getServer();
+        ImageServer<BufferedImage> serverToAlign = imageDataToAlign.getServer();
+        int nCols = (int) Math.ceil(baseServer.getWidth() / tileSize);
+        int nRows = (int) Math.ceil(baseServer.getHeight() / tileSize);
+
+        logger.debug(
+                "Local alignment of {} on {} with {}x{} tiles of size {} at downsample {}, starting from {}",
+                imageDataToAlign,
+                baseImageData,
+                nCols,
+                nRows,
+                tileSize,
+                downsample,
+                globalTransform
+        );
+
+        Mat[] preparedImages = ImagePreprocessing.prepareImages(
+                baseServer,
+                serverToAlign,
+                downsample,
+                ImagePlane.getDefaultPlane(),
+                eccOptions.preprocessingStages(),
+                eccOptions.baseChannels(),
+                eccOptions.channelsToAlign(),
+                true,
+                null
+        );
+        try (
+                Mat baseMat = preparedImages[0];
+                Mat matToAlign = preparedImages[1]
+        ) {
+            // Tiles are already processed in parallel, so OpenCV is limited to one thread per tile to avoid oversubscription
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.min(eccOptions.numberOfThreads() > 0 ? eccOptions.numberOfThreads() : ThreadTools.getParallelism(), nCols * nRows),
+                    ThreadTools.createThreadFactory("align-local-ecc-", true)
+            );
+
+            try {
+                return OpenCVThreads.callWithLimit(1, () -> {
+                    List<Future<AffineTransform>> tileTransforms = new ArrayList<>(nCols * nRows);
+                    for (int row=0; row<nRows; row++) {
+                        for (int col=0; col<nCols; col++) {
+                            int tileX = (int) Math.round(col * tileSize / downsample);
+                            int tileY = (int) Math.round(row * tileSize / downsample);
+                            Rect tile = new Rect(
+                                    tileX,
+                                    tileY,
+                                    Math.min((int) Math.round(tileSize / downsample), baseMat.cols() - tileX),
+                                    Math.min((int) Math.round(tileSize / downsample), baseMat.rows() - tileY)
+                            );
+
+                            tileTransforms.add(executor.submit(() -> alignTileWithEccCriterion(
+                                    baseMat,
+                                    matToAlign,
+                                    tile,
+                                    transformationTypes,
+                                    globalTransform,
+                                    downsample,
+                                    eccOptions.gaussianFilterSize()
+                            )));
+                        }
+                    }
+
+                    List<AffineTransform> transforms = new ArrayList<>(tileTransforms.size());
+                    for (Future<AffineTransform> tileTransform: tileTransforms) {
+                        transforms.add(tileTransform.get());
+                    }
+
+                    return new PiecewiseAffineTransform(globalTransform, tileSize, tileSize, nCols, nRows, transforms);
+                });
+            } finally {
+                // Wait for running tasks before the mats they use are released
+                executor.shutdownNow();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        }
+    }
+
+    /**
+     * Attempt to find one transformation per plane that would align an image with several z-slices or timepoints
+     * on top of another by looking at the pixel values of the images.
+     * <p>
+     * Each plane of the image to align is aligned to the plane of the base image with the same z-slice and timepoint.
+     * Only planes present in both images are considered. Planes are processed one after the other along the provided
+     * axis, and the transform of each plane is used as a starting point for the next one, so that gradual drifts are
+     * tracked. If the alignment of a plane fails, the transform of the previous plane is used for it. Chains of planes
+     * along the provided axis are processed in parallel.
+     *
+     * @param baseImageData the image to align to
+     * @param imageDataToAlign the image to align
+     * @param initialTransform an initial transformation from the base image to the image to align, used as a starting
+     *                         point for the first plane of each chain
+     * @param transformationTypes what combinations of transformation can be used when performing auto alignment
+     * @param downsample the downsample at which the alignment should take place
+     * @param eccOptions options of the ECC criterion
+     * @param planeAxis along which axis planes should be aligned one after the other
+     * @return a map containing the transformation that aligns each plane of the provided image to align on top of the
+     * same plane of the base image
+     * @throws NullPointerException if one of the provided parameter is null
+     * @throws Exception if an error occurs while reading the images
+     */
+    public static Map<ImagePlane, AffineTransform> getPlaneAlignTransformations(
+            ImageData<BufferedImage> baseImageData,
+            ImageData<BufferedImage> imageDataToAlign,
+            AffineTransform initialTransform,
+            TransformationTypes transformationTypes,
+            double downsample,
+            EccOptions eccOptions,
+            PlaneAxis planeAxis
+    ) throws Exception {
+        ImageServer<BufferedImage> baseServer = baseImageData.getServer();
+        ImageServer<BufferedImage> serverToAlign = imageDataToAlign.getServer();
+        int nZSlices = Math.min(baseServer.nZSlices(), serverToAlign.nZSlices());
+        int nTimepoints = Math.min(baseServer.nTimepoints(), serverToAlign.nTimepoints());
+        int nChains = switch (planeAxis) {
+            case Z -> nTimepoints;
+            case T -> nZSlices;
+        };
+        int chainLength = switch (planeAxis) {
+            case Z -> nZSlices;
+            case T -> nTimepoints;
+        };
+
+        logger.debug(
+                "Plane alignment of {} on {} along {} with {} chains of {} planes, starting from {}",
+                imageDataToAlign,
+                baseImageData,
+                planeAxis,
+                nChains,
+                chainLength,
+                initialTransform
+        );
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(eccOptions.numberOfThreads() > 0 ? eccOptions.numberOfThreads() : ThreadTools.getParallelism(), nChains),
+                ThreadTools.createThreadFactory("align-plane-ecc-", true)
+        );
+        try {
+            List<Future<Map<ImagePlane, AffineTransform>>> chains = new ArrayList<>(nChains);
+            for (int chain=0; chain<nChains; chain++) {
+                List<ImagePlane> planes = new ArrayList<>(chainLength);
+                for (int i=0; i<chainLength; i++) {
+                    planes.add(switch (planeAxis) {
+                        case Z -> ImagePlane.getPlane(i, chain);
+                        case T -> ImagePlane.getPlane(chain, i);
+                    });
+                }
+
+                // Chains already run in parallel, so each of them uses a single OpenCV thread
+                chains.add(executor.submit(() -> OpenCVThreads.callWithLimit(1, () -> alignPlaneChain(
+                        baseServer,
+                        serverToAlign,
+                        planes,
+                        transformationTypes,
+                        initialTransform,
+                        downsample,
+                        eccOptions
+                ))));
+            }
+
+            Map<ImagePlane, AffineTransform> transforms = new LinkedHashMap<>();
+            for (Future<Map<ImagePlane, AffineTransform>> chain: chains) {
+                transforms.putAll(chain.get());
+            }
+            return transforms;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Attempt to find the transformations that would align several images (for example the imaging rounds of a
+     * cyclic immunofluorescence experiment) on top of a reference image by looking at the pixel values of the images.
+     * <p>
+     * Images are aligned concurrently. The reference image is only read once, and all images are read through a
+     * shared pool of threads, so that reading the many strips of large images doesn't create one pool per image.
+     * Use {@link EccOptions#baseChannels()} and {@link EccOptions#channelsToAlign()} to only read a relevant channel
+     * (for example the nuclear stain present in every round). If the alignment of an image fails, its initial
+     * transformation is returned for it.
+     *
+     * @param referenceImageData the image to align to
+     * @param imageDataToAlign the images to align
+     * @param initialTransforms initial transformations from the reference image to each image to align, in the same
+     *                          order as the images to align
+     * @param transformationTypes what combinations of transformation can be used when performing auto alignment
+     * @param downsample the downsample at which the alignment should take place
+     * @param eccOptions options of the ECC criterion. The number of threads limits the number of images aligned at the
+     *                   same time
+     * @return the transformations that align each of the provided images on top of the reference image, in the same
+     * order as the images to align
+     * @throws NullPointerException if one of the provided parameter is null
+     * @throws IllegalArgumentException if the number of images to align and initial transformations differ
+     * @throws Exception if an error occurs while reading the images
+     */
+    public static List<AffineTransform> getMultiRoundAlignTransformations(
+            ImageData<BufferedImage> referenceImageData,
+            List<ImageData<BufferedImage>> imageDataToAlign,
+            List<AffineTransform> initialTransforms,
+            TransformationTypes transformationTypes,
+            double downsample,
+            EccOptions eccOptions
+    ) throws Exception {
+        if (imageDataToAlign.size() != initialTransforms.size()) {
+            throw new IllegalArgumentException(String.format(
+                    "The number of images to align (%d) and initial transforms (%d) differ",
+                    imageDataToAlign.size(),
+                    initialTransforms.size()
+            ));
+        }
+        if (imageDataToAlign.isEmpty()) {
+            return List.of();
+        }
+
+        logger.debug("Multi-round alignment of {} on {} with {}", imageDataToAlign, referenceImageData, eccOptions);
+
+        ImageServer<BufferedImage> referenceServer = referenceImageData.getServer();
+        ExecutorService readExecutor = Executors.newFixedThreadPool(
+                ThreadTools.getParallelism(),
+                ThreadTools.createThreadFactory("align-round-reader-", true)
+        );
+        ExecutorService alignExecutor = Executors.newFixedThreadPool(
+                Math.min(eccOptions.numberOfThreads() > 0 ? eccOptions.numberOfThreads() : ThreadTools.getParallelism(), imageDataToAlign.size()),
+                ThreadTools.createThreadFactory("align-round-ecc-", true)
+        );
+        try {
+            // Images are already processed in parallel, so OpenCV is limited to one thread per image to avoid oversubscription
+            return OpenCVThreads.callWithLimit(1, () -> {
+                List<Future<AffineTransform>> transforms = new ArrayList<>(imageDataToAlign.size());
+                for (int i=0; i<imageDataToAlign.size(); i++) {
+                    ImageServer<BufferedImage> serverToAlign = imageDataToAlign.get(i).getServer();
+                    AffineTransform initialTransform = initialTransforms.get(i);
+
+                    transforms.add(alignExecutor.submit(() -> {
+                        try {
+                            return alignWithEccCriterion(
+                                    referenceServer,
+                                    serverToAlign,
+                                    transformationTypes,
+                                    initialTransform,
+                                    downsample,
+                                    ImagePlane.getDefaultPlane(),
+                                    eccOptions,
+                                    true,
+                                    readExecutor
+                            );
+                        } catch (IOException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            logger.warn("Cannot align {} to {}. Using initial transform {}", serverToAlign, referenceServer, initialTransform, e);
+                            return new AffineTransform(initialTransform);
+                        }
+                    }));
+                }
+
+                List<AffineTransform> results = new ArrayList<>(transforms.size());
+                for (Future<AffineTransform> transform: transforms) {
+                    results.add(transform.get());
+                }
+                return results;
+            });
+        } finally {
+            alignExecutor.shutdownNow();
+            readExecutor.shutdownNow();
+        }
+    }
+
+    private static Map<ImagePlane, AffineTransform> alignPlaneChain(
+            ImageServer<BufferedImage> baseServer,
+            ImageServer<BufferedImage> serverToAlign,
+            List<ImagePlane> planes,
+            TransformationTypes transformationTypes,
+            AffineTransform initialTransform,
+            double downsample,
+            EccOptions eccOptions
+    ) throws IOException {
+        Map<ImagePlane, AffineTransform> transforms = new LinkedHashMap<>();
+        AffineTransform previousTransform = initialTransform;
+
+        for (ImagePlane plane: planes) {
+            AffineTransform transform;
+            try {
+                transform = alignWithEccCriterion(
+                        baseServer,
+                        serverToAlign,
+                        transformationTypes,
+                        previousTransform,
+                        downsample,
+                        plane,
+                        eccOptions,
+                        true,
+                        null
+                );
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                logger.warn("Cannot align plane {} of {} to {}. Using transform of previous plane {}", plane, serverToAlign, baseServer, previousTransform, e);
+                transform = new AffineTransform(previousTransform);
+            }
+
+            transforms.put(plane, transform);
+            previousTransform = transform;
+        }
+
+        return transforms;
+    }
+
     private static AffineTransform alignWithEccCriterion(
             ImageServer<BufferedImage> baseServer,
             ImageServer<BufferedImage> serverToAlign,
             TransformationTypes transformationTypes,
             AffineTransform initialTransform,
-            double downsample
+            double downsample,
+            ImagePlane plane,
+            EccOptions eccOptions,
+            boolean cachePreparedImages,
+            ExecutorService readExecutor
     ) throws Exception {
-        BufferedImage baseImage = ensureGrayScale(baseServer.readRegion(RegionRequest.createInstance(
-                baseServer.getPath(),
+        Mat[] preparedImages = ImagePreprocessing.prepareImages(
+                baseServer,
+                serverToAlign,
                 downsample,
-                0,
-                0,
-                baseServer.getWidth(),
-                baseServer.getHeight()
-        )));
-        BufferedImage imageToAlign = ensureGrayScale(serverToAlign.readRegion(RegionRequest.createInstance(
-                serverToAlign.getPath(),
-                downsample,
-                0,
-                0,
-                serverToAlign.getWidth(),
-                serverToAlign.getHeight()
-        )));
+                plane,
+                eccOptions.preprocessingStages(),
+                eccOptions.baseChannels(),
+                eccOptions.channelsToAlign(),
+                cachePreparedImages,
+                readExecutor
+        );
 
         try (
-                Mat baseMat = OpenCVTools.imageToMat(baseImage);
-                Mat matToAlign = OpenCVTools.imageToMat(imageToAlign);
+                Mat baseMat = preparedImages[0];
+                Mat matToAlign = preparedImages[1];
                 MatExpr matExprTransform = Mat.eye(2, 3, opencv_core.CV_32F);
                 Mat matTransform = matExprTransform.asMat();
                 Indexer indexer = matTransform.createIndexer();
@@ -193,14 +767,68 @@ public class AutoAligner {
             transformToMat(initialTransform, indexer, downsample);
 
             logger.debug(
-                    "Finding ECC transform from {} to {} with downsample {} and transformation types {}",
+                    "Finding ECC transform from {} to {} with downsample {}, plane {}, transformation types {}, and {}",
                     baseServer,
                     serverToAlign,
                     downsample,
-                    transformationTypes
+                    plane,
+                    transformationTypes,
+                    eccOptions
+            );
+            double result = OpenCVThreads.callWithLimit(
+                    eccOptions.numberOfThreads(),
+                    () -> opencv_video.findTransformECC(
+                            baseMat,
+                            matToAlign,
+                            matTransform,
+                            switch (transformationTypes) {
+                                case AFFINE -> opencv_video.MOTION_AFFINE;
+                                case RIGID -> opencv_video.MOTION_EUCLIDEAN;
+                            },
+                            termCriteria,
+                            null,
+                            eccOptions.gaussianFilterSize()
+                    )
             );
-            double result = opencv_video.findTransformECC(
-                    baseMat,
+            logger.debug("Transformation result of aligning {} to {}: {}", serverToAlign, baseServer, result);
+
+            return matToTransform(indexer, downsample);
+        }
+    }
+
+    private static AffineTransform alignTileWithEccCriterion(
+            Mat baseMat,
+            Mat matToAlign,
+            Rect tile,
+            TransformationTypes transformationTypes,
+            AffineTransform globalTransform,
+            double downsample,
+            int gaussianFilterSize
+    ) {
+        if (tile.width() < MIN_LOCAL_TILE_SIZE || tile.height() < MIN_LOCAL_TILE_SIZE) {
+            logger.trace("Tile {} of {} too small. Using global transform {}", tile, baseMat, globalTransform);
+            return new AffineTransform(globalTransform);
+        }
+
+        // The ECC criterion is computed on the tile only, so the initial transform must map coordinates relative to the
+        // tile origin. The result is then translated back to coordinates of the whole base image
+        double tileOriginX = tile.x() * downsample;
+        double tileOriginY = tile.y() * downsample;
+        AffineTransform initialTransform = new AffineTransform(globalTransform);
+        initialTransform.translate(tileOriginX, tileOriginY);
+
+        try (
+                Mat tileView = baseMat.apply(tile);
+                Mat tileMat = tileView.clone();
+                MatExpr matExprTransform = Mat.eye(2, 3, opencv_core.CV_32F);
+                Mat matTransform = matExprTransform.asMat();
+                Indexer indexer = matTransform.createIndexer();
+                TermCriteria termCriteria = new TermCriteria(TermCriteria.COUNT, ECC_MAX_COUNT, ECC_EPSILON)
+        ) {
+            transformToMat(initialTransform, indexer, downsample);
+
+            opencv_video.findTransformECC(
+                    tileMat,
                     matToAlign,
                     matTransform,
                     switch (transformationTypes) {
@@ -208,11 +836,31 @@ public class AutoAligner {
                         case RIGID -> opencv_video.MOTION_EUCLIDEAN;
                     },
                     termCriteria,
-                    null
+                    null,
+                    gaussianFilterSize
             );
-            logger.debug("Transformation result of aligning {} to {}: {}", serverToAlign, baseServer, result);
 
-            return matToTransform(indexer, downsample);
+            AffineTransform tileTransform = matToTransform(indexer, downsample);
+            tileTransform.translate(-tileOriginX, -tileOriginY);
+
+            Point2D center = new Point2D.Double(tileOriginX + tile.width() * downsample / 2, tileOriginY + tile.height() * downsample / 2);
+            double displacement = tileTransform.transform(center, null).distance(globalTransform.transform(center, null));
+            if (displacement > Math.max(tile.width(), tile.height()) * downsample / 2) {
+                logger.debug(
+                        "Local transform {} of tile {} moves its center by {} pixels compared to the global transform. Using global transform {}",
+                        tileTransform,
+                        tile,
+                        displacement,
+                        globalTransform
+                );
+                return new AffineTransform(globalTransform);
+            }
+
+            logger.trace("Local transform of tile {} estimated to {}", tile, tileTransform);
+            return tileTransform;
+        } catch (Exception e) {
+            logger.debug("Cannot estimate local transform of tile {}. Using global transform {}", tile, globalTransform, e);
+            return new AffineTransform(globalTransform);
         }
     }
 
@@ -262,6 +910,40 @@ public class AutoAligner {
         }
     }
 
+    /**
+     * Read the entire provided image at the provided downsample and convert it to an 8-bit grayscale image.
+     *
+     * @param server the image to read
+     * @param downsample the downsample at which the image should be read
+     * @param plane the plane of the image to read
+     * @param channels the channels of the image to use
+     * @param readExecutor an executor to read parts of the image in parallel. Can be null to read it in the calling thread
+     * @return an 8-bit grayscale image representing the provided image
+     * @throws IOException if an error occurs while reading the image
+     * @throws IllegalArgumentException if a selected channel doesn't exist in the provided image
+     */
+    static BufferedImage readGrayScaleImage(
+            ImageServer<BufferedImage> server,
+            double downsample,
+            ImagePlane plane,
+            ChannelSelection channels,
+            ExecutorService readExecutor
+    ) throws IOException {
+        if (!channels.isAllChannels()) {
+            return ChannelReader.readWeightedChannels(server, downsample, plane, channels.weights(), readExecutor);
+        }
+
+        return ensureGrayScale(server.readRegion(RegionRequest.createInstance(
+                server.getPath(),
+                downsample,
+                0,
+                0,
+                server.getWidth(),
+                server.getHeight(),
+                plane
+        )));
+    }
+
     private static BufferedImage ensureGrayScale(BufferedImage image) {
         return switch (image.getType()) {
             case BufferedImage.TYPE_BYTE_GRAY -> image;
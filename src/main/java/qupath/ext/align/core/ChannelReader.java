@@ -0,0 +1,165 @@
+package qupath.ext.align.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A static class to read a weighted combination of some channels of an image as an 8-bit grayscale image.
+ * <p>
+ * The QuPath image server API always reads all channels of a region, so the image is read by horizontal strips
+ * and only the selected channels of each strip are decoded and accumulated. This keeps the memory usage
+ * proportional to the size of one strip of all channels plus one float per pixel of the output image, instead of
+ * the size of all channels of the whole image. Strips can be read in parallel with a provided executor, which
+ * can be shared between several images read at the same time.
+ * <p>
+ * This class is thread-safe.
+ */
+class ChannelReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChannelReader.class);
+    private static final int STRIP_HEIGHT = 512;
+    private static final int N_GRAY_LEVELS = 256;
+    private record Strip(float[] values, int width, int height) {}
+
+    private ChannelReader() {
+        throw new AssertionError("This class is not instantiable.");
+    }
+
+    /**
+     * Read the entire provided image at the provided downsample, compute a weighted sum of the provided channels, and
+     * rescale the result to an 8-bit grayscale image (the minimum value being mapped to 0 and the maximum to 255).
+     *
+     * @param server the image to read
+     * @param downsample the downsample at which the image should be read
+     * @param plane the plane of the image to read
+     * @param channelWeights a map whose keys are the indices of the channels to use and values the weight of each channel
+     * @param readExecutor an executor to read strips of the image in parallel. Can be null to read them in the calling thread
+     * @return an 8-bit grayscale image representing the weighted sum of the provided channels
+     * @throws IOException if an error occurs while reading the image
+     * @throws IllegalArgumentException if a provided channel doesn't exist in the provided image
+     */
+    public static BufferedImage readWeightedChannels(
+            ImageServer<BufferedImage> server,
+            double downsample,
+            ImagePlane plane,
+            Map<Integer, Double> channelWeights,
+            ExecutorService readExecutor
+    ) throws IOException {
+        int nChannels = server.isRGB() ? 3 : server.nChannels();
+        for (int channel: channelWeights.keySet()) {
+            if (channel >= nChannels) {
+                throw new IllegalArgumentException(String.format(
+                        "The channel %d doesn't exist in %s, which has %d channels",
+                        channel,
+                        server,
+                        nChannels
+                ));
+            }
+        }
+        logger.debug("Reading channels {} of {} at downsample {} and plane {}", channelWeights, server, downsample, plane);
+
+        // Each strip covers about STRIP_HEIGHT rows of the downsampled image and the full width, so strips can be stacked
+        int stripHeight = (int) Math.max(1, Math.round(STRIP_HEIGHT * downsample));
+        List<RegionRequest> requests = new ArrayList<>();
+        for (int y=0; y<server.getHeight(); y+=stripHeight) {
+            requests.add(RegionRequest.createInstance(
+                    server.getPath(),
+                    downsample,
+                    0,
+                    y,
+                    server.getWidth(),
+                    Math.min(stripHeight, server.getHeight() - y),
+                    plane
+            ));
+        }
+
+        List<Strip> strips = new ArrayList<>(requests.size());
+        if (readExecutor == null) {
+            for (RegionRequest request: requests) {
+                strips.add(combineChannels(server.readRegion(request).getRaster(), channelWeights));
+            }
+        } else {
+            List<Future<Strip>> futures = requests.stream()
+                    .map(request -> readExecutor.submit(() -> combineChannels(server.readRegion(request).getRaster(), channelWeights)))
+                    .toList();
+            try {
+                for (Future<Strip> future: futures) {
+                    strips.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                futures.forEach(future -> future.cancel(true));
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                } else {
+                    throw new IOException(e.getCause());
+                }
+            }
+        }
+
+        return toGrayScaleImage(strips);
+    }
+
+    private static Strip combineChannels(Raster raster, Map<Integer, Double> channelWeights) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        float[] values = new float[width * height];
+        float[] channelValues = new float[width * height];
+
+        for (Map.Entry<Integer, Double> entry: channelWeights.entrySet()) {
+            raster.getSamples(0, 0, width, height, entry.getKey(), channelValues);
+
+            float weight = entry.getValue().floatValue();
+            for (int i=0; i<values.length; i++) {
+                values[i] += weight * channelValues[i];
+            }
+        }
+
+        return new Strip(values, width, height);
+    }
+
+    private static BufferedImage toGrayScaleImage(List<Strip> strips) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (Strip strip: strips) {
+            for (float value: strip.values()) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+        float scale = max > min ? (N_GRAY_LEVELS - 1) / (max - min) : 0;
+
+        int width = strips.isEmpty() ? 1 : strips.getFirst().width();
+        int height = Math.max(1, strips.stream().mapToInt(Strip::height).sum());
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+        int offset = 0;
+        for (Strip strip: strips) {
+            float[] values = strip.values();
+            for (int i=0; i<values.length; i++) {
+                pixels[offset + i] = (byte) Math.round((values[i] - min) * scale);
+            }
+            offset += values.length;
+        }
+
+        return image;
+    }
+}
@@ -0,0 +1,254 @@
+package qupath.ext.align.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.images.servers.AbstractImageServer;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerBuilder;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An image server that concatenates the channels of a base image and of several images already aligned on top
+ * of it (for example with {@link TransformedImageServer}).
+ * <p>
+ * Channels of the base image come first, followed by the channels of each aligned image in order. Channels of
+ * aligned images are suffixed with the name of their image. RGB images contribute their red, green, and blue
+ * channels. If all images have the same pixel type, this server uses it, otherwise it uses
+ * {@link PixelType#FLOAT32}.
+ * <p>
+ * Pixels are computed when requested: the region is read from all images in parallel and their channels are
+ * copied to the returned image. This server doesn't cache pixels, as the combined images are expected to have
+ * their own cache.
+ * <p>
+ * Closing this server doesn't close the combined servers.
+ * <p>
+ * This class is thread-safe.
+ */
+public class FusedImageServer extends AbstractImageServer<BufferedImage> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FusedImageServer.class);
+    private final List<ImageServer<BufferedImage>> servers;
+    private final ImageServerMetadata metadata;
+    private final ColorModel colorModel;
+    private final ExecutorService executor;
+
+    /**
+     * Create the server.
+     *
+     * @param baseServer the server of the base image
+     * @param alignedServers the servers of the images aligned on top of the base image. They must have the same size
+     *                       as the base image
+     * @throws NullPointerException if one of the provided parameter is null or if the provided list contains null elements
+     * @throws IllegalArgumentException if one of the aligned servers doesn't have the size of the base server
+     */
+    public FusedImageServer(ImageServer<BufferedImage> baseServer, List<ImageServer<BufferedImage>> alignedServers) {
+        super(BufferedImage.class);
+
+        List<ImageServer<BufferedImage>> servers = new ArrayList<>();
+        servers.add(Objects.requireNonNull(baseServer));
+        servers.addAll(alignedServers);
+        this.servers = List.copyOf(servers);
+
+        for (ImageServer<BufferedImage> server: alignedServers) {
+            if (server.getWidth() != baseServer.getWidth() || server.getHeight() != baseServer.getHeight()) {
+                throw new IllegalArgumentException(String.format(
+                        "The size of %s (%dx%d) differs from the size of the base server %s (%dx%d)",
+                        server,
+                        server.getWidth(),
+                        server.getHeight(),
+                        baseServer,
+                        baseServer.getWidth(),
+                        baseServer.getHeight()
+                ));
+            }
+        }
+
+        List<ImageChannel> channels = new ArrayList<>(baseServer.getMetadata().getChannels());
+        for (ImageServer<BufferedImage> server: alignedServers) {
+            for (ImageChannel channel: server.getMetadata().getChannels()) {
+                channels.add(ImageChannel.getInstance(
+                        String.format("%s (%s)", channel.getName(), server.getMetadata().getName()),
+                        channel.getColor()
+                ));
+            }
+        }
+        List<PixelType> pixelTypes = this.servers.stream().map(ImageServer::getPixelType).distinct().toList();
+        PixelType pixelType = pixelTypes.size() == 1 ? pixelTypes.getFirst() : PixelType.FLOAT32;
+
+        this.metadata = new ImageServerMetadata.Builder(baseServer.getMetadata())
+                .rgb(false)
+                .pixelType(pixelType)
+                .channels(channels)
+                .build();
+        this.colorModel = ColorModelFactory.createColorModel(pixelType, channels);
+        this.executor = Executors.newFixedThreadPool(
+                Math.min(ThreadTools.getParallelism(), this.servers.size()),
+                ThreadTools.createThreadFactory("align-fused-reader-", true)
+        );
+    }
+
+    @Override
+    protected ImageServerBuilder.ServerBuilder<BufferedImage> createServerBuilder() {
+        List<ImageServerBuilder.ServerBuilder<BufferedImage>> builders = servers.stream()
+                .map(ImageServer::getBuilder)
+                .toList();
+        return builders.contains(null) ? null : new Builder(builders);
+    }
+
+    @Override
+    protected String createID() {
+        return String.format(
+                "%s: %s",
+                getClass().getName(),
+                servers.stream().map(ImageServer::getPath).toList()
+        );
+    }
+
+    @Override
+    public Collection<URI> getURIs() {
+        return servers.stream()
+                .map(ImageServer::getURIs)
+                .flatMap(Collection::stream)
+                .distinct()
+                .toList();
+    }
+
+    @Override
+    public BufferedImage readRegion(RegionRequest request) throws IOException {
+        logger.trace("Reading {} from {} in parallel", request, servers);
+
+        List<Future<BufferedImage>> images = servers.stream()
+                .map(server -> executor.submit(() -> server.readRegion(RegionRequest.createInstance(
+                        server.getPath(),
+                        request.getDownsample(),
+                        request
+                ))))
+                .toList();
+
+        WritableRaster raster = null;
+        int band = 0;
+        double[] samples = null;
+        try {
+            for (int i=0; i<servers.size(); i++) {
+                Raster sourceRaster = images.get(i).get().getRaster();
+
+                if (raster == null) {
+                    raster = colorModel.createCompatibleWritableRaster(sourceRaster.getWidth(), sourceRaster.getHeight());
+                    samples = new double[raster.getWidth() * raster.getHeight()];
+                }
+
+                int width = Math.min(raster.getWidth(), sourceRaster.getWidth());
+                int height = Math.min(raster.getHeight(), sourceRaster.getHeight());
+                // The number of channels is used instead of the number of bands to skip the alpha band of RGB images
+                for (int sourceBand=0; sourceBand<servers.get(i).nChannels(); sourceBand++) {
+                    sourceRaster.getSamples(0, 0, width, height, sourceBand, samples);
+                    raster.setSamples(0, 0, width, height, band++, samples);
+                }
+            }
+        } catch (InterruptedException e) {
+            images.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            images.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            } else {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    @Override
+    public String getServerType() {
+        return "Fused image server";
+    }
+
+    @Override
+    public ImageServerMetadata getOriginalMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public void close() throws Exception {
+        executor.shutdownNow();
+        super.close();
+    }
+
+    /**
+     * A server builder that creates a {@link FusedImageServer} from the builders of the combined servers.
+     * <p>
+     * This builder can be serialized to JSON with the server builder type adapter of QuPath (which allows fused
+     * servers to be saved in projects), once registered with
+     * {@link qupath.lib.images.servers.ImageServers#getServerBuilderFactory()}.
+     */
+    public static class Builder implements ImageServerBuilder.ServerBuilder<BufferedImage> {
+
+        private final List<ImageServerBuilder.ServerBuilder<BufferedImage>> builders;
+
+        /**
+         * Create the builder.
+         *
+         * @param builders the builders of the combined servers. The first one must be the builder of the base image
+         * @throws NullPointerException if the provided list is null or contains null elements
+         * @throws IllegalArgumentException if the provided list is empty
+         */
+        public Builder(List<ImageServerBuilder.ServerBuilder<BufferedImage>> builders) {
+            if (builders.isEmpty()) {
+                throw new IllegalArgumentException("At least the builder of the base image must be provided");
+            }
+
+            this.builders = List.copyOf(builders);
+        }
+
+        @Override
+        public ImageServer<BufferedImage> build() throws Exception {
+            List<ImageServer<BufferedImage>> servers = new ArrayList<>(builders.size());
+            for (ImageServerBuilder.ServerBuilder<BufferedImage> builder: builders) {
+                servers.add(builder.build());
+            }
+
+            return new FusedImageServer(servers.getFirst(), servers.subList(1, servers.size()));
+        }
+
+        @Override
+        public Collection<URI> getURIs() {
+            return builders.stream()
+                    .map(ImageServerBuilder.ServerBuilder::getURIs)
+                    .flatMap(Collection::stream)
+                    .distinct()
+                    .toList();
+        }
+
+        @Override
+        public ImageServerBuilder.ServerBuilder<BufferedImage> updateURIs(Map<URI, URI> updateMap) {
+            return new Builder(builders.stream()
+                    .map(builder -> builder.updateURIs(updateMap))
+                    .toList()
+            );
+        }
+    }
+}
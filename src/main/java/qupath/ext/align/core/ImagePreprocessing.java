@@ -0,0 +1,245 @@
+package qupath.ext.align.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.bytedeco.opencv.opencv_imgproc.CLAHE;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.regions.ImagePlane;
+import qupath.opencv.tools.OpenCVTools;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A static class to read images and apply {@link AutoAligner.PreprocessingStage preprocessing stages} on them
+ * before they are given to the ECC criterion.
+ * <p>
+ * Prepared images can be cached, so that aligning several times the same images (for example with different
+ * transformation types or initial transforms) doesn't read and preprocess them again. The cache key contains the
+ * path of the image server (and not the server itself, so that cached images don't keep closed servers alive), the
+ * downsample, the plane, the selected channels, and the preprocessing stages, so it must only be used with servers whose
+ * pixel values don't change and whose paths uniquely identify their pixels.
+ * <p>
+ * This class is thread-safe.
+ */
+class ImagePreprocessing {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImagePreprocessing.class);
+    private static final long CACHE_MAX_BYTES = 256L * 1024 * 1024;
+    private static final long CACHE_EXPIRATION_MINUTES = 10;
+    private static final double CLAHE_CLIP_LIMIT = 2.0;
+    private static final int CLAHE_TILE_GRID_SIZE = 8;
+    private static final int N_GRAY_LEVELS = 256;
+    private static final Cache<PreparedImageKey, PreparedImage> cache = CacheBuilder.newBuilder()
+            .maximumWeight(CACHE_MAX_BYTES)
+            .weigher((PreparedImageKey key, PreparedImage image) -> image.pixels().length)
+            .expireAfterAccess(CACHE_EXPIRATION_MINUTES, TimeUnit.MINUTES)
+            .build();
+    private record PreparedImageKey(
+            String serverPath,
+            double downsample,
+            ImagePlane plane,
+            AutoAligner.ChannelSelection channels,
+            List<AutoAligner.PreprocessingStage> preprocessingStages,
+            PreparedImageKey referenceKey
+    ) {}
+    private record PreparedImage(byte[] pixels, int width, int height) {}
+
+    private ImagePreprocessing() {
+        throw new AssertionError("This class is not instantiable.");
+    }
+
+    /**
+     * Read the selected channels of the base image and the image to align, convert them to 8-bit grayscale, and apply the provided
+     * preprocessing stages on them in order. {@link AutoAligner.PreprocessingStage#HISTOGRAM_MATCHING} is only
+     * applied on the image to align.
+     *
+     * @param baseServer the server of the image to align to
+     * @param serverToAlign the server of the image to align
+     * @param downsample the downsample at which the images should be read
+     * @param plane the plane of the images to read
+     * @param preprocessingStages the preprocessing stages to apply
+     * @param baseChannels the channels of the base image to use
+     * @param channelsToAlign the channels of the image to align to use
+     * @param useCache whether prepared images can be retrieved from and stored in the cache
+     * @param readExecutor an executor to read parts of the images in parallel. Can be null to read them in the calling thread
+     * @return the prepared base image (first element) and image to align (second element). They must be closed once no longer used
+     * @throws IOException if an error occurs while reading the images
+     */
+    public static Mat[] prepareImages(
+            ImageServer<BufferedImage> baseServer,
+            ImageServer<BufferedImage> serverToAlign,
+            double downsample,
+            ImagePlane plane,
+            List<AutoAligner.PreprocessingStage> preprocessingStages,
+            AutoAligner.ChannelSelection baseChannels,
+            AutoAligner.ChannelSelection channelsToAlign,
+            boolean useCache,
+            ExecutorService readExecutor
+    ) throws IOException {
+        PreparedImageKey baseKey = new PreparedImageKey(
+                baseServer.getPath(),
+                downsample,
+                plane,
+                baseChannels,
+                preprocessingStages.stream()
+                        .filter(stage -> stage != AutoAligner.PreprocessingStage.HISTOGRAM_MATCHING)
+                        .toList(),
+                null
+        );
+        PreparedImage baseImage = getPreparedImage(baseServer, baseKey, null, useCache, readExecutor);
+
+        PreparedImageKey keyToAlign = new PreparedImageKey(
+                serverToAlign.getPath(),
+                downsample,
+                plane,
+                channelsToAlign,
+                List.copyOf(preprocessingStages),
+                preprocessingStages.contains(AutoAligner.PreprocessingStage.HISTOGRAM_MATCHING) ? baseKey : null
+        );
+        PreparedImage imageToAlign = getPreparedImage(serverToAlign, keyToAlign, baseImage, useCache, readExecutor);
+
+        return new Mat[] {toMat(baseImage), toMat(imageToAlign)};
+    }
+
+    private static PreparedImage getPreparedImage(
+            ImageServer<BufferedImage> server,
+            PreparedImageKey key,
+            PreparedImage reference,
+            boolean useCache,
+            ExecutorService readExecutor
+    ) throws IOException {
+        if (!useCache) {
+            return prepareImage(server, key, reference, readExecutor);
+        }
+
+        try {
+            return cache.get(key, () -> prepareImage(server, key, reference, readExecutor));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            } else {
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    private static PreparedImage prepareImage(
+            ImageServer<BufferedImage> server,
+            PreparedImageKey key,
+            PreparedImage reference,
+            ExecutorService readExecutor
+    ) throws IOException {
+        logger.debug(
+                "Preparing image of {} at downsample {} and plane {} with channels {} and preprocessing stages {}",
+                server,
+                key.downsample(),
+                key.plane(),
+                key.channels(),
+                key.preprocessingStages()
+        );
+
+        try (Mat mat = OpenCVTools.imageToMat(AutoAligner.readGrayScaleImage(
+                server,
+                key.downsample(),
+                key.plane(),
+                key.channels(),
+                readExecutor
+        ))) {
+            for (AutoAligner.PreprocessingStage stage: key.preprocessingStages()) {
+                switch (stage) {
+                    case CLAHE -> applyClahe(mat);
+                    case GRADIENT_MAGNITUDE -> applyGradientMagnitude(mat);
+                    case HISTOGRAM_MATCHING -> {
+                        if (reference != null) {
+                            matchHistogram(mat, reference);
+                        }
+                    }
+                }
+            }
+
+            return fromMat(mat);
+        }
+    }
+
+    private static void applyClahe(Mat mat) {
+        try (
+                Size tileGridSize = new Size(CLAHE_TILE_GRID_SIZE, CLAHE_TILE_GRID_SIZE);
+                CLAHE clahe = opencv_imgproc.createCLAHE(CLAHE_CLIP_LIMIT, tileGridSize)
+        ) {
+            clahe.apply(mat, mat);
+        }
+    }
+
+    private static void applyGradientMagnitude(Mat mat) {
+        try (
+                Mat dx = new Mat();
+                Mat dy = new Mat();
+                Mat magnitude = new Mat()
+        ) {
+            opencv_imgproc.Sobel(mat, dx, opencv_core.CV_32F, 1, 0);
+            opencv_imgproc.Sobel(mat, dy, opencv_core.CV_32F, 0, 1);
+            opencv_core.magnitude(dx, dy, magnitude);
+            opencv_core.normalize(magnitude, mat, 0, N_GRAY_LEVELS - 1, opencv_core.NORM_MINMAX, opencv_core.CV_8U, null);
+        }
+    }
+
+    private static void matchHistogram(Mat mat, PreparedImage reference) {
+        byte[] pixels = new byte[(int) mat.total()];
+        mat.data().get(pixels);
+
+        double[] cdf = computeCumulativeDistribution(pixels);
+        double[] referenceCdf = computeCumulativeDistribution(reference.pixels());
+
+        // Each gray level is mapped to the first reference gray level whose cumulative distribution is not lower
+        byte[] lut = new byte[N_GRAY_LEVELS];
+        int referenceLevel = 0;
+        for (int level=0; level<N_GRAY_LEVELS; level++) {
+            while (referenceLevel < N_GRAY_LEVELS - 1 && referenceCdf[referenceLevel] < cdf[level]) {
+                referenceLevel++;
+            }
+            lut[level] = (byte) referenceLevel;
+        }
+
+        for (int i=0; i<pixels.length; i++) {
+            pixels[i] = lut[pixels[i] & 0xFF];
+        }
+        mat.data().put(pixels);
+    }
+
+    private static double[] computeCumulativeDistribution(byte[] pixels) {
+        double[] cdf = new double[N_GRAY_LEVELS];
+        for (byte pixel: pixels) {
+            cdf[pixel & 0xFF]++;
+        }
+        for (int level=1; level<N_GRAY_LEVELS; level++) {
+            cdf[level] += cdf[level - 1];
+        }
+        for (int level=0; level<N_GRAY_LEVELS; level++) {
+            cdf[level] /= Math.max(pixels.length, 1);
+        }
+        return cdf;
+    }
+
+    private static Mat toMat(PreparedImage image) {
+        Mat mat = new Mat(image.height(), image.width(), opencv_core.CV_8UC1);
+        mat.data().put(image.pixels());
+        return mat;
+    }
+
+    private static PreparedImage fromMat(Mat mat) {
+        byte[] pixels = new byte[(int) mat.total()];
+        mat.data().get(pixels);
+        return new PreparedImage(pixels, mat.cols(), mat.rows());
+    }
+}
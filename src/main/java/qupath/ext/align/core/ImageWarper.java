@@ -0,0 +1,239 @@
+package qupath.ext.align.core;
+
+import qupath.lib.common.ThreadTools;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A static class to warp an RGB image with an arbitrary coordinate mapping, without relying on Java2D.
+ * <p>
+ * The output image is computed by strips of rows, in parallel unless the caller already parallelizes its own work
+ * (see {@link #warp(BufferedImage, int, int, CoordinateMapping, Interpolation, boolean)}). For each row, the coordinates of the output pixels
+ * are mapped in a single call to a {@link CoordinateMapping}, and the source image is then sampled with nearest
+ * neighbor or bilinear interpolation. No object is allocated per pixel. Output pixels mapped outside the source
+ * image are transparent.
+ */
+public class ImageWarper {
+
+    private static final int MIN_ROWS_PER_STRIP = 16;
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            ThreadTools.getParallelism(),
+            ThreadTools.createThreadFactory("align-image-warper-", true)
+    );
+
+    /**
+     * The interpolation to use when sampling the source image.
+     */
+    public enum Interpolation {
+        /**
+         * Use the value of the closest source pixel
+         */
+        NEAREST,
+        /**
+         * Linearly interpolate the values of the four closest source pixels
+         */
+        BILINEAR
+    }
+
+    /**
+     * A function mapping coordinates of pixels of the output image to coordinates of pixels of the source image.
+     * In both images, the center of the pixel located at column i and row j has coordinates (i + 0.5, j + 0.5).
+     */
+    @FunctionalInterface
+    public interface CoordinateMapping {
+
+        /**
+         * Map the provided points in place. This function may be called concurrently from several threads, with
+         * different arrays.
+         *
+         * @param points the coordinates of the points to map, stored as [x0, y0, x1, y1, ...]. They should be
+         *               replaced by the mapped coordinates
+         * @param nPoints the number of points to map
+         */
+        void map(double[] points, int nPoints);
+    }
+
+    private ImageWarper() {
+        throw new AssertionError("This class is not instantiable.");
+    }
+
+    /**
+     * Warp the provided image, computing strips of rows in parallel.
+     * See {@link #warp(BufferedImage, int, int, CoordinateMapping, Interpolation, boolean)}.
+     */
+    public static BufferedImage warp(
+            BufferedImage source,
+            int width,
+            int height,
+            CoordinateMapping mapping,
+            Interpolation interpolation
+    ) throws InterruptedException {
+        return warp(source, width, height, mapping, interpolation, true);
+    }
+
+    /**
+     * Warp the provided image.
+     *
+     * @param source the image to warp. It is converted to ARGB first if it doesn't have the
+     *               {@link BufferedImage#TYPE_INT_ARGB} or {@link BufferedImage#TYPE_INT_RGB} type
+     * @param width the width in pixels of the output image
+     * @param height the height in pixels of the output image
+     * @param mapping the function mapping coordinates of the output image to coordinates of the source image
+     * @param interpolation the interpolation to use when sampling the source image
+     * @param parallel whether strips of rows should be computed in parallel. This should be false when the calling
+     *                 thread is already one of many threads warping images (for example when tiles are rendered in
+     *                 parallel), so that each call doesn't submit further tasks to a shared pool
+     * @return a new image of type {@link BufferedImage#TYPE_INT_ARGB} containing the warped image
+     * @throws NullPointerException if one of the provided parameters is null
+     * @throws IllegalArgumentException if the provided width or height is not strictly positive
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the output image to be computed
+     */
+    public static BufferedImage warp(
+            BufferedImage source,
+            int width,
+            int height,
+            CoordinateMapping mapping,
+            Interpolation interpolation,
+            boolean parallel
+    ) throws InterruptedException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException(String.format("The output size %dx%d is not valid", width, height));
+        }
+
+        BufferedImage argbSource = toIntImage(source);
+        Source sourcePixels = new Source(
+                ((DataBufferInt) argbSource.getRaster().getDataBuffer()).getData(),
+                argbSource.getWidth(),
+                argbSource.getHeight(),
+                argbSource.getType() == BufferedImage.TYPE_INT_RGB
+        );
+        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] outputPixels = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+
+        int nStrips = parallel ? Math.max(1, Math.min(ThreadTools.getParallelism(), height / MIN_ROWS_PER_STRIP)) : 1;
+        int rowsPerStrip = (height + nStrips - 1) / nStrips;
+        List<Callable<Void>> strips = new ArrayList<>(nStrips);
+        for (int firstRow=0; firstRow<height; firstRow+=rowsPerStrip) {
+            int stripFirstRow = firstRow;
+            int stripLastRow = Math.min(firstRow + rowsPerStrip, height);
+
+            strips.add(() -> {
+                warpRows(sourcePixels, outputPixels, width, stripFirstRow, stripLastRow, mapping, interpolation);
+                return null;
+            });
+        }
+
+        if (strips.size() == 1) {
+            warpRows(sourcePixels, outputPixels, width, 0, height, mapping, interpolation);
+        } else {
+            for (Future<Void> strip: executor.invokeAll(strips)) {
+                try {
+                    strip.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException runtimeException) {
+                        throw runtimeException;
+                    } else {
+                        throw new RuntimeException(e.getCause());
+                    }
+                }
+            }
+        }
+
+        return output;
+    }
+
+    private record Source(int[] pixels, int width, int height, boolean opaque) {
+
+        public int get(int x, int y) {
+            int pixel = pixels[y * width + x];
+            return opaque ? pixel | 0xff000000 : pixel;
+        }
+    }
+
+    private static BufferedImage toIntImage(BufferedImage image) {
+        boolean intImage = image.getType() == BufferedImage.TYPE_INT_ARGB || image.getType() == BufferedImage.TYPE_INT_RGB;
+        if (intImage && image.getRaster().getParent() == null) {      // sub-images share the pixel array of their parent
+            return image;
+        }
+
+        BufferedImage argbImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = argbImage.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return argbImage;
+    }
+
+    private static void warpRows(
+            Source source,
+            int[] output,
+            int width,
+            int firstRow,
+            int lastRow,
+            CoordinateMapping mapping,
+            Interpolation interpolation
+    ) {
+        // The same buffer is reused for all rows of the strip
+        double[] points = new double[2 * width];
+
+        for (int row=firstRow; row<lastRow; row++) {
+            for (int col=0; col<width; col++) {
+                points[2*col] = col + 0.5;
+                points[2*col + 1] = row + 0.5;
+            }
+            mapping.map(points, width);
+
+            int offset = row * width;
+            for (int col=0; col<width; col++) {
+                output[offset + col] = switch (interpolation) {
+                    case NEAREST -> sampleNearest(source, points[2*col], points[2*col + 1]);
+                    case BILINEAR -> sampleBilinear(source, points[2*col], points[2*col + 1]);
+                };
+            }
+        }
+    }
+
+    private static int sampleNearest(Source source, double x, double y) {
+        if (!(x >= 0 && y >= 0 && x < source.width() && y < source.height())) {
+            return 0;
+        }
+        return source.get((int) x, (int) y);
+    }
+
+    private static int sampleBilinear(Source source, double x, double y) {
+        if (!(x >= 0 && y >= 0 && x < source.width() && y < source.height())) {
+            return 0;
+        }
+
+        // Neighbors are clamped to the image, so that pixels at the border keep their values
+        double u = Math.min(Math.max(x - 0.5, 0), source.width() - 1);
+        double v = Math.min(Math.max(y - 0.5, 0), source.height() - 1);
+        int x0 = (int) u;
+        int y0 = (int) v;
+        int x1 = Math.min(x0 + 1, source.width() - 1);
+        int y1 = Math.min(y0 + 1, source.height() - 1);
+        double wx = u - x0;
+        double wy = v - y0;
+
+        int p00 = source.get(x0, y0);
+        int p10 = source.get(x1, y0);
+        int p01 = source.get(x0, y1);
+        int p11 = source.get(x1, y1);
+
+        int pixel = 0;
+        for (int shift=0; shift<32; shift+=8) {
+            double value = (1 - wy) * ((1 - wx) * ((p00 >>> shift) & 0xff) + wx * ((p10 >>> shift) & 0xff)) +
+                    wy * ((1 - wx) * ((p01 >>> shift) & 0xff) + wx * ((p11 >>> shift) & 0xff));
+            pixel |= ((int) Math.round(value) & 0xff) << shift;
+        }
+        return pixel;
+    }
+}
@@ -0,0 +1,629 @@
+package qupath.ext.align.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.PixelCalibration;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.DoubleConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A static class to write an image server to a pyramidal OME-TIFF file by streaming it tile by tile.
+ * <p>
+ * This is typically used with a {@link TransformedImageServer} to export a warped image without ever holding it
+ * in memory. The full resolution tiles are read from the server and encoded by a pool of workers, while the
+ * calling thread writes them to the file as soon as they are ready. The number of tiles in flight is bounded, so
+ * the memory usage doesn't depend on the size of the image (apart from the table of tile offsets, which is
+ * a few bytes per tile). Each lower resolution is then built from the previous resolution already written to
+ * the file, by averaging blocks of 2x2 pixels, so the server is only read once.
+ * <p>
+ * The file is a BigTIFF with deflate compression. Non-RGB images are written with one directory per channel,
+ * z-slice and timepoint (in this order), and lower resolutions are stored as sub-directories, as described by the
+ * OME-TIFF specification.
+ */
+public class OmeTiffExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(OmeTiffExporter.class);
+    private static final int TILE_SIZE = 512;
+    private static final int MAX_TILES_IN_FLIGHT_PER_THREAD = 2;
+    private static final short TIFF_SHORT = 3;
+    private static final short TIFF_LONG = 4;
+    private static final short TIFF_ASCII = 2;
+    private static final short TIFF_LONG8 = 16;
+    private static final short TIFF_IFD8 = 18;
+    private static final int COMPRESSION_DEFLATE = 8;
+    private static final int PHOTOMETRIC_MIN_IS_BLACK = 1;
+    private static final int PHOTOMETRIC_RGB = 2;
+    private record Tile(int directory, int level, int index, byte[] bytes) {}
+    private record Level(int width, int height, int nTilesX, int nTilesY) {}
+
+    private OmeTiffExporter() {
+        throw new AssertionError("This class is not instantiable.");
+    }
+
+    /**
+     * Write all planes of the provided image to a pyramidal OME-TIFF file.
+     *
+     * @param server the image to write
+     * @param path the path of the file to write. It will be overwritten if it already exists and the export succeeds.
+     *             The image is first written to a temporary file of the same directory, so an existing file is left
+     *             untouched if the export fails
+     * @param numberOfThreads the number of threads reading and encoding tiles. If less than 1, the QuPath parallelism
+     *                        is used
+     * @param progress a function called with the progress of the export (between 0 and 1). It is called from the
+     *                 calling thread. Can be null
+     * @throws IOException if an error occurs while reading the image or writing the file
+     * @throws InterruptedException if the calling thread is interrupted while writing the file
+     * @throws NullPointerException if the provided server or path is null
+     */
+    public static void writeImage(ImageServer<BufferedImage> server, Path path, int numberOfThreads, DoubleConsumer progress)
+            throws IOException, InterruptedException {
+        new Export(server, path, numberOfThreads < 1 ? ThreadTools.getParallelism() : numberOfThreads, progress).run();
+    }
+
+    private static class Export {
+
+        private final ImageServer<BufferedImage> server;
+        private final Path path;
+        private final int numberOfThreads;
+        private final DoubleConsumer progress;
+        private final PixelType pixelType;
+        private final int samplesPerPixel;
+        private final int nDirectories;
+        private final List<Level> levels = new ArrayList<>();
+        private final long[][][] tileOffsets;
+        private final long[][][] tileByteCounts;
+        private final long totalTiles;
+        private FileChannel channel;
+        private long fileEnd;
+        private long writtenTiles;
+
+        public Export(ImageServer<BufferedImage> server, Path path, int numberOfThreads, DoubleConsumer progress) {
+            this.server = server;
+            this.path = path;
+            this.numberOfThreads = numberOfThreads;
+            this.progress = progress;
+            this.pixelType = server.getPixelType();
+            this.samplesPerPixel = server.isRGB() ? 3 : 1;
+            this.nDirectories = (server.isRGB() ? 1 : server.nChannels()) * server.nZSlices() * server.nTimepoints();
+
+            int width = server.getWidth();
+            int height = server.getHeight();
+            do {
+                levels.add(new Level(width, height, Math.ceilDiv(width, TILE_SIZE), Math.ceilDiv(height, TILE_SIZE)));
+                width = Math.ceilDiv(width, 2);
+                height = Math.ceilDiv(height, 2);
+            } while (levels.getLast().width() > TILE_SIZE || levels.getLast().height() > TILE_SIZE);
+
+            this.tileOffsets = new long[nDirectories][levels.size()][];
+            this.tileByteCounts = new long[nDirectories][levels.size()][];
+            long totalTiles = 0;
+            for (int level=0; level<levels.size(); level++) {
+                int nTiles = levels.get(level).nTilesX() * levels.get(level).nTilesY();
+                for (int directory=0; directory<nDirectories; directory++) {
+                    tileOffsets[directory][level] = new long[nTiles];
+                    tileByteCounts[directory][level] = new long[nTiles];
+                }
+                totalTiles += (long) nTiles * nDirectories;
+            }
+            this.totalTiles = totalTiles;
+        }
+
+        public void run() throws IOException, InterruptedException {
+            logger.debug("Writing {} to {} with {} resolution levels and {} threads", server, path, levels.size(), numberOfThreads);
+
+            Path temporaryPath = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    numberOfThreads,
+                    ThreadTools.createThreadFactory("align-ome-tiff-writer-", true)
+            );
+            try {
+                try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    this.channel = channel;
+                    fileEnd = 16;       // size of the BigTIFF header, written at the end
+
+                    for (int level=0; level<levels.size(); level++) {
+                        writeTiles(executor, createJobs(level));
+                    }
+
+                    long firstDirectoryOffset = writeDirectories();
+                    write(0, ByteBuffer.allocate(16)
+                            .order(ByteOrder.LITTLE_ENDIAN)
+                            .put((byte) 'I')
+                            .put((byte) 'I')
+                            .putShort((short) 43)
+                            .putShort((short) 8)
+                            .putShort((short) 0)
+                            .putLong(firstDirectoryOffset)
+                            .flip()
+                    );
+                }
+
+                try {
+                    Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    logger.debug("Cannot atomically move {} to {}. Moving it non-atomically", temporaryPath, path, e);
+                    Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                executor.shutdownNow();
+
+                // The temporary file only remains if the export failed
+                try {
+                    Files.deleteIfExists(temporaryPath);
+                } catch (IOException e) {
+                    logger.warn("Cannot delete temporary file {}", temporaryPath, e);
+                }
+            }
+
+            logger.debug("{} written to {}", server, path);
+        }
+
+        private Iterator<Callable<List<Tile>>> createJobs(int level) {
+            Level currentLevel = levels.get(level);
+            int nTiles = currentLevel.nTilesX() * currentLevel.nTilesY();
+            int nJobs = level == 0 ? nTiles * server.nZSlices() * server.nTimepoints() : nTiles * nDirectories;
+
+            // Jobs are created lazily so that the memory usage doesn't depend on the number of tiles
+            return new Iterator<>() {
+                private int job = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return job < nJobs;
+                }
+
+                @Override
+                public Callable<List<Tile>> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    int index = job % nTiles;
+                    int group = job / nTiles;
+                    job++;
+
+                    if (level == 0) {
+                        return () -> readFullResolutionTiles(group % server.nZSlices(), group / server.nZSlices(), index);
+                    } else {
+                        return () -> List.of(downsampleTile(group, level, index));
+                    }
+                }
+            };
+        }
+
+        private void writeTiles(ExecutorService executor, Iterator<Callable<List<Tile>>> jobs) throws IOException, InterruptedException {
+            CompletionService<List<Tile>> completionService = new ExecutorCompletionService<>(executor);
+            int maxTilesInFlight = numberOfThreads * MAX_TILES_IN_FLIGHT_PER_THREAD;
+            List<Future<List<Tile>>> futures = new ArrayList<>(maxTilesInFlight);
+
+            int inFlight = 0;
+            try {
+                while (jobs.hasNext() || inFlight > 0) {
+                    while (jobs.hasNext() && inFlight < maxTilesInFlight) {
+                        futures.add(completionService.submit(jobs.next()));
+                        inFlight++;
+                    }
+
+                    Future<List<Tile>> future = completionService.take();
+                    futures.remove(future);
+                    inFlight--;
+
+                    for (Tile tile: future.get()) {
+                        tileOffsets[tile.directory()][tile.level()][tile.index()] = fileEnd;
+                        tileByteCounts[tile.directory()][tile.level()][tile.index()] = tile.bytes().length;
+                        fileEnd += write(fileEnd, ByteBuffer.wrap(tile.bytes()));
+
+                        writtenTiles++;
+                        if (progress != null) {
+                            progress.accept((double) writtenTiles / totalTiles);
+                        }
+                    }
+                }
+            } catch (ExecutionException e) {
+                futures.forEach(future -> future.cancel(true));
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                } else {
+                    throw new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                throw e;
+            }
+        }
+
+        private List<Tile> readFullResolutionTiles(int z, int t, int index) throws IOException {
+            Level level = levels.getFirst();
+            int x = (index % level.nTilesX()) * TILE_SIZE;
+            int y = (index / level.nTilesX()) * TILE_SIZE;
+
+            Raster raster = server.readRegion(RegionRequest.createInstance(
+                    server.getPath(),
+                    1,
+                    x,
+                    y,
+                    Math.min(TILE_SIZE, level.width() - x),
+                    Math.min(TILE_SIZE, level.height() - y),
+                    z,
+                    t
+            )).getRaster();
+            int width = Math.min(raster.getWidth(), TILE_SIZE);
+            int height = Math.min(raster.getHeight(), TILE_SIZE);
+
+            int nChannelDirectories = nDirectories / (server.nZSlices() * server.nTimepoints());
+            List<Tile> tiles = new ArrayList<>(nChannelDirectories);
+            double[] samples = new double[width * height];
+            for (int c=0; c<nChannelDirectories; c++) {
+                double[] tileSamples = new double[TILE_SIZE * TILE_SIZE * samplesPerPixel];
+
+                // RGB images are written with interleaved samples, other images with one directory per channel
+                for (int sample=0; sample<samplesPerPixel; sample++) {
+                    raster.getSamples(0, 0, width, height, c + sample, samples);
+                    for (int j=0; j<height; j++) {
+                        for (int i=0; i<width; i++) {
+                            tileSamples[(j * TILE_SIZE + i) * samplesPerPixel + sample] = samples[j * width + i];
+                        }
+                    }
+                }
+
+                tiles.add(new Tile(getDirectory(c, z, t), 0, index, encode(tileSamples)));
+            }
+            return tiles;
+        }
+
+        private Tile downsampleTile(int directory, int level, int index) throws IOException, DataFormatException {
+            Level previousLevel = levels.get(level - 1);
+            Level currentLevel = levels.get(level);
+            int tileX = index % currentLevel.nTilesX();
+            int tileY = index / currentLevel.nTilesX();
+            double[] sums = new double[TILE_SIZE * TILE_SIZE * samplesPerPixel];
+            int[] counts = new int[TILE_SIZE * TILE_SIZE];
+
+            // Each tile of this level covers 2x2 tiles of the previous level
+            for (int childY=2*tileY; childY<Math.min(2*tileY + 2, previousLevel.nTilesY()); childY++) {
+                for (int childX=2*tileX; childX<Math.min(2*tileX + 2, previousLevel.nTilesX()); childX++) {
+                    double[] childSamples = readTile(directory, level - 1, childY * previousLevel.nTilesX() + childX);
+                    int offsetX = (childX - 2*tileX) * TILE_SIZE / 2;
+                    int offsetY = (childY - 2*tileY) * TILE_SIZE / 2;
+                    int width = Math.min(TILE_SIZE, previousLevel.width() - childX * TILE_SIZE);
+                    int height = Math.min(TILE_SIZE, previousLevel.height() - childY * TILE_SIZE);
+
+                    for (int j=0; j<height; j++) {
+                        for (int i=0; i<width; i++) {
+                            int pixel = (offsetY + j/2) * TILE_SIZE + offsetX + i/2;
+                            counts[pixel]++;
+                            for (int sample=0; sample<samplesPerPixel; sample++) {
+                                sums[pixel * samplesPerPixel + sample] += childSamples[(j * TILE_SIZE + i) * samplesPerPixel + sample];
+                            }
+                        }
+                    }
+                }
+            }
+
+            for (int pixel=0; pixel<counts.length; pixel++) {
+                for (int sample=0; sample<samplesPerPixel; sample++) {
+                    if (counts[pixel] > 0) {
+                        sums[pixel * samplesPerPixel + sample] /= counts[pixel];
+                    }
+                }
+            }
+            return new Tile(directory, level, index, encode(sums));
+        }
+
+        private double[] readTile(int directory, int level, int index) throws IOException, DataFormatException {
+            ByteBuffer compressed = ByteBuffer.allocate((int) tileByteCounts[directory][level][index]);
+            long position = tileOffsets[directory][level][index];
+            while (compressed.hasRemaining()) {
+                if (channel.read(compressed, position + compressed.position()) < 0) {
+                    throw new IOException(String.format("Unexpected end of file when reading tile %d of %s", index, path));
+                }
+            }
+
+            byte[] bytes = new byte[TILE_SIZE * TILE_SIZE * samplesPerPixel * getBytesPerSample()];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed.array());
+                int length = 0;
+                while (length < bytes.length && !inflater.finished()) {
+                    length += inflater.inflate(bytes, length, bytes.length - length);
+                }
+            } finally {
+                inflater.end();
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            double[] samples = new double[TILE_SIZE * TILE_SIZE * samplesPerPixel];
+            for (int i=0; i<samples.length; i++) {
+                samples[i] = switch (pixelType) {
+                    case UINT8 -> buffer.get() & 0xFF;
+                    case INT8 -> buffer.get();
+                    case UINT16 -> buffer.getShort() & 0xFFFF;
+                    case INT16 -> buffer.getShort();
+                    case UINT32 -> buffer.getInt() & 0xFFFFFFFFL;
+                    case INT32 -> buffer.getInt();
+                    case FLOAT32 -> buffer.getFloat();
+                    case FLOAT64 -> buffer.getDouble();
+                };
+            }
+            return samples;
+        }
+
+        private byte[] encode(double[] samples) {
+            ByteBuffer buffer = ByteBuffer.allocate(samples.length * getBytesPerSample()).order(ByteOrder.LITTLE_ENDIAN);
+            for (double sample: samples) {
+                switch (pixelType) {
+                    case UINT8, INT8 -> buffer.put((byte) Math.round(sample));
+                    case UINT16, INT16 -> buffer.putShort((short) Math.round(sample));
+                    case UINT32, INT32 -> buffer.putInt((int) Math.round(sample));
+                    case FLOAT32 -> buffer.putFloat((float) sample);
+                    case FLOAT64 -> buffer.putDouble(sample);
+                }
+            }
+
+            Deflater deflater = new Deflater();
+            try {
+                deflater.setInput(buffer.array());
+                deflater.finish();
+
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                byte[] chunk = new byte[64 * 1024];
+                while (!deflater.finished()) {
+                    outputStream.write(chunk, 0, deflater.deflate(chunk));
+                }
+                return outputStream.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private long writeDirectories() throws IOException {
+            long firstDirectoryOffset = 0;
+            long previousNextOffsetPosition = -1;
+
+            for (int directory=0; directory<nDirectories; directory++) {
+                long[] subDirectoryOffsets = new long[levels.size() - 1];
+                for (int level=1; level<levels.size(); level++) {
+                    subDirectoryOffsets[level - 1] = writeDirectory(directory, level, null, null)[0];
+                }
+
+                long[] directoryPosition = writeDirectory(
+                        directory,
+                        0,
+                        subDirectoryOffsets,
+                        directory == 0 ? createOmeXml() : null
+                );
+                if (previousNextOffsetPosition < 0) {
+                    firstDirectoryOffset = directoryPosition[0];
+                } else {
+                    write(previousNextOffsetPosition, ByteBuffer.allocate(8)
+                            .order(ByteOrder.LITTLE_ENDIAN)
+                            .putLong(directoryPosition[0])
+                            .flip()
+                    );
+                }
+                previousNextOffsetPosition = directoryPosition[1];
+            }
+
+            return firstDirectoryOffset;
+        }
+
+        /**
+         * @return the position of the written directory and the position of its "next directory" field
+         */
+        private long[] writeDirectory(int directory, int level, long[] subDirectoryOffsets, String description) throws IOException {
+            Level currentLevel = levels.get(level);
+            List<DirectoryEntry> entries = new ArrayList<>();
+            entries.add(DirectoryEntry.ofNumbers(254, TIFF_LONG, level == 0 ? 0 : 1));
+            entries.add(DirectoryEntry.ofNumbers(256, TIFF_LONG, currentLevel.width()));
+            entries.add(DirectoryEntry.ofNumbers(257, TIFF_LONG, currentLevel.height()));
+            entries.add(DirectoryEntry.ofNumbers(258, TIFF_SHORT, repeat(getBytesPerSample() * 8L)));
+            entries.add(DirectoryEntry.ofNumbers(259, TIFF_SHORT, COMPRESSION_DEFLATE));
+            entries.add(DirectoryEntry.ofNumbers(262, TIFF_SHORT, samplesPerPixel == 3 ? PHOTOMETRIC_RGB : PHOTOMETRIC_MIN_IS_BLACK));
+            if (description != null) {
+                entries.add(DirectoryEntry.ofText(270, description));
+            }
+            entries.add(DirectoryEntry.ofNumbers(277, TIFF_SHORT, samplesPerPixel));
+            entries.add(DirectoryEntry.ofNumbers(284, TIFF_SHORT, 1));
+            entries.add(DirectoryEntry.ofNumbers(322, TIFF_LONG, TILE_SIZE));
+            entries.add(DirectoryEntry.ofNumbers(323, TIFF_LONG, TILE_SIZE));
+            entries.add(DirectoryEntry.ofNumbers(324, TIFF_LONG8, tileOffsets[directory][level]));
+            entries.add(DirectoryEntry.ofNumbers(325, TIFF_LONG8, tileByteCounts[directory][level]));
+            if (subDirectoryOffsets != null && subDirectoryOffsets.length > 0) {
+                entries.add(DirectoryEntry.ofNumbers(330, TIFF_IFD8, subDirectoryOffsets));
+            }
+            entries.add(DirectoryEntry.ofNumbers(339, TIFF_SHORT, repeat(switch (pixelType) {
+                case UINT8, UINT16, UINT32 -> 1;
+                case INT8, INT16, INT32 -> 2;
+                case FLOAT32, FLOAT64 -> 3;
+            })));
+
+            // Values that don't fit in an entry are written before the directory
+            long[] valueOffsets = new long[entries.size()];
+            for (int i=0; i<entries.size(); i++) {
+                byte[] value = entries.get(i).value();
+                if (value.length > 8) {
+                    valueOffsets[i] = fileEnd;
+                    fileEnd += write(fileEnd, ByteBuffer.wrap(value));
+                }
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(8 + entries.size() * 20 + 8).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putLong(entries.size());
+            for (int i=0; i<entries.size(); i++) {
+                DirectoryEntry entry = entries.get(i);
+                buffer.putShort((short) entry.tag());
+                buffer.putShort(entry.type());
+                buffer.putLong(entry.count());
+                if (entry.value().length > 8) {
+                    buffer.putLong(valueOffsets[i]);
+                } else {
+                    buffer.put(entry.value());
+                    buffer.put(new byte[8 - entry.value().length]);
+                }
+            }
+            buffer.putLong(0);
+
+            long position = fileEnd;
+            fileEnd += write(position, buffer.flip());
+            return new long[] {position, position + 8 + entries.size() * 20L};
+        }
+
+        private String createOmeXml() {
+            StringBuilder channels = new StringBuilder();
+            if (server.isRGB()) {
+                channels.append("<Channel ID=\"Channel:0:0\" SamplesPerPixel=\"3\"/>");
+            } else {
+                List<ImageChannel> imageChannels = server.getMetadata().getChannels();
+                for (int c=0; c<imageChannels.size(); c++) {
+                    channels.append(String.format(
+                            "<Channel ID=\"Channel:0:%d\" Name=\"%s\" SamplesPerPixel=\"1\" Color=\"%d\"/>",
+                            c,
+                            escapeXml(imageChannels.get(c).getName()),
+                            toOmeColor(imageChannels.get(c).getColor())
+                    ));
+                }
+            }
+
+            PixelCalibration pixelCalibration = server.getPixelCalibration();
+            String physicalSize = pixelCalibration.hasPixelSizeMicrons() ?
+                    String.format(
+                            " PhysicalSizeX=\"%s\" PhysicalSizeXUnit=\"µm\" PhysicalSizeY=\"%s\" PhysicalSizeYUnit=\"µm\"",
+                            pixelCalibration.getPixelWidthMicrons(),
+                            pixelCalibration.getPixelHeightMicrons()
+                    ) :
+                    "";
+
+            return String.format(
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                            "<OME xmlns=\"http://www.openmicroscopy.org/Schemas/OME/2016-06\">" +
+                            "<Image ID=\"Image:0\" Name=\"%s\">" +
+                            "<Pixels ID=\"Pixels:0\" DimensionOrder=\"XYCZT\" Type=\"%s\" BigEndian=\"false\" Interleaved=\"%s\" " +
+                            "SizeX=\"%d\" SizeY=\"%d\" SizeC=\"%d\" SizeZ=\"%d\" SizeT=\"%d\"%s>" +
+                            "%s" +
+                            "<TiffData IFD=\"0\" PlaneCount=\"%d\"/>" +
+                            "</Pixels>" +
+                            "</Image>" +
+                            "</OME>",
+                    escapeXml(server.getMetadata().getName()),
+                    switch (pixelType) {
+                        case UINT8 -> "uint8";
+                        case INT8 -> "int8";
+                        case UINT16 -> "uint16";
+                        case INT16 -> "int16";
+                        case UINT32 -> "uint32";
+                        case INT32 -> "int32";
+                        case FLOAT32 -> "float";
+                        case FLOAT64 -> "double";
+                    },
+                    server.isRGB(),
+                    server.getWidth(),
+                    server.getHeight(),
+                    server.nChannels(),
+                    server.nZSlices(),
+                    server.nTimepoints(),
+                    physicalSize,
+                    channels,
+                    nDirectories
+            );
+        }
+
+        private int getDirectory(int c, int z, int t) {
+            int nChannelDirectories = nDirectories / (server.nZSlices() * server.nTimepoints());
+            return c + nChannelDirectories * (z + server.nZSlices() * t);
+        }
+
+        private int getBytesPerSample() {
+            return switch (pixelType) {
+                case UINT8, INT8 -> 1;
+                case UINT16, INT16 -> 2;
+                case UINT32, INT32, FLOAT32 -> 4;
+                case FLOAT64 -> 8;
+            };
+        }
+
+        private long[] repeat(long value) {
+            long[] values = new long[samplesPerPixel];
+            Arrays.fill(values, value);
+            return values;
+        }
+
+        private int write(long position, ByteBuffer buffer) throws IOException {
+            int length = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            return length;
+        }
+    }
+
+    private record DirectoryEntry(int tag, short type, long count, byte[] value) {
+
+        public static DirectoryEntry ofNumbers(int tag, short type, long... values) {
+            int size = switch (type) {
+                case TIFF_SHORT -> 2;
+                case TIFF_LONG -> 4;
+                default -> 8;
+            };
+            ByteBuffer buffer = ByteBuffer.allocate(values.length * size).order(ByteOrder.LITTLE_ENDIAN);
+            for (long value: values) {
+                switch (size) {
+                    case 2 -> buffer.putShort((short) value);
+                    case 4 -> buffer.putInt((int) value);
+                    default -> buffer.putLong(value);
+                }
+            }
+            return new DirectoryEntry(tag, type, values.length, buffer.array());
+        }
+
+        public static DirectoryEntry ofText(int tag, String text) {
+            byte[] bytes = (text + '\0').getBytes(StandardCharsets.UTF_8);
+            return new DirectoryEntry(tag, TIFF_ASCII, bytes.length, bytes);
+        }
+    }
+
+    private static String escapeXml(String text) {
+        return text == null ? "" : text
+                .replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace("\"", "&quot;");
+    }
+
+    private static int toOmeColor(Integer rgb) {
+        // OME colors are signed RGBA integers
+        return rgb == null ? -1 : (rgb << 8) | 0xFF;
+    }
+}
@@ -0,0 +1,97 @@
+package qupath.ext.align.core;
+
+import org.bytedeco.opencv.global.opencv_core;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+/**
+ * A static class to limit the number of threads used by OpenCV while alignment jobs are running.
+ * <p>
+ * The number of threads of OpenCV is a global setting, so it cannot really be set per job. Instead, this
+ * class keeps track of the limits requested by all running jobs and applies the lowest one. This ensures
+ * that several jobs running concurrently don't oversubscribe the processor cores. As the setting is global,
+ * the limit also applies to any other code using OpenCV while jobs are running.
+ * <p>
+ * Once no job with a limit is running, the number of threads used by OpenCV before the first job started
+ * is restored, unless the setting was changed by some other code in the meantime. In that case, the
+ * change is kept.
+ * <p>
+ * This class is thread-safe.
+ */
+class OpenCVThreads {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenCVThreads.class);
+    private static final TreeMap<Integer, Integer> activeLimits = new TreeMap<>();
+    private static int initialNumberOfThreads;
+    private static int appliedNumberOfThreads;
+
+    private OpenCVThreads() {
+        throw new AssertionError("This class is not instantiable.");
+    }
+
+    /**
+     * Run the provided job while limiting the number of threads used by OpenCV.
+     *
+     * @param numberOfThreads the maximum number of threads OpenCV should use while the provided job is running.
+     *                        If less than 1, no limit is applied
+     * @param job the job to run
+     * @return the result of the job
+     * @param <T> the type of the result of the job
+     * @throws Exception if the provided job throws an exception
+     */
+    public static <T> T callWithLimit(int numberOfThreads, Callable<T> job) throws Exception {
+        if (numberOfThreads < 1) {
+            return job.call();
+        }
+
+        addLimit(numberOfThreads);
+        try {
+            return job.call();
+        } finally {
+            removeLimit(numberOfThreads);
+        }
+    }
+
+    private static synchronized void addLimit(int numberOfThreads) {
+        if (activeLimits.isEmpty()) {
+            initialNumberOfThreads = opencv_core.getNumThreads();
+            appliedNumberOfThreads = initialNumberOfThreads;
+        }
+        activeLimits.merge(numberOfThreads, 1, Integer::sum);
+
+        applyLimits();
+    }
+
+    private static synchronized void removeLimit(int numberOfThreads) {
+        activeLimits.computeIfPresent(numberOfThreads, (limit, count) -> count > 1 ? count - 1 : null);
+
+        if (activeLimits.isEmpty()) {
+            int currentNumberOfThreads = opencv_core.getNumThreads();
+
+            if (currentNumberOfThreads == appliedNumberOfThreads) {
+                logger.trace("No active OpenCV thread limit. Restoring number of threads to {}", initialNumberOfThreads);
+                opencv_core.setNumThreads(initialNumberOfThreads);
+            } else {
+                logger.trace(
+                        "No active OpenCV thread limit, but number of threads changed to {} by other code. Keeping it",
+                        currentNumberOfThreads
+                );
+            }
+        } else {
+            applyLimits();
+        }
+    }
+
+    private static void applyLimits() {
+        int limit = activeLimits.firstKey();
+
+        if (opencv_core.getNumThreads() != limit) {
+            logger.trace("Setting number of OpenCV threads to {} (active limits: {})", limit, activeLimits);
+            opencv_core.setNumThreads(limit);
+        }
+        appliedNumberOfThreads = opencv_core.getNumThreads();      // OpenCV may report a different value than the one set
+    }
+}
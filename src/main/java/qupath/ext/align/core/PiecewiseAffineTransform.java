@@ -0,0 +1,330 @@
+package qupath.ext.align.core;
+
+import org.locationtech.jts.densify.Densifier;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFilter;
+import org.locationtech.jts.geom.Geometry;
+import qupath.lib.geom.Point2;
+import qupath.lib.roi.GeometryTools;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * A transformation that maps coordinates of a base image to coordinates of another image with a grid of
+ * local affine transforms instead of a single global one. This can represent non-uniform deformations
+ * (for example a tissue section that stretched more on one side than on the other).
+ * <p>
+ * The grid covers the base image with tiles of a fixed size, starting at (0, 0). Each tile has its own affine
+ * transform. When mapping a point, the parameters of the affine transforms of the four tiles whose centers
+ * surround the point are bilinearly interpolated, so that the mapping is continuous across tile boundaries.
+ * Points outside the grid use the transforms of the closest tiles.
+ * <p>
+ * This class is immutable and thread-safe.
+ */
+public class PiecewiseAffineTransform {
+
+    private static final int N_PARAMETERS = 6;
+    private final AffineTransform globalTransform;
+    private final double tileWidth;
+    private final double tileHeight;
+    private final int nCols;
+    private final int nRows;
+    private final double[] parameters;
+    private final AffineTransform[] tileTransforms;
+    private final AffineTransform[] tileInverseTransforms;
+
+    /**
+     * Create the transform.
+     *
+     * @param globalTransform the global transform from which the local transforms were estimated. It is used as the
+     *                        inverse of tiles whose transform is not invertible
+     * @param tileWidth the width in pixels of the base image of each tile of the grid
+     * @param tileHeight the height in pixels of the base image of each tile of the grid
+     * @param nCols the number of columns of the grid
+     * @param nRows the number of rows of the grid
+     * @param tileTransforms the transforms of each tile of the grid, ordered by rows (the transform of the tile located
+     *                       at column c and row r is located at index r * nCols + c). Each transform maps coordinates of
+     *                       the base image to coordinates of the other image
+     * @throws NullPointerException if one of the provided parameters is null or if the list contains null elements
+     * @throws IllegalArgumentException if the tile size is not strictly positive, if the number of columns or rows is less
+     * than 1, if the provided global transform is not invertible, or if the number of tile transforms doesn't match the number of
+     * columns and rows
+     */
+    public PiecewiseAffineTransform(
+            AffineTransform globalTransform,
+            double tileWidth,
+            double tileHeight,
+            int nCols,
+            int nRows,
+            List<AffineTransform> tileTransforms
+    ) {
+        if (tileWidth <= 0 || tileHeight <= 0) {
+            throw new IllegalArgumentException(String.format("The tile size %fx%f is not strictly positive", tileWidth, tileHeight));
+        }
+        if (nCols < 1 || nRows < 1) {
+            throw new IllegalArgumentException(String.format("The grid size %dx%d is not valid", nCols, nRows));
+        }
+        if (tileTransforms.size() != nCols * nRows) {
+            throw new IllegalArgumentException(String.format(
+                    "The number of tile transforms %d doesn't match the grid size %dx%d",
+                    tileTransforms.size(),
+                    nCols,
+                    nRows
+            ));
+        }
+
+        this.globalTransform = new AffineTransform(Objects.requireNonNull(globalTransform));
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.nCols = nCols;
+        this.nRows = nRows;
+        this.parameters = new double[N_PARAMETERS * tileTransforms.size()];
+        this.tileTransforms = new AffineTransform[tileTransforms.size()];
+        this.tileInverseTransforms = new AffineTransform[tileTransforms.size()];
+
+        AffineTransform globalInverseTransform;
+        try {
+            globalInverseTransform = globalTransform.createInverse();
+        } catch (NoninvertibleTransformException e) {
+            throw new IllegalArgumentException(String.format("The global transform %s is not invertible", globalTransform), e);
+        }
+
+        for (int i=0; i<tileTransforms.size(); i++) {
+            AffineTransform tileTransform = new AffineTransform(Objects.requireNonNull(tileTransforms.get(i)));
+
+            this.tileTransforms[i] = tileTransform;
+            double[] matrix = new double[N_PARAMETERS];
+            tileTransform.getMatrix(matrix);
+            System.arraycopy(matrix, 0, parameters, N_PARAMETERS * i, N_PARAMETERS);
+
+            try {
+                this.tileInverseTransforms[i] = tileTransform.createInverse();
+            } catch (NoninvertibleTransformException e) {
+                this.tileInverseTransforms[i] = globalInverseTransform;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "Piecewise affine transform of %dx%d tiles of size %fx%f estimated from %s",
+                nCols,
+                nRows,
+                tileWidth,
+                tileHeight,
+                globalTransform
+        );
+    }
+
+    /**
+     * @return a copy of the global transform from which the local transforms were estimated
+     */
+    public AffineTransform getGlobalTransform() {
+        return new AffineTransform(globalTransform);
+    }
+
+    /**
+     * @return the width in pixels of the base image of each tile of the grid
+     */
+    public double getTileWidth() {
+        return tileWidth;
+    }
+
+    /**
+     * @return the height in pixels of the base image of each tile of the grid
+     */
+    public double getTileHeight() {
+        return tileHeight;
+    }
+
+    /**
+     * @return the number of columns of the grid
+     */
+    public int getNumberOfColumns() {
+        return nCols;
+    }
+
+    /**
+     * @return the number of rows of the grid
+     */
+    public int getNumberOfRows() {
+        return nRows;
+    }
+
+    /**
+     * Get the region covered by a tile, in pixel coordinates of the base image.
+     *
+     * @param col the column of the tile
+     * @param row the row of the tile
+     * @return the region covered by the tile
+     * @throws IndexOutOfBoundsException if the provided column or row is out of the grid
+     */
+    public Rectangle2D getTileBounds(int col, int row) {
+        Objects.checkIndex(col, nCols);
+        Objects.checkIndex(row, nRows);
+
+        return new Rectangle2D.Double(col * tileWidth, row * tileHeight, tileWidth, tileHeight);
+    }
+
+    /**
+     * Get the transform of a tile. It maps coordinates of the base image to coordinates of the other image.
+     *
+     * @param col the column of the tile
+     * @param row the row of the tile
+     * @return a copy of the transform of the tile
+     * @throws IndexOutOfBoundsException if the provided column or row is out of the grid
+     */
+    public AffineTransform getTileTransform(int col, int row) {
+        return new AffineTransform(tileTransforms[getTileIndex(col, row)]);
+    }
+
+    /**
+     * Get the inverse of the transform of a tile. If the transform of the tile is not invertible, the inverse
+     * of the global transform is returned.
+     *
+     * @param col the column of the tile
+     * @param row the row of the tile
+     * @return a copy of the inverse of the transform of the tile
+     * @throws IndexOutOfBoundsException if the provided column or row is out of the grid
+     */
+    public AffineTransform getTileInverseTransform(int col, int row) {
+        return new AffineTransform(tileInverseTransforms[getTileIndex(col, row)]);
+    }
+
+    /**
+     * Transform the provided point.
+     *
+     * @param point the point to transform, in coordinates of the base image
+     * @return a new point representing the provided point transformed to coordinates of the other image
+     * @throws NullPointerException if the provided point is null
+     */
+    public Point2D transform(Point2D point) {
+        double[] coordinates = new double[] {point.getX(), point.getY()};
+        transform(coordinates, 0, coordinates, 0, 1);
+        return new Point2D.Double(coordinates[0], coordinates[1]);
+    }
+
+    /**
+     * Transform an array of points whose coordinates are stored as [x0, y0, x1, y1, ...]. This doesn't
+     * allocate any object and the source and destination arrays can be the same.
+     *
+     * @param src the array containing the source point coordinates
+     * @param srcOffset the offset to the first point to transform in the source array
+     * @param dst the array into which the transformed point coordinates are returned
+     * @param dstOffset the offset to the location of the first transformed point in the destination array
+     * @param nPoints the number of points to transform
+     * @throws NullPointerException if one of the provided arrays is null
+     * @throws ArrayIndexOutOfBoundsException if one of the provided arrays is too small
+     */
+    public void transform(double[] src, int srcOffset, double[] dst, int dstOffset, int nPoints) {
+        for (int i=0; i<nPoints; i++) {
+            double x = src[srcOffset + 2*i];
+            double y = src[srcOffset + 2*i + 1];
+
+            double fx = Math.min(Math.max(x / tileWidth - 0.5, 0), nCols - 1);
+            double fy = Math.min(Math.max(y / tileHeight - 0.5, 0), nRows - 1);
+            int col0 = (int) fx;
+            int row0 = (int) fy;
+            int col1 = Math.min(col0 + 1, nCols - 1);
+            int row1 = Math.min(row0 + 1, nRows - 1);
+            double wx = fx - col0;
+            double wy = fy - row0;
+
+            int i00 = N_PARAMETERS * (row0 * nCols + col0);
+            int i10 = N_PARAMETERS * (row0 * nCols + col1);
+            int i01 = N_PARAMETERS * (row1 * nCols + col0);
+            int i11 = N_PARAMETERS * (row1 * nCols + col1);
+            double w00 = (1 - wx) * (1 - wy);
+            double w10 = wx * (1 - wy);
+            double w01 = (1 - wx) * wy;
+            double w11 = wx * wy;
+
+            // Matrix parameters are stored as [m00, m10, m01, m11, m02, m12]
+            double m00 = w00 * parameters[i00] + w10 * parameters[i10] + w01 * parameters[i01] + w11 * parameters[i11];
+            double m10 = w00 * parameters[i00 + 1] + w10 * parameters[i10 + 1] + w01 * parameters[i01 + 1] + w11 * parameters[i11 + 1];
+            double m01 = w00 * parameters[i00 + 2] + w10 * parameters[i10 + 2] + w01 * parameters[i01 + 2] + w11 * parameters[i11 + 2];
+            double m11 = w00 * parameters[i00 + 3] + w10 * parameters[i10 + 3] + w01 * parameters[i01 + 3] + w11 * parameters[i11 + 3];
+            double m02 = w00 * parameters[i00 + 4] + w10 * parameters[i10 + 4] + w01 * parameters[i01 + 4] + w11 * parameters[i11 + 4];
+            double m12 = w00 * parameters[i00 + 5] + w10 * parameters[i10 + 5] + w01 * parameters[i01 + 5] + w11 * parameters[i11 + 5];
+
+            dst[dstOffset + 2*i] = m00 * x + m01 * y + m02;
+            dst[dstOffset + 2*i + 1] = m10 * x + m11 * y + m12;
+        }
+    }
+
+    /**
+     * Transform the provided ROI. Edges of non-point ROIs are densified before being transformed, so that
+     * they follow the local deformations instead of only having their vertices moved.
+     *
+     * @param roi the ROI to transform, in coordinates of the base image
+     * @return a new ROI that represents the provided ROI transformed to coordinates of the other image
+     * @throws NullPointerException if the provided parameter is null
+     */
+    public ROI transformROI(ROI roi) {
+        if (roi.isPoint()) {
+            List<Point2> points = roi.getAllPoints();
+            double[] coordinates = new double[2 * points.size()];
+            for (int i=0; i<points.size(); i++) {
+                coordinates[2*i] = points.get(i).getX();
+                coordinates[2*i + 1] = points.get(i).getY();
+            }
+
+            transform(coordinates, 0, coordinates, 0, points.size());
+
+            return ROIs.createPointsROI(
+                    IntStream.range(0, points.size())
+                            .mapToObj(i -> new Point2(coordinates[2*i], coordinates[2*i + 1]))
+                            .toList(),
+                    roi.getImagePlane()
+            );
+        } else {
+            Geometry geometry = Densifier.densify(roi.getGeometry(), Math.min(tileWidth, tileHeight) / 4);
+            geometry.apply(new FieldFilter());
+            geometry.geometryChanged();
+
+            return GeometryTools.geometryToROI(geometry, roi.getImagePlane());
+        }
+    }
+
+    private int getTileIndex(int col, int row) {
+        Objects.checkIndex(col, nCols);
+        Objects.checkIndex(row, nRows);
+
+        return row * nCols + col;
+    }
+
+    private class FieldFilter implements CoordinateSequenceFilter {
+
+        private final double[] coordinates = new double[2];
+
+        @Override
+        public void filter(CoordinateSequence seq, int i) {
+            coordinates[0] = seq.getX(i);
+            coordinates[1] = seq.getY(i);
+
+            transform(coordinates, 0, coordinates, 0, 1);
+
+            seq.setOrdinate(i, CoordinateSequence.X, coordinates[0]);
+            seq.setOrdinate(i, CoordinateSequence.Y, coordinates[1]);
+        }
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+
+        @Override
+        public boolean isGeometryChanged() {
+            return true;
+        }
+    }
+}
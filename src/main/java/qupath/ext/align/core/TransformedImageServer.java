@@ -0,0 +1,476 @@
+package qupath.ext.align.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.images.servers.AbstractImageServer;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerBuilder;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.PixelCalibration;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * An image server that lazily applies an affine transformation on another image server.
+ * <p>
+ * Transformations specific to some planes of the image, and a {@link PiecewiseAffineTransform local transformation},
+ * can also be provided. As with {@link AffineImageTransform}, the local transformation (if any) is used on every plane,
+ * then the transformation of the plane (if any), then the global transformation.
+ * <p>
+ * The transformation goes from the coordinates of a base image to the coordinates of the transformed server (which
+ * is the convention used by {@link AffineImageTransform}), so this server has the size and pixel calibration of the
+ * base image, and its pixels are the pixels of the transformed server warped on top of the base image.
+ * <p>
+ * Pixels are computed by tiles, when requested: each tile only reads the region of the transformed server it
+ * needs, and uses nearest neighbour interpolation so that pixel values (including labels and multichannel
+ * values) are preserved. Computed tiles are stored in a cache owned by this server. Pixels falling outside the
+ * transformed server are set to zero.
+ * <p>
+ * Closing this server doesn't close the transformed server.
+ * <p>
+ * This class is thread-safe.
+ */
+public class TransformedImageServer extends AbstractImageServer<BufferedImage> {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransformedImageServer.class);
+    private static final int TILE_SIZE = 512;
+    private static final long CACHE_MAX_BYTES = 128L * 1024 * 1024;
+    private static final int BORDER_SAMPLES = 17;
+    private final Cache<TileKey, BufferedImage> tileCache = CacheBuilder.newBuilder()
+            .maximumWeight(CACHE_MAX_BYTES)
+            .weigher((TileKey key, BufferedImage tile) -> getNumberOfBytes(tile.getRaster()))
+            .build();
+    private final ImageServer<BufferedImage> server;
+    private final AffineTransform transform;
+    private final Map<ImagePlane, AffineTransform> planeTransforms;
+    private final PiecewiseAffineTransform localTransform;
+    private final ImageServerMetadata metadata;
+    private record TileKey(double downsample, ImagePlane plane, int x, int y) {}
+
+    /**
+     * Create the server.
+     *
+     * @param server the server to transform
+     * @param transform the transformation from the coordinates of the base image to the coordinates of the server
+     *                  to transform. It is copied, so further changes to it won't be reflected on this server
+     * @param baseMetadata the metadata of the base image. Its size, pixel calibration, and resolution levels are used
+     *                     by this server
+     * @throws NullPointerException if one of the provided parameter is null
+     */
+    public TransformedImageServer(ImageServer<BufferedImage> server, AffineTransform transform, ImageServerMetadata baseMetadata) {
+        this(server, transform, Map.of(), null, baseMetadata);
+    }
+
+    /**
+     * Create the server.
+     *
+     * @param server the server to transform
+     * @param transform the transformation from the coordinates of the base image to the coordinates of the server
+     *                  to transform. It is copied, so further changes to it won't be reflected on this server
+     * @param planeTransforms transformations to use instead of the global one on some planes of the image. They are
+     *                        copied, so further changes to them won't be reflected on this server
+     * @param localTransform a local transformation to use instead of the other ones on every plane. Can be null
+     * @param baseMetadata the metadata of the base image. Its size, pixel calibration, and resolution levels are used
+     *                     by this server
+     * @throws NullPointerException if one of the provided parameter (except the local transformation) is null, or if
+     * the plane transformations contain null keys or values
+     */
+    public TransformedImageServer(
+            ImageServer<BufferedImage> server,
+            AffineTransform transform,
+            Map<ImagePlane, AffineTransform> planeTransforms,
+            PiecewiseAffineTransform localTransform,
+            ImageServerMetadata baseMetadata
+    ) {
+        super(BufferedImage.class);
+
+        this.server = Objects.requireNonNull(server);
+        this.transform = new AffineTransform(transform);
+        this.planeTransforms = copyPlaneTransforms(planeTransforms);
+        this.localTransform = localTransform;
+
+        ImageServerMetadata.Builder builder = new ImageServerMetadata.Builder(server.getMetadata())
+                .width(baseMetadata.getWidth())
+                .height(baseMetadata.getHeight())
+                .preferredTileSize(TILE_SIZE, TILE_SIZE)
+                .levelsFromDownsamples(baseMetadata.getPreferredDownsamplesArray());
+        PixelCalibration pixelCalibration = baseMetadata.getPixelCalibration();
+        if (pixelCalibration.hasPixelSizeMicrons()) {
+            builder.pixelSizeMicrons(pixelCalibration.getPixelWidthMicrons(), pixelCalibration.getPixelHeightMicrons());
+        }
+        this.metadata = builder.build();
+    }
+
+    @Override
+    protected ImageServerBuilder.ServerBuilder<BufferedImage> createServerBuilder() {
+        ImageServerBuilder.ServerBuilder<BufferedImage> serverBuilder = server.getBuilder();
+        return serverBuilder == null ? null : new Builder(serverBuilder, transform, planeTransforms, localTransform, metadata);
+    }
+
+    @Override
+    protected String createID() {
+        String planes = planeTransforms.entrySet().stream()
+                .sorted(Comparator.comparing((Map.Entry<ImagePlane, AffineTransform> entry) -> entry.getKey().getT())
+                        .thenComparing(entry -> entry.getKey().getZ())
+                        .thenComparing(entry -> entry.getKey().getC()))
+                .map(entry -> entry.getKey() + "=" + toString(entry.getValue()))
+                .collect(Collectors.joining(", ", "[", "]"));
+        String local = "";
+        if (localTransform != null) {
+            StringBuilder localBuilder = new StringBuilder(String.format(
+                    " local %fx%f",
+                    localTransform.getTileWidth(),
+                    localTransform.getTileHeight()
+            ));
+            for (int row=0; row<localTransform.getNumberOfRows(); row++) {
+                for (int col=0; col<localTransform.getNumberOfColumns(); col++) {
+                    localBuilder.append(' ').append(toString(localTransform.getTileTransform(col, row)));
+                }
+            }
+            local = localBuilder.toString();
+        }
+
+        return String.format("%s: %s %s %s%s", getClass().getName(), server.getPath(), toString(transform), planes, local);
+    }
+
+    @Override
+    public Collection<URI> getURIs() {
+        return server.getURIs();
+    }
+
+    @Override
+    public BufferedImage readRegion(RegionRequest request) throws IOException {
+        double downsample = request.getDownsample();
+        double tileSize = TILE_SIZE * downsample;
+        int width = (int) Math.max(1, Math.round(request.getWidth() / downsample));
+        int height = (int) Math.max(1, Math.round(request.getHeight() / downsample));
+
+        WritableRaster raster = null;
+        BufferedImage firstTile = null;
+        for (int tileY = (int) Math.floor(request.getMinY() / tileSize); tileY * tileSize < request.getMaxY(); tileY++) {
+            for (int tileX = (int) Math.floor(request.getMinX() / tileSize); tileX * tileSize < request.getMaxX(); tileX++) {
+                BufferedImage tile = getTile(new TileKey(downsample, request.getImagePlane(), tileX, tileY));
+
+                if (raster == null) {
+                    firstTile = tile;
+                    raster = tile.getColorModel().createCompatibleWritableRaster(width, height);
+                }
+                raster.setRect(
+                        (int) Math.round((tileX * tileSize - request.getMinX()) / downsample),
+                        (int) Math.round((tileY * tileSize - request.getMinY()) / downsample),
+                        tile.getRaster()
+                );
+            }
+        }
+
+        if (firstTile == null) {
+            throw new IOException(String.format("Cannot read empty region %s of %s", request, this));
+        }
+        return new BufferedImage(firstTile.getColorModel(), raster, firstTile.isAlphaPremultiplied(), null);
+    }
+
+    @Override
+    public String getServerType() {
+        return "Transformed image server";
+    }
+
+    @Override
+    public ImageServerMetadata getOriginalMetadata() {
+        return metadata;
+    }
+
+    private BufferedImage getTile(TileKey key) throws IOException {
+        try {
+            return tileCache.get(key, () -> createTile(key));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            } else {
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    private BufferedImage createTile(TileKey key) throws IOException {
+        double downsample = key.downsample();
+        Rectangle2D tileBounds = new Rectangle2D.Double(
+                key.x() * TILE_SIZE * downsample,
+                key.y() * TILE_SIZE * downsample,
+                TILE_SIZE * downsample,
+                TILE_SIZE * downsample
+        );
+
+        // Only the region of the transformed server covered by the tile is read, with a margin of one pixel. Points
+        // along the border of the tile are mapped, as local transforms don't map lines to lines
+        Rectangle2D sourceBounds = getMappedBounds(tileBounds, key.plane());
+        int sourceX = (int) Math.max(0, Math.floor(sourceBounds.getMinX() - downsample));
+        int sourceY = (int) Math.max(0, Math.floor(sourceBounds.getMinY() - downsample));
+        int sourceWidth = (int) Math.min(server.getWidth(), Math.ceil(sourceBounds.getMaxX() + downsample)) - sourceX;
+        int sourceHeight = (int) Math.min(server.getHeight(), Math.ceil(sourceBounds.getMaxY() + downsample)) - sourceY;
+        boolean outsideSource = sourceWidth <= 0 || sourceHeight <= 0;
+
+        logger.trace("Creating tile {} of {} from region ({}, {}, {}, {}) of {}", key, this, sourceX, sourceY, sourceWidth, sourceHeight, server);
+
+        // When the tile is outside the transformed server, a small region is still read to get the pixel type
+        BufferedImage source = server.readRegion(RegionRequest.createInstance(
+                server.getPath(),
+                downsample,
+                outsideSource ? 0 : sourceX,
+                outsideSource ? 0 : sourceY,
+                outsideSource ? Math.min(server.getWidth(), (int) Math.ceil(downsample)) : sourceWidth,
+                outsideSource ? Math.min(server.getHeight(), (int) Math.ceil(downsample)) : sourceHeight,
+                key.plane()
+        ));
+        WritableRaster tileRaster = source.getColorModel().createCompatibleWritableRaster(TILE_SIZE, TILE_SIZE);
+        if (!outsideSource) {
+            warp(source.getRaster(), sourceX, sourceY, downsample, tileBounds, key.plane(), tileRaster);
+        }
+
+        return new BufferedImage(source.getColorModel(), tileRaster, source.isAlphaPremultiplied(), null);
+    }
+
+    private void warp(
+            Raster source,
+            int sourceX,
+            int sourceY,
+            double downsample,
+            Rectangle2D tileBounds,
+            ImagePlane plane,
+            WritableRaster tile
+    ) {
+        double[] points = new double[2 * tile.getWidth()];
+        Object pixel = null;
+
+        for (int y=0; y<tile.getHeight(); y++) {
+            // Coordinates of the centres of the pixels of the row in the transformed server
+            for (int x=0; x<tile.getWidth(); x++) {
+                points[2*x] = tileBounds.getMinX() + (x + 0.5) * downsample;
+                points[2*x+1] = tileBounds.getMinY() + (y + 0.5) * downsample;
+            }
+            map(points, tile.getWidth(), plane);
+
+            for (int x=0; x<tile.getWidth(); x++) {
+                int sx = (int) Math.floor((points[2*x] - sourceX) / downsample);
+                int sy = (int) Math.floor((points[2*x+1] - sourceY) / downsample);
+
+                if (sx >= 0 && sy >= 0 && sx < source.getWidth() && sy < source.getHeight()) {
+                    pixel = source.getDataElements(sx, sy, pixel);
+                    tile.setDataElements(x, y, pixel);
+                }
+            }
+        }
+    }
+
+    private void map(double[] points, int nPoints, ImagePlane plane) {
+        if (localTransform == null) {
+            planeTransforms.getOrDefault(plane, transform).transform(points, 0, points, 0, nPoints);
+        } else {
+            localTransform.transform(points, 0, points, 0, nPoints);
+        }
+    }
+
+    private Rectangle2D getMappedBounds(Rectangle2D region, ImagePlane plane) {
+        double[] points = new double[8 * BORDER_SAMPLES];
+        for (int i=0; i<BORDER_SAMPLES; i++) {
+            double x = region.getX() + region.getWidth() * i / (BORDER_SAMPLES - 1);
+            double y = region.getY() + region.getHeight() * i / (BORDER_SAMPLES - 1);
+            double[] borderPoints = {
+                    x, region.getMinY(),
+                    x, region.getMaxY(),
+                    region.getMinX(), y,
+                    region.getMaxX(), y
+            };
+            System.arraycopy(borderPoints, 0, points, 8 * i, borderPoints.length);
+        }
+        map(points, 4 * BORDER_SAMPLES, plane);
+
+        Rectangle2D bounds = new Rectangle2D.Double(points[0], points[1], 0, 0);
+        for (int i=0; i<points.length; i+=2) {
+            bounds.add(points[i], points[i+1]);
+        }
+        return bounds;
+    }
+
+    private static Map<ImagePlane, AffineTransform> copyPlaneTransforms(Map<ImagePlane, AffineTransform> planeTransforms) {
+        Map<ImagePlane, AffineTransform> copy = new HashMap<>();
+        for (Map.Entry<ImagePlane, AffineTransform> entry: planeTransforms.entrySet()) {
+            copy.put(Objects.requireNonNull(entry.getKey()), new AffineTransform(entry.getValue()));
+        }
+        return Map.copyOf(copy);
+    }
+
+    private static String toString(AffineTransform transform) {
+        double[] matrix = new double[6];
+        transform.getMatrix(matrix);
+        return Arrays.toString(matrix);
+    }
+
+    private static int getNumberOfBytes(Raster raster) {
+        return (int) Math.min(
+                Integer.MAX_VALUE,
+                (long) raster.getWidth() * raster.getHeight() * raster.getNumBands() * DataBuffer.getDataTypeSize(raster.getDataBuffer().getDataType()) / 8
+        );
+    }
+
+    /**
+     * A server builder that creates a {@link TransformedImageServer} from the builder of the transformed server.
+     * <p>
+     * Transformations are stored as matrices, so that this builder can be serialized to JSON with the server builder
+     * type adapter of QuPath (which allows transformed servers to be saved in projects), once registered with
+     * {@link qupath.lib.images.servers.ImageServers#getServerBuilderFactory()}.
+     */
+    public static class Builder implements ImageServerBuilder.ServerBuilder<BufferedImage> {
+
+        private final ImageServerBuilder.ServerBuilder<BufferedImage> builder;
+        private final double[] transform;
+        private final List<PlaneTransform> planeTransforms;
+        private final LocalTransform localTransform;
+        private final ImageServerMetadata baseMetadata;
+        private record PlaneTransform(int c, int z, int t, double[] transform) {}
+        private record LocalTransform(
+                double[] globalTransform,
+                double tileWidth,
+                double tileHeight,
+                int nCols,
+                int nRows,
+                List<double[]> tileTransforms
+        ) {}
+
+        /**
+         * Create the builder.
+         *
+         * @param builder the builder of the server to transform
+         * @param transform the transformation from the coordinates of the base image to the coordinates of the server
+         *                  to transform. It is copied, so further changes to it won't be reflected on this builder
+         * @param baseMetadata the metadata of the base image
+         * @throws NullPointerException if one of the provided parameter is null
+         */
+        public Builder(
+                ImageServerBuilder.ServerBuilder<BufferedImage> builder,
+                AffineTransform transform,
+                ImageServerMetadata baseMetadata
+        ) {
+            this(builder, transform, Map.of(), null, baseMetadata);
+        }
+
+        /**
+         * Create the builder.
+         *
+         * @param builder the builder of the server to transform
+         * @param transform the transformation from the coordinates of the base image to the coordinates of the server
+         *                  to transform. It is copied, so further changes to it won't be reflected on this builder
+         * @param planeTransforms transformations to use instead of the global one on some planes of the image. They
+         *                        are copied, so further changes to them won't be reflected on this builder
+         * @param localTransform a local transformation to use instead of the other ones on every plane. Can be null
+         * @param baseMetadata the metadata of the base image
+         * @throws NullPointerException if one of the provided parameter (except the local transformation) is null, or
+         * if the plane transformations contain null keys or values
+         */
+        public Builder(
+                ImageServerBuilder.ServerBuilder<BufferedImage> builder,
+                AffineTransform transform,
+                Map<ImagePlane, AffineTransform> planeTransforms,
+                PiecewiseAffineTransform localTransform,
+                ImageServerMetadata baseMetadata
+        ) {
+            this(
+                    builder,
+                    getMatrix(transform),
+                    planeTransforms.entrySet().stream()
+                            .map(entry -> new PlaneTransform(
+                                    entry.getKey().getC(),
+                                    entry.getKey().getZ(),
+                                    entry.getKey().getT(),
+                                    getMatrix(entry.getValue())
+                            ))
+                            .toList(),
+                    localTransform == null ? null : new LocalTransform(
+                            getMatrix(localTransform.getGlobalTransform()),
+                            localTransform.getTileWidth(),
+                            localTransform.getTileHeight(),
+                            localTransform.getNumberOfColumns(),
+                            localTransform.getNumberOfRows(),
+                            IntStream.range(0, localTransform.getNumberOfRows())
+                                    .boxed()
+                                    .flatMap(row -> IntStream.range(0, localTransform.getNumberOfColumns())
+                                            .mapToObj(col -> getMatrix(localTransform.getTileTransform(col, row)))
+                                    )
+                                    .toList()
+                    ),
+                    baseMetadata
+            );
+        }
+
+        private Builder(
+                ImageServerBuilder.ServerBuilder<BufferedImage> builder,
+                double[] transform,
+                List<PlaneTransform> planeTransforms,
+                LocalTransform localTransform,
+                ImageServerMetadata baseMetadata
+        ) {
+            this.builder = Objects.requireNonNull(builder);
+            this.transform = transform;
+            this.planeTransforms = planeTransforms;
+            this.localTransform = localTransform;
+            this.baseMetadata = Objects.requireNonNull(baseMetadata);
+        }
+
+        @Override
+        public ImageServer<BufferedImage> build() throws Exception {
+            // Lists are null-checked, as they may be missing from a builder deserialized from JSON
+            Map<ImagePlane, AffineTransform> planes = planeTransforms == null ? Map.of() : planeTransforms.stream()
+                    .collect(Collectors.toMap(
+                            plane -> ImagePlane.getPlaneWithChannel(plane.c(), plane.z(), plane.t()),
+                            plane -> new AffineTransform(plane.transform())
+                    ));
+            PiecewiseAffineTransform local = localTransform == null ? null : new PiecewiseAffineTransform(
+                    new AffineTransform(localTransform.globalTransform()),
+                    localTransform.tileWidth(),
+                    localTransform.tileHeight(),
+                    localTransform.nCols(),
+                    localTransform.nRows(),
+                    localTransform.tileTransforms().stream().map(AffineTransform::new).toList()
+            );
+
+            return new TransformedImageServer(builder.build(), new AffineTransform(transform), planes, local, baseMetadata);
+        }
+
+        @Override
+        public Collection<URI> getURIs() {
+            return builder.getURIs();
+        }
+
+        @Override
+        public ImageServerBuilder.ServerBuilder<BufferedImage> updateURIs(Map<URI, URI> updateMap) {
+            ImageServerBuilder.ServerBuilder<BufferedImage> updatedBuilder = builder.updateURIs(updateMap);
+            return updatedBuilder == builder ? this : new Builder(updatedBuilder, transform, planeTransforms, localTransform, baseMetadata);
+        }
+
+        private static double[] getMatrix(AffineTransform transform) {
+            double[] matrix = new double[6];
+            transform.getMatrix(matrix);
+            return matrix;
+        }
+    }
+}
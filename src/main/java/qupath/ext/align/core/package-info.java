@@ -3,6 +3,11 @@
  * <ul>
  *     <li>The {@link qupath.ext.align.core.AutoAligner AutoAligner} class can align images on top of another.</li>
  *     <li>The {@link qupath.ext.align.core.AffineImageTransform AffineImageTransform} class represents a transformation to apply on an image.</li>
+ *     <li>The {@link qupath.ext.align.core.PiecewiseAffineTransform PiecewiseAffineTransform} class represents local deformations refining a transformation.</li>
+ *     <li>The {@link qupath.ext.align.core.TransformedImageServer TransformedImageServer} class lazily applies a transformation on an image server.</li>
+ *     <li>The {@link qupath.ext.align.core.FusedImageServer FusedImageServer} class concatenates the channels of aligned images.</li>
+ *     <li>The {@link qupath.ext.align.core.OmeTiffExporter OmeTiffExporter} class streams an image server to a pyramidal OME-TIFF file.</li>
+ *     <li>The {@link qupath.ext.align.core.ImageWarper ImageWarper} class warps an RGB image in parallel with an arbitrary coordinate mapping.</li>
  * </ul>
  */
 package qupath.ext.align.core;
\ No newline at end of file
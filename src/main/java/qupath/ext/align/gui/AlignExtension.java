@@ -25,12 +25,15 @@ import org.controlsfx.control.action.Action;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qupath.ext.align.core.FusedImageServer;
+import qupath.ext.align.core.TransformedImageServer;
 import qupath.ext.align.gui.interactive.AlignCommand;
 import qupath.lib.common.Version;
 import qupath.lib.gui.actions.ActionTools;
 import qupath.lib.gui.QuPathGUI;
 import qupath.lib.gui.actions.annotations.ActionMenu;
 import qupath.lib.gui.extensions.QuPathExtension;
+import qupath.lib.images.servers.ImageServers;
 
 import java.util.ResourceBundle;
 
@@ -44,6 +47,8 @@ public class AlignExtension implements QuPathExtension {
 	private static final String EXTENSION_NAME = resources.getString("Extension.name");
 	private static final String EXTENSION_DESCRIPTION = resources.getString("Extension.description");
 	private static final Version EXTENSION_QUPATH_VERSION = Version.parse("v0.6.0");
+	private static final String TRANSFORMED_SERVER_BUILDER_TYPE = "align.transformed";
+	private static final String FUSED_SERVER_BUILDER_TYPE = "align.fused";
 	private boolean isInstalled = false;
 	
     @Override
@@ -54,6 +59,11 @@ public class AlignExtension implements QuPathExtension {
 		}
 		isInstalled = true;
 
+		// Builders must be known by QuPath to save the transformed and fused servers in projects
+		ImageServers.getServerBuilderFactory()
+				.registerSubtype(TransformedImageServer.Builder.class, TRANSFORMED_SERVER_BUILDER_TYPE)
+				.registerSubtype(FusedImageServer.Builder.class, FUSED_SERVER_BUILDER_TYPE);
+
     	qupath.installActions(ActionTools.getAnnotatedActions(new InteractiveAlignmentCommand(qupath)));
     }
 
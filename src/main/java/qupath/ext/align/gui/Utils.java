@@ -1,9 +1,5 @@
 package qupath.ext.align.gui;
 
-import javafx.collections.FXCollections;
-import javafx.collections.ListChangeListener;
-import javafx.collections.ObservableList;
-import javafx.collections.ObservableMap;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.control.TextFormatter;
 
@@ -11,7 +7,6 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.Objects;
 import java.util.ResourceBundle;
-import java.util.function.Function;
 import java.util.regex.Pattern;
 
 /**
@@ -48,51 +43,10 @@ public class Utils {
     }
 
     /**
-     * Create an {@link ObservableMap} whose keys match the provided list and whose values are determined by calling
-     * the provided function.
-     * <p>
-     * The returned map will listen to changes on the provided list and update its content accordingly. This means:
-     * <ul>
-     *     <li>The provided list should be updated from the same thread, as no synchronization is performed by the map.</li>
-     *     <li>
-     *         The provided list will contain a strong reference to this map (through the listener), so this map won't be
-     *         garbage collected until the provided list is.
-     *     </li>
-     * </ul>
-     *
-     * @param list keys of the returned map will match elements of this list
-     * @param keyToValue a function to determine a value from a key. It will be called each time a new pair must be added
-     *                   to the returned map
-     * @return an {@link ObservableMap} whose keys match the provided list and whose values are determined by calling the
-     * provided function
-     * @param <T> the type of the keys of the returned map
-     * @param <V> the type of the values of the returned map
-     * @throws NullPointerException if one of the provided parameter is null
+     * @return a {@link TextFormatter} that only accepts positive integers
      */
-    public static <T, V> ObservableMap<T, V> createKeyMappedObservableMap(ObservableList<T> list, Function<T, V> keyToValue) {
-        ObservableMap<T, V> map = FXCollections.observableHashMap();
-
-        for (T item : list) {
-            map.put(item, keyToValue.apply(item));
-        }
-
-        list.addListener((ListChangeListener<T>) change -> {
-            while (change.next()) {
-                if (change.wasRemoved()) {
-                    for (T removedItem : change.getRemoved()) {
-                        map.remove(removedItem);
-                    }
-                }
-                if (change.wasAdded()) {
-                    for (T addedItem : change.getAddedSubList()) {
-                        map.put(addedItem, keyToValue.apply(addedItem));
-                    }
-                }
-            }
-            change.reset();
-        });
-
-        return map;
+    public static TextFormatter<String> createIntegerFormatter() {
+        return new TextFormatter<>(change -> Pattern.matches("^\\d*$", change.getControlNewText()) ? change : null);
     }
 
     /**
@@ -1,136 +1,333 @@
 package qupath.ext.align.gui.interactive;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
-import javafx.beans.value.ObservableDoubleValue;
+import javafx.beans.value.ObservableBooleanValue;
 import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
+import javafx.collections.MapChangeListener;
+import javafx.collections.ObservableList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.ext.align.core.AffineImageTransform;
+import qupath.ext.align.core.ImageWarper;
+import qupath.ext.align.core.PiecewiseAffineTransform;
 import qupath.lib.display.ImageDisplay;
+import qupath.lib.gui.images.stores.ImageRenderer;
 import qupath.lib.gui.prefs.PathPrefs;
 import qupath.lib.gui.viewer.QuPathViewer;
 import qupath.lib.gui.viewer.overlays.AbstractOverlay;
 import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.regions.ImagePlane;
 import qupath.lib.regions.ImageRegion;
 
 import java.awt.*;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.io.IOException;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
 
 /**
- * An {@link AbstractOverlay} that applies an affine transformation on an image and displays the result.
+ * An {@link AbstractOverlay} that applies affine transformations on several images and displays the result, each
+ * image with its own opacity (see {@link OverlayLayer}).
+ * <p>
+ * The transformed images are rendered in the background into tiles stored in an {@link OverlayTileCache}, so that
+ * they are not resampled again each time the viewer is repainted. Tiles are warped with an {@link ImageWarper}. All images
+ * are composited into the same tile, so painting a tile takes the same time whatever the number of images. The tiles are
+ * invalidated when a transform or the list of images changes. While a transform is modified interactively, the images
+ * are painted directly from a coarser resolution instead.
+ * <p>
+ * Tiles can also show the overlay images compared to the base image (see {@link DisplayMode}). The comparison is
+ * computed when tiles are rendered, so it doesn't slow down painting. Regions whose tiles are not rendered yet and
+ * interactions are always displayed in {@link DisplayMode#BLEND blend} mode.
+ * <p>
+ * Tiles of the overlay images are stored in an {@link OverlayTileStore} separate from the store of the viewer, so that
+ * they don't evict the tiles of the base image. Tiles around the visible region are read in the background by an
+ * {@link OverlayTilePrefetcher}, so that they are available when the viewer is panned.
+ * <p>
+ * The tile cache can be shared by the overlays of several viewers showing the same base image, so that tiles are
+ * rendered once and drawn by all viewers.
+ * <p>
+ * Repaint requests are merged and the viewer is repainted at most once per JavaFX pulse, however many times the
+ * transforms changed during the frame.
+ * <p>
+ * Images whose {@link ImageDisplay} is still being created are painted from a thumbnail until the display is available.
  * <p>
  * This overlay must be {@link #close() closed} once no longer used.
  */
 class AlignOverlay extends AbstractOverlay implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(AlignOverlay.class);
+    private static final double INTERACTION_DOWNSAMPLE_FACTOR = 4;
+    private static final int BORDER_SAMPLES = OverlayTileCache.TILE_SIZE / 16 + 1;
+    private static final double PREFETCH_MARGIN = 0.5;
+    private static final long BASE_TILE_TIMEOUT_MILLIS = 10000;
     private final QuPathViewer viewer;
-    private final ObservableValue<AffineImageTransform> observableImageTransform;
-    private final ObservableDoubleValue opacity;
+    private final ObservableList<OverlayLayer> layers;
+    private final ObservableBooleanValue interacting;
+    private final ObservableValue<DisplayMode> displayMode;
+    private final ListChangeListener<OverlayLayer> layersListener;
     private final ChangeListener<? super Number> opacityListener;
-    private final ChangeListener<? super AffineImageTransform> transformListener;
+    private final ChangeListener<? super Boolean> interactingListener;
+    private final ChangeListener<? super DisplayMode> displayModeListener;
+    private final ChangeListener<? super ImageDisplay> imageDisplayListener;
+    private final ChangeListener<Object> transformValueListener;
+    private final MapChangeListener<ImagePlane, AffineTransform> planeTransformsListener;
+    private final OverlayTileCache tileCache;
+    private final OverlayTileStore tileStore;
+    private final Runnable tileRenderedListener = this::requestRepaint;
+    private final Map<OverlayLayer, OverlayTilePrefetcher> tilePrefetchers = new HashMap<>();
+    private final AnimationTimer repaintTimer;
 
     /**
      * Create the overlay and add it to the provided viewer's {@link QuPathViewer#getCustomOverlayLayers() list of custom overlay layers}.
-     * The provided viewer will be asked to be repainted when the value of provided image transform changes.
+     * The provided viewer will be asked to be repainted when the list of layers changes, or when the opacity or the transforms
+     * of a layer change (as image transforms may be shared with other viewers).
      *
      * @param viewer the viewer on which the overlay will be placed
-     * @param observableImageTransform an observable value that contains the image (and the transform to apply to it) to display
-     *                                 when this overlay is painted. It cannot be null but its value can
-     * @param opacity an observable value containing the opacity this overlay should have. When the value changes, the provided viewer
-     *                is asked to be repainted, so that this overlay displays the correct opacity. This observable must be updated from
-     *                the JavaFX Application Thread. It cannot be null but its value can
+     * @param layers an observable list containing the images (and the transforms to apply to them) to display when this overlay
+     *               is painted, from bottom to top. This observable must be updated from the JavaFX Application Thread
+     * @param tileCache the cache where rendered tiles should be stored. It can be shared with overlays of other viewers
+     *                  showing the same base image and the same layers. It is not closed when this overlay is closed
+     * @param tileStore the store where tiles of the overlay images should be stored. It can be shared with overlays of
+     *                  other viewers. It is not closed when this overlay is closed
+     * @param interacting an observable value indicating whether a transform is currently being modified interactively (for
+     *                    example by dragging the image). While it is true, the images are painted from a coarser resolution so that
+     *                    painting keeps up with the changes, and they are painted again at full resolution once the value becomes false.
+     *                    This observable must be updated from the JavaFX Application Thread
+     * @param displayMode an observable value containing the way the overlay images should be displayed on top of the base image.
+     *                    This observable must be updated from the JavaFX Application Thread. It cannot be null but its value can
+     *                    (in which case {@link DisplayMode#BLEND} is used)
      * @throws NullPointerException if one of the provided parameters is null
      */
-    public AlignOverlay(QuPathViewer viewer, ObservableValue<AffineImageTransform> observableImageTransform, ObservableDoubleValue opacity) {
+    public AlignOverlay(
+            QuPathViewer viewer,
+            ObservableList<OverlayLayer> layers,
+            OverlayTileCache tileCache,
+            OverlayTileStore tileStore,
+            ObservableBooleanValue interacting,
+            ObservableValue<DisplayMode> displayMode
+    ) {
         super(viewer.getOverlayOptions());
 
         logger.debug("Creating overlay for {}", viewer);
 
         this.viewer = viewer;
-        this.observableImageTransform = Objects.requireNonNull(observableImageTransform);
-        this.opacity = opacity;
+        this.layers = Objects.requireNonNull(layers);
+        this.interacting = Objects.requireNonNull(interacting);
+        this.displayMode = Objects.requireNonNull(displayMode);
+        this.repaintTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+
+                logger.trace("Repainting {}", viewer);
+                viewer.repaint();
+            }
+        };
+        this.tileCache = Objects.requireNonNull(tileCache);
+        this.tileStore = Objects.requireNonNull(tileStore);
+        this.layersListener = change -> {
+            while (change.next()) {
+                change.getRemoved().forEach(this::removeLayer);
+                change.getAddedSubList().forEach(this::addLayer);
+            }
+
+            tileCache.invalidate();
+            logger.trace("Layers updated to {}. Asking to repaint {}", layers, viewer);
+            requestRepaint();
+        };
         this.opacityListener = (p, o, n) -> {
-            setOpacity(n.doubleValue());
+            // Tiles are identified by the opacities of their layers, so they don't need to be invalidated
             logger.trace("Opacity updated to {}. Asking to repaint {}", n, viewer);
-            viewer.repaint();
+            requestRepaint();
+        };
+        this.interactingListener = (p, o, n) -> {
+            logger.trace("Interaction with transform {}. Asking to repaint {}", n ? "started" : "ended", viewer);
+            requestRepaint();
+        };
+        this.displayModeListener = (p, o, n) -> {
+            logger.trace("Display mode updated to {}. Asking to repaint {}", n, viewer);
+            requestRepaint();
+        };
+        this.imageDisplayListener = (p, o, n) -> {
+            tileCache.invalidate();
+            logger.trace("Image display {} created. Asking to repaint {}", n, viewer);
+            requestRepaint();
+        };
+        this.transformValueListener = (p, o, n) -> {
+            tileCache.invalidate();
+            logger.trace("Transform updated to {}. Asking to repaint {}", n, viewer);
+            requestRepaint();
         };
-        this.transformListener = (p, o, n) -> {
-            logger.trace("Image transform updated to {}. Asking to repaint {}", n, viewer);
-            viewer.repaint();
+        this.planeTransformsListener = change -> {
+            tileCache.invalidate();
+            logger.trace("Plane transforms updated. Asking to repaint {}", viewer);
+            requestRepaint();
         };
 
         viewer.getCustomOverlayLayers().add(this);
 
-        opacity.addListener(opacityListener);
-        opacityListener.changed(opacity, null, opacity.getValue());
+        tileCache.addTileRenderedListener(tileRenderedListener);
+        interacting.addListener(interactingListener);
+        displayMode.addListener(displayModeListener);
 
-        observableImageTransform.addListener(transformListener);
-        transformListener.changed(observableImageTransform, null, observableImageTransform.getValue());
+        layers.addListener(layersListener);
+        layers.forEach(this::addLayer);
+        requestRepaint();
     }
 
     @Override
     public void paintOverlay(Graphics2D g2d, ImageRegion imageRegion, double downsampleFactor, ImageData<BufferedImage> imageData, boolean paintCompletely) {
-        AffineImageTransform affineImageTransform = observableImageTransform.getValue();
-        if (affineImageTransform == null) {
-            logger.trace("No current image transform. Cannot paint align overlay on {}", viewer);
-            return;
-        }
+        double paintingDownsample = interacting.get() ? downsampleFactor * INTERACTION_DOWNSAMPLE_FACTOR : downsampleFactor;
+        ImagePlane plane = imageRegion.getImagePlane();
 
-        ImageDisplay imageDisplay;
-        try {
-            imageDisplay = affineImageTransform.getImageDisplay();
-        } catch (IOException e) {
-            logger.error("Cannot get image display of {}. Cannot paint align overlay on {}", affineImageTransform, viewer, e);
+        // The transforms are copied, as tiles are rendered from other threads
+        List<LayerRendering> layerRenderings = new ArrayList<>(layers.size());
+        List<OverlayLayer> layersLoading = new ArrayList<>();
+        for (OverlayLayer layer: layers) {
+            AffineImageTransform affineImageTransform = layer.imageTransform();
+            if (layer.opacity().get() <= 0) {
+                logger.trace("{} is hidden. Not painting it on {}", affineImageTransform, viewer);
+                continue;
+            }
+
+            ImageDisplay imageDisplay = layer.imageDisplay().getValue();
+            if (imageDisplay == null) {
+                logger.trace("Image display of {} not created yet. Painting placeholder on {}", affineImageTransform, viewer);
+                layersLoading.add(layer);
+                continue;
+            }
+
+            LayerRendering layerRendering = new LayerRendering(
+                    layer.image(),
+                    affineImageTransform,
+                    affineImageTransform.getImageData().getServer(),
+                    imageDisplay,
+                    new AffineTransform(affineImageTransform.getTransform(plane)),
+                    new AffineTransform(affineImageTransform.getInverseTransform(plane)),
+                    affineImageTransform.getLocalTransform().getValue(),
+                    Math.min(layer.opacity().get(), 1)
+            );
+            layerRenderings.add(layerRendering);
+
+            // Tiles are prefetched with the regions and the resolution used when rendering the layer
+            Rectangle2D visibleRegion = new Rectangle2D.Double(
+                    imageRegion.getX(),
+                    imageRegion.getY(),
+                    imageRegion.getWidth(),
+                    imageRegion.getHeight()
+            );
+            Rectangle2D extendedRegion = new Rectangle2D.Double(
+                    imageRegion.getX() - imageRegion.getWidth() * PREFETCH_MARGIN,
+                    imageRegion.getY() - imageRegion.getHeight() * PREFETCH_MARGIN,
+                    imageRegion.getWidth() * (1 + 2 * PREFETCH_MARGIN),
+                    imageRegion.getHeight() * (1 + 2 * PREFETCH_MARGIN)
+            );
+            tilePrefetchers.get(layer).prefetch(
+                    layerRendering.server(),
+                    imageDisplay,
+                    plane,
+                    getMappedBounds(visibleRegion, getBaseToImageMapping(layerRendering)),
+                    getMappedBounds(extendedRegion, getBaseToImageMapping(layerRendering)),
+                    getSourceDownsample(layerRendering, paintingDownsample)
+            );
+        }
+        layersLoading.forEach(layer -> paintPlaceholder(g2d, layer, plane));
+        if (layerRenderings.isEmpty()) {
+            logger.trace("No visible layer ready. Cannot paint align overlay on {}", viewer);
             return;
         }
 
-        logger.trace("Painting align overlay to {} with {}", viewer, affineImageTransform);
+        logger.trace("Painting align overlay to {} with {}", viewer, layerRenderings);
+
+        Rendering rendering = new Rendering(
+                layerRenderings,
+                PathPrefs.viewerInterpolateBilinearProperty().get(),
+                viewer.getServer(),
+                viewer.getImageDisplay(),
+                // Display modes other than blending need the base image, which may not be available
+                displayMode.getValue() == null || (displayMode.getValue().usesBaseImage() && viewer.getServer() == null) ?
+                        DisplayMode.BLEND :
+                        displayMode.getValue()
+        );
 
         Graphics2D graphics = (Graphics2D) g2d.create();
+        setInterpolation(graphics, rendering.bilinear());
 
-        AffineTransform transform = graphics.getTransform();
-        transform.concatenate(affineImageTransform.getInverseTransform());
-        graphics.setTransform(transform);
+        // The transform changes too often during an interaction for tiles to be useful, so the images are painted
+        // directly from a coarser resolution level, which requires fewer tiles
+        if (interacting.get()) {
+            logger.trace("Transform being modified. Painting align overlay at downsample {}", paintingDownsample);
 
-        AlphaComposite composite = getAlphaComposite();
-        if (composite != null) {
-            graphics.setComposite(composite);
+            paintLayers(graphics, rendering, plane, paintingDownsample);
+            graphics.dispose();
+            return;
         }
 
-        graphics.setRenderingHint(
-                RenderingHints.KEY_INTERPOLATION,
-                PathPrefs.viewerInterpolateBilinearProperty().get() ?
-                        RenderingHints.VALUE_INTERPOLATION_BILINEAR :
-                        RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
-        );
+        List<OverlayTileCache.Layer> tileLayers = layerRenderings.stream()
+                .map(layer -> new OverlayTileCache.Layer(layer.imageDisplay().getLastChangeTimestamp(), layer.opacity()))
+                .toList();
+        long baseDisplayTimestamp = rendering.displayMode().usesBaseImage() ? rendering.baseDisplay().getLastChangeTimestamp() : 0;
 
-        viewer.getImageRegionStore().paintRegion(
-                affineImageTransform.getImageData().getServer(),
-                graphics,
-                graphics.getClip(),
-                imageRegion.getZ(),
-                imageRegion.getT(),
-                downsampleFactor,
-                null,
-                null,
-                imageDisplay
-        );
+        // Rendered tiles are drawn directly. Tiles not rendered yet are painted by transforming the images, as before
+        Shape clip = g2d.getClip();
+        Area missingTiles = new Area();
+        double tileSize = OverlayTileCache.TILE_SIZE * downsampleFactor;
+        int minTileX = (int) Math.floor(imageRegion.getMinX() / tileSize);
+        int minTileY = (int) Math.floor(imageRegion.getMinY() / tileSize);
+        int maxTileX = (int) Math.ceil(imageRegion.getMaxX() / tileSize);
+        int maxTileY = (int) Math.ceil(imageRegion.getMaxY() / tileSize);
+        for (int tileY=minTileY; tileY<maxTileY; tileY++) {
+            for (int tileX=minTileX; tileX<maxTileX; tileX++) {
+                Rectangle2D tileBounds = new Rectangle2D.Double(tileX * tileSize, tileY * tileSize, tileSize, tileSize);
+                if (clip != null && !clip.intersects(tileBounds)) {
+                    continue;
+                }
 
+                OverlayTileCache.TileKey key = new OverlayTileCache.TileKey(
+                        downsampleFactor,
+                        plane,
+                        tileX,
+                        tileY,
+                        rendering.bilinear(),
+                        rendering.displayMode(),
+                        baseDisplayTimestamp,
+                        tileLayers
+                );
+                BufferedImage tile = tileCache.getTile(key, () -> renderTile(rendering, key, tileBounds));
+
+                if (tile == null) {
+                    missingTiles.add(new Area(tileBounds));
+                } else {
+                    AffineTransform tileTransform = AffineTransform.getTranslateInstance(tileBounds.getX(), tileBounds.getY());
+                    tileTransform.scale(downsampleFactor, downsampleFactor);
+                    graphics.drawImage(tile, tileTransform, null);
+                }
+            }
+        }
+
+        if (!missingTiles.isEmpty()) {
+            graphics.clip(missingTiles);
+            paintLayers(graphics, rendering, plane, downsampleFactor);
+        }
         graphics.dispose();
     }
 
     @Override
     public String toString() {
-        return String.format(
-                "Align overlay of %s with current transform %s and opacity %f",
-                viewer,
-                observableImageTransform.getValue(),
-                opacity.get()
-        );
+        return String.format("Align overlay of %s with layers %s", viewer, layers);
     }
 
     /**
@@ -140,9 +337,363 @@ class AlignOverlay extends AbstractOverlay implements AutoCloseable {
     public void close() {
         viewer.getCustomOverlayLayers().remove(this);
 
-        opacity.removeListener(opacityListener);
-        observableImageTransform.removeListener(transformListener);
+        interacting.removeListener(interactingListener);
+        displayMode.removeListener(displayModeListener);
+        layers.removeListener(layersListener);
+        layers.forEach(this::removeLayer);
+        tileCache.removeTileRenderedListener(tileRenderedListener);
+        repaintTimer.stop();
+
+        logger.debug("Overlay for {} closed. Overlay tile store usage: {}", viewer, tileStore.getStats());
+    }
+
+    private void addLayer(OverlayLayer layer) {
+        logger.debug("Adding {} to overlay of {}", layer, viewer);
+
+        layer.opacity().addListener(opacityListener);
+        layer.imageDisplay().addListener(imageDisplayListener);
+        layer.imageTransform().getTransform().addListener(transformValueListener);
+        layer.imageTransform().getLocalTransform().addListener(transformValueListener);
+        layer.imageTransform().getPlaneTransforms().addListener(planeTransformsListener);
+        tilePrefetchers.put(layer, new OverlayTilePrefetcher(tileStore, layer.image()));
+    }
+
+    private void removeLayer(OverlayLayer layer) {
+        logger.debug("Removing {} from overlay of {}", layer, viewer);
+
+        layer.opacity().removeListener(opacityListener);
+        layer.imageDisplay().removeListener(imageDisplayListener);
+        layer.imageTransform().getTransform().removeListener(transformValueListener);
+        layer.imageTransform().getLocalTransform().removeListener(transformValueListener);
+        layer.imageTransform().getPlaneTransforms().removeListener(planeTransformsListener);
+        OverlayTilePrefetcher tilePrefetcher = tilePrefetchers.remove(layer);
+        if (tilePrefetcher != null) {
+            tilePrefetcher.close();
+        }
+    }
+
+    private void requestRepaint() {
+        // The timer stops itself at the next pulse, so that all requests of a frame lead to a single repaint
+        if (Platform.isFxApplicationThread()) {
+            repaintTimer.start();
+        } else {
+            Platform.runLater(repaintTimer::start);
+        }
+    }
+
+    private BufferedImage renderTile(
+            Rendering rendering,
+            OverlayTileCache.TileKey key,
+            Rectangle2D tileBounds
+    ) throws InterruptedException, ExecutionException {
+        BufferedImage tile = new BufferedImage(OverlayTileCache.TILE_SIZE, OverlayTileCache.TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        // The base image is only rendered if a layer needs it, and once for all layers
+        Supplier<int[]> basePixels = Suppliers.memoize(() -> renderBaseTile(rendering, key, tileBounds));
+
+        // Layers are rendered separately and kept, so that only the layers whose transform changed are warped again
+        Graphics2D graphics = tile.createGraphics();
+        try {
+            for (int i=0; i<rendering.layers().size(); i++) {
+                LayerRendering layer = rendering.layers().get(i);
+                OverlayTileCache.Layer tileLayer = key.layers().get(i);
+
+                BufferedImage layerTile = tileCache.getLayerTile(
+                        new OverlayTileCache.LayerTileKey(
+                                key.downsample(),
+                                key.plane(),
+                                key.x(),
+                                key.y(),
+                                key.bilinear(),
+                                key.displayMode(),
+                                key.baseDisplayTimestamp(),
+                                layer.imageTransform(),
+                                layer.transform(),
+                                layer.localTransform(),
+                                tileLayer.displayTimestamp()
+                        ),
+                        () -> renderLayerTile(layer, key, tileBounds, basePixels)
+                );
+
+                graphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, (float) tileLayer.opacity()));
+                graphics.drawImage(layerTile, 0, 0, null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+
+        return tile;
+    }
+
+    private BufferedImage renderLayerTile(
+            LayerRendering layer,
+            OverlayTileCache.TileKey key,
+            Rectangle2D tileBounds,
+            Supplier<int[]> basePixels
+    ) throws InterruptedException {
+        // The image is retained so that its server is not closed while the tile is rendered. If the image was closed,
+        // it is not displayed anymore and the tile will be discarded
+        if (!layer.image().retain()) {
+            return new BufferedImage(OverlayTileCache.TILE_SIZE, OverlayTileCache.TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        try {
+            return warpLayerTile(layer, key, tileBounds, basePixels);
+        } finally {
+            layer.image().release();
+        }
+    }
+
+    private BufferedImage warpLayerTile(
+            LayerRendering layer,
+            OverlayTileCache.TileKey key,
+            Rectangle2D tileBounds,
+            Supplier<int[]> basePixels
+    ) throws InterruptedException {
+        ImageServer<BufferedImage> server = layer.server();
+        double downsample = key.downsample();
+
+        // The tile is warped by software from the region of the overlay image it covers, read at the matching resolution
+        ImageWarper.CoordinateMapping baseToImage = getBaseToImageMapping(layer);
+        ImageWarper.CoordinateMapping tileToImage = (points, nPoints) -> {
+            for (int i=0; i<2*nPoints; i+=2) {
+                points[i] = tileBounds.getX() + points[i] * downsample;
+                points[i+1] = tileBounds.getY() + points[i+1] * downsample;
+            }
+            baseToImage.map(points, nPoints);
+        };
+        Rectangle2D sourceBounds = getMappedBounds(tileBounds, baseToImage)
+                .createIntersection(new Rectangle2D.Double(0, 0, server.getWidth(), server.getHeight()));
+        double sourceDownsample = getSourceDownsample(layer, downsample);
+        if (sourceBounds.isEmpty() || !(sourceDownsample > 0) || Double.isInfinite(sourceDownsample)) {
+            return new BufferedImage(OverlayTileCache.TILE_SIZE, OverlayTileCache.TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        BufferedImage source = new BufferedImage(
+                (int) Math.ceil(sourceBounds.getWidth() / sourceDownsample),
+                (int) Math.ceil(sourceBounds.getHeight() / sourceDownsample),
+                BufferedImage.TYPE_INT_ARGB
+        );
+        Graphics2D graphics = source.createGraphics();
+        graphics.scale(1 / sourceDownsample, 1 / sourceDownsample);
+        graphics.translate(-sourceBounds.getX(), -sourceBounds.getY());
+        tileStore.paintRegion(
+                layer.image(),
+                server,
+                graphics,
+                sourceBounds,
+                key.plane().getZ(),
+                key.plane().getT(),
+                sourceDownsample,
+                layer.imageDisplay(),
+                true,
+                this::requestRepaint
+        );
+        graphics.dispose();
+
+        BufferedImage tile = ImageWarper.warp(
+                source,
+                OverlayTileCache.TILE_SIZE,
+                OverlayTileCache.TILE_SIZE,
+                (points, nPoints) -> {
+                    tileToImage.map(points, nPoints);
+                    for (int i=0; i<2*nPoints; i+=2) {
+                        points[i] = (points[i] - sourceBounds.getX()) / sourceDownsample;
+                        points[i+1] = (points[i+1] - sourceBounds.getY()) / sourceDownsample;
+                    }
+                },
+                key.bilinear() ? ImageWarper.Interpolation.BILINEAR : ImageWarper.Interpolation.NEAREST,
+                false       // tiles are already rendered in parallel by the tile cache
+        );
+
+        if (key.displayMode() != DisplayMode.BLEND) {
+            key.displayMode().apply(
+                    ((DataBufferInt) tile.getRaster().getDataBuffer()).getData(),
+                    key.displayMode().usesBaseImage() ? basePixels.get() : null,
+                    OverlayTileCache.TILE_SIZE,
+                    key.x() * OverlayTileCache.TILE_SIZE,
+                    key.y() * OverlayTileCache.TILE_SIZE
+            );
+        }
+
+        return tile;
+    }
+
+    private int[] renderBaseTile(Rendering rendering, OverlayTileCache.TileKey key, Rectangle2D tileBounds) {
+        BufferedImage baseTile = new BufferedImage(OverlayTileCache.TILE_SIZE, OverlayTileCache.TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+
+        Graphics2D graphics = baseTile.createGraphics();
+        graphics.scale(1 / key.downsample(), 1 / key.downsample());
+        graphics.translate(-tileBounds.getX(), -tileBounds.getY());
+        viewer.getImageRegionStore().paintRegionCompletely(
+                rendering.baseServer(),
+                graphics,
+                tileBounds,
+                key.plane().getZ(),
+                key.plane().getT(),
+                key.downsample(),
+                null,
+                rendering.baseDisplay(),
+                BASE_TILE_TIMEOUT_MILLIS
+        );
+        graphics.dispose();
+
+        return ((DataBufferInt) baseTile.getRaster().getDataBuffer()).getData();
+    }
+
+    private static ImageWarper.CoordinateMapping getBaseToImageMapping(LayerRendering layer) {
+        return (points, nPoints) -> {
+            if (layer.localTransform() == null) {
+                layer.transform().transform(points, 0, points, 0, nPoints);
+            } else {
+                layer.localTransform().transform(points, 0, points, 0, nPoints);
+            }
+        };
+    }
+
+    private static double getSourceDownsample(LayerRendering layer, double downsample) {
+        return downsample * Math.sqrt(Math.abs(layer.transform().getDeterminant()));
+    }
+
+    private static Rectangle2D getMappedBounds(Rectangle2D region, ImageWarper.CoordinateMapping baseToImage) {
+        // Points along the border of the region are mapped, as local transforms don't map lines to lines
+        double[] points = new double[8 * BORDER_SAMPLES];
+        for (int i=0; i<BORDER_SAMPLES; i++) {
+            double x = region.getX() + region.getWidth() * i / (BORDER_SAMPLES - 1);
+            double y = region.getY() + region.getHeight() * i / (BORDER_SAMPLES - 1);
+            double[] borderPoints = {
+                    x, region.getMinY(),
+                    x, region.getMaxY(),
+                    region.getMinX(), y,
+                    region.getMaxX(), y
+            };
+            System.arraycopy(borderPoints, 0, points, 8 * i, borderPoints.length);
+        }
+        baseToImage.map(points, 4 * BORDER_SAMPLES);
+
+        Rectangle2D bounds = new Rectangle2D.Double(points[0], points[1], 0, 0);
+        for (int i=0; i<points.length; i+=2) {
+            bounds.add(points[i], points[i+1]);
+        }
+        return bounds;
+    }
+
+    private void paintPlaceholder(Graphics2D g2d, OverlayLayer layer, ImagePlane plane) {
+        BufferedImage placeholder = layer.placeholder();
+        if (placeholder == null) {
+            return;
+        }
+        ImageServer<BufferedImage> server = layer.imageTransform().getImageData().getServer();
+
+        // The thumbnail is stretched to the size of the image. Local transforms are ignored, as the thumbnail is only
+        // displayed for a short time
+        Graphics2D graphics = (Graphics2D) g2d.create();
+        graphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, (float) Math.min(layer.opacity().get(), 1)));
+        setInterpolation(graphics, true);
+
+        AffineTransform transform = graphics.getTransform();
+        transform.concatenate(layer.imageTransform().getInverseTransform(plane));
+        transform.scale(server.getWidth() / (double) placeholder.getWidth(), server.getHeight() / (double) placeholder.getHeight());
+        graphics.setTransform(transform);
+        graphics.drawImage(placeholder, 0, 0, null);
+
+        graphics.dispose();
+    }
+
+    private void paintLayers(Graphics2D g2d, Rendering rendering, ImagePlane plane, double downsampleFactor) {
+        for (LayerRendering layer: rendering.layers()) {
+            Graphics2D graphics = (Graphics2D) g2d.create();
+            graphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, (float) layer.opacity()));
+
+            paintImage(graphics, layer, plane, downsampleFactor);
+
+            graphics.dispose();
+        }
+    }
+
+    private void paintImage(Graphics2D g2d, LayerRendering layer, ImagePlane plane, double downsampleFactor) {
+        if (layer.localTransform() == null) {
+            paintTransformedImage(g2d, null, layer.inverseTransform(), layer, plane, downsampleFactor);
+        } else {
+            // Each tile of the local transform is painted with its own affine transform, clipped to the tile bounds
+            Shape clip = g2d.getClip();
+            PiecewiseAffineTransform localTransform = layer.localTransform();
+
+            for (int row=0; row<localTransform.getNumberOfRows(); row++) {
+                for (int col=0; col<localTransform.getNumberOfColumns(); col++) {
+                    Rectangle2D tileBounds = localTransform.getTileBounds(col, row);
 
-        logger.debug("Overlay for {} closed", viewer);
+                    if (clip == null || clip.intersects(tileBounds)) {
+                        paintTransformedImage(
+                                g2d,
+                                tileBounds,
+                                localTransform.getTileInverseTransform(col, row),
+                                layer,
+                                plane,
+                                downsampleFactor
+                        );
+                    }
+                }
+            }
+        }
     }
+
+    private void paintTransformedImage(
+            Graphics2D g2d,
+            Shape clip,
+            AffineTransform inverseTransform,
+            LayerRendering layer,
+            ImagePlane plane,
+            double downsampleFactor
+    ) {
+        Graphics2D graphics = (Graphics2D) g2d.create();
+
+        if (clip != null) {
+            graphics.clip(clip);
+        }
+
+        AffineTransform transform = graphics.getTransform();
+        transform.concatenate(inverseTransform);
+        graphics.setTransform(transform);
+
+        tileStore.paintRegion(
+                layer.image(),
+                layer.server(),
+                graphics,
+                graphics.getClip(),
+                plane.getZ(),
+                plane.getT(),
+                downsampleFactor,
+                layer.imageDisplay(),
+                false,
+                this::requestRepaint
+        );
+
+        graphics.dispose();
+    }
+
+    private static void setInterpolation(Graphics2D graphics, boolean bilinear) {
+        graphics.setRenderingHint(
+                RenderingHints.KEY_INTERPOLATION,
+                bilinear ? RenderingHints.VALUE_INTERPOLATION_BILINEAR : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+        );
+    }
+
+    private record Rendering(
+            List<LayerRendering> layers,
+            boolean bilinear,
+            ImageServer<BufferedImage> baseServer,
+            ImageRenderer baseDisplay,
+            DisplayMode displayMode
+    ) {}
+
+    private record LayerRendering(
+            ImageHandle image,
+            AffineImageTransform imageTransform,
+            ImageServer<BufferedImage> server,
+            ImageDisplay imageDisplay,
+            AffineTransform transform,
+            AffineTransform inverseTransform,
+            PiecewiseAffineTransform localTransform,
+            double opacity
+    ) {}
 }
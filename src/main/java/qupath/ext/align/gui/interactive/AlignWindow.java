@@ -1,19 +1,27 @@
 package qupath.ext.align.gui.interactive;
 
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
+import javafx.beans.binding.BooleanExpression;
 import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ChangeListener;
+import javafx.concurrent.Task;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.Slider;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
@@ -21,35 +29,54 @@ import javafx.scene.control.Tooltip;
 import javafx.scene.input.Clipboard;
 import javafx.scene.input.ClipboardContent;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.HBox;
 import javafx.stage.Stage;
 import javafx.util.StringConverter;
+import org.controlsfx.control.CheckComboBox;
 import org.controlsfx.control.CheckListView;
+import org.controlsfx.dialog.ProgressDialog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.ext.align.gui.Utils;
 import qupath.ext.align.core.AutoAligner;
 import qupath.ext.align.core.AffineImageTransform;
+import qupath.ext.align.core.FusedImageServer;
 import qupath.fx.dialogs.Dialogs;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.gui.QuPathGUI;
+import qupath.lib.gui.commands.ProjectCommands;
 import qupath.lib.gui.viewer.QuPathViewer;
 import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerBuilder;
+import qupath.lib.images.servers.ServerTools;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjects;
 import qupath.lib.projects.Project;
 import qupath.lib.projects.ProjectImageEntry;
 import qupath.lib.roi.GeometryTools;
 
+import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.text.MessageFormat;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.ResourceBundle;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * A window allowing to align images on top of others by using an {@link AlignOverlay}.
@@ -61,20 +88,63 @@ public class AlignWindow extends Stage {
     private static final double DEFAULT_OPACITY = 1;
     private static final int DEFAULT_ROTATION_INCREMENT = 1;
     private static final double DEFAULT_PIXEL_SIZE_MICRONS = 20;
+    private static final double DEFAULT_LOCAL_TILE_SIZE_MICRONS = 2000;
+    private static final String ROUND_TRANSFORM_METADATA_KEY_PREFIX = "align.transform.";
+    private static final int MAX_IMAGE_LOADING_THREADS = 4;
+    private static final long MAX_OVERLAY_TILE_STORE_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 16, 256L * 1024 * 1024);
+    private final Map<ProjectImageEntry<BufferedImage>, Future<ImageHandle>> imagesLoading = new HashMap<>();
     private final ObjectProperty<AffineImageTransform> selectedImageTransform = new SimpleObjectProperty<>();
-    private final Map<ImageDataViewer, AffineImageTransform> imageDataAndViewerToTransform;
+    private final Map<TransformKey, AffineImageTransform> transforms = new HashMap<>();
+    private final Map<ImageHandle, DoubleProperty> opacities = new HashMap<>();
+    private final ObservableList<OverlayLayer> overlayLayers = FXCollections.observableArrayList();
+    private final ImageDisplayLoader imageDisplayLoader = new ImageDisplayLoader();
     private final QuPathGUI quPath;
-    private AlignOverlay currentOverlay;
-    private record ImageDataViewer(ImageData<BufferedImage> imageData, QuPathViewer viewer) {}
+    private final Map<QuPathViewer, AlignOverlay> overlays = new HashMap<>();
+    private final ChangeListener<ImageData<BufferedImage>> viewerImageListener = (p, o, n) -> updateOverlays(getActiveViewer());
+    private final ImageTransformTranslater imageTransformTranslater;
+    private final ObjectProperty<ThumbnailCache> thumbnailCache = new SimpleObjectProperty<>();
+    private ExecutorService imageLoadingExecutor = null;
+    private OverlayTileCache overlayTileCache = null;
+    private OverlayTileStore overlayTileStore = null;
+    private int numberOfImagesToLoad = 0;
+    private record TransformKey(ImageHandle image, Object baseImage) {}
+    private record AlignmentInputs(
+            AffineImageTransform affineImageTransform,
+            ImageData<BufferedImage> baseImageData,
+            ImageHandle imageToAlign,
+            ImageData<BufferedImage> imageDataOfViewer,
+            double downsample
+    ) {
+        // This may read the image data from the project, so it shouldn't be called from the JavaFX Application Thread
+        public ImageData<BufferedImage> readImageDataToAlign() throws IOException {
+            return imageDataOfViewer == null ? imageToAlign.readImageData() : imageDataOfViewer;
+        }
+    }
+    @FunctionalInterface
+    private interface AlignmentJob<T> {
+        T align(ImageData<BufferedImage> imageDataToAlign, AffineTransform initialTransform) throws Exception;
+    }
     @FXML
-    private CheckListView<ImageData<BufferedImage>> images;
+    private CheckListView<ImageHandle> images;
     @FXML
     private Button chooseImages;
     @FXML
+    private HBox imagesLoadingPane;
+    @FXML
+    private ProgressBar imagesLoadingProgress;
+    @FXML
+    private Label imagesLoadingLabel;
+    @FXML
     private Slider opacity;
     @FXML
     private Label opacityLabel;
     @FXML
+    private Label displayModeLabel;
+    @FXML
+    private ComboBox<DisplayMode> displayMode;
+    @FXML
+    private CheckBox linkViewers;
+    @FXML
     private TextField rotationIncrement;
     @FXML
     private Button rotateLeft;
@@ -91,8 +161,24 @@ public class AlignWindow extends Stage {
     @FXML
     private TextField pixelSize;
     @FXML
+    private CheckComboBox<AutoAligner.PreprocessingStage> preprocessingStages;
+    @FXML
+    private TextField gaussianFilterSize;
+    @FXML
+    private TextField numberOfThreads;
+    @FXML
+    private TextField alignmentChannel;
+    @FXML
+    private TextField localTileSize;
+    @FXML
     private Button estimateTransform;
     @FXML
+    private Button estimateLocalTransform;
+    @FXML
+    private Button estimatePlaneTransforms;
+    @FXML
+    private Button registerAllRounds;
+    @FXML
     private TextArea affineTransformation;
     @FXML
     private Button update;
@@ -104,6 +190,10 @@ public class AlignWindow extends Stage {
     private Button copy;
     @FXML
     private Button propagate;
+    @FXML
+    private Button addToProject;
+    @FXML
+    private Button addFusedToProject;
 
     /**
      * Create the window. This will not show it.
@@ -118,30 +208,44 @@ public class AlignWindow extends Stage {
 
         Utils.loadFXML(this, AlignWindow.class.getResource("image_alignment_window.fxml"));
 
-        imageDataAndViewerToTransform = Utils.createKeyMappedObservableMap(
-                createImageDataViewerList(),
-                imageDataViewer -> {
-                    try {
-                        return new AffineImageTransform(imageDataViewer.imageData(), imageDataViewer.viewer());
-                    } catch (Exception e) {
-                        logger.error("Error while getting image server of {}. Cannot create image transform", imageDataViewer.imageData(), e);
-                        return null;
-                    }
-                }
+        // Transforms are only created when an image is selected or checked with a viewer showing an image
+        images.getSelectionModel().selectedItemProperty().addListener((p, o, n) -> {
+            selectedImageTransform.set(getImageTransform(n, quPath.viewerProperty().get()));
+            updateOverlayLayers();
+        });
+        images.getCheckModel().getCheckedItems().addListener((ListChangeListener<? super ImageHandle>) change ->
+                updateOverlayLayers()
         );
+        quPath.viewerProperty().addListener((p, o, n) -> {
+            selectedImageTransform.set(getImageTransform(images.getSelectionModel().selectedItemProperty().get(), n));
+            updateOverlayLayers();
+        });
+        quPath.viewerProperty().flatMap(QuPathViewer::imageDataProperty).addListener((p, o, n) -> {
+            removeUnusedImageTransforms();
+            selectedImageTransform.set(getImageTransform(
+                    images.getSelectionModel().selectedItemProperty().get(),
+                    quPath.viewerProperty().get()
+            ));
+            updateOverlayLayers();
+            updateOverlays(getActiveViewer());
+        });
+        images.getItems().addListener((ListChangeListener<? super ImageHandle>) change -> {
+            while (change.next()) {
+                if (change.wasRemoved()) {
+                    transforms.keySet().removeIf(key -> change.getRemoved().contains(key.image()));
+                    opacities.keySet().removeIf(change.getRemoved()::contains);
+                    change.getRemoved().forEach(imageDisplayLoader::remove);
+                }
+            }
+            change.reset();
 
-        images.getSelectionModel().selectedItemProperty().addListener((p, o, n) ->
-                selectedImageTransform.set(imageDataAndViewerToTransform.get(new ImageDataViewer(
-                        n,
-                        quPath.viewerProperty().get()
-                )))
-        );
-        quPath.viewerProperty().addListener((p, o, n) ->
-                selectedImageTransform.set(imageDataAndViewerToTransform.get(new ImageDataViewer(
-                        images.getSelectionModel().selectedItemProperty().get(),
-                        n
-                )))
-        );
+            updateOverlayLayers();
+
+            // Servers of removed images are closed once no job uses them anymore
+            while (change.next()) {
+                change.getRemoved().forEach(ImageHandle::close);
+            }
+        });
 
         BooleanProperty inactiveOverlayImageOrViewerImage = new SimpleBooleanProperty(true);
         selectedImageTransform.addListener((p, o, n) ->
@@ -151,11 +255,44 @@ public class AlignWindow extends Stage {
                 inactiveOverlayImageOrViewerImage.set(selectedImageTransform.get() == null || n == null)
         );
 
-        images.setCellFactory(c -> new ImageEntryCell(quPath.projectProperty(), quPath.viewerProperty()));
+        // A new cache is used for each project, so that the thumbnails of a closed project can be garbage collected
+        thumbnailCache.bind(quPath.projectProperty().map(ThumbnailCache::new).orElse(new ThumbnailCache(null)));
+        images.setCellFactory(c -> new ImageEntryCell(quPath.projectProperty(), quPath.viewerProperty(), thumbnailCache));
         chooseImages.disableProperty().bind(quPath.projectProperty().isNull());
+        imagesLoadingPane.managedProperty().bind(imagesLoadingPane.visibleProperty());
         opacityLabel.disableProperty().bind(inactiveOverlayImageOrViewerImage);
         opacity.setValue(DEFAULT_OPACITY);
         opacity.disableProperty().bind(inactiveOverlayImageOrViewerImage);
+        // Each image has its own opacity, and the slider controls the opacity of the selected image
+        images.getSelectionModel().selectedItemProperty().addListener((p, o, n) -> {
+            if (o != null && opacities.containsKey(o)) {
+                opacity.valueProperty().unbindBidirectional(opacities.get(o));
+            }
+            if (n != null) {
+                opacity.valueProperty().bindBidirectional(getOpacity(n));
+            }
+        });
+        displayModeLabel.disableProperty().bind(inactiveOverlayImageOrViewerImage);
+        displayMode.getItems().setAll(DisplayMode.values());
+        displayMode.setConverter(new StringConverter<>() {
+            @Override
+            public String toString(DisplayMode object) {
+                return switch (object) {
+                    case BLEND -> resources.getString("ImageOverlayAlignmentWindow.blend");
+                    case DIFFERENCE -> resources.getString("ImageOverlayAlignmentWindow.difference");
+                    case CHECKERBOARD -> resources.getString("ImageOverlayAlignmentWindow.checkerboard");
+                    case MAGENTA_GREEN -> resources.getString("ImageOverlayAlignmentWindow.magentaGreen");
+                };
+            }
+
+            @Override
+            public DisplayMode fromString(String string) {
+                return null;
+            }
+        });
+        displayMode.getSelectionModel().select(DisplayMode.BLEND);
+        displayMode.disableProperty().bind(inactiveOverlayImageOrViewerImage);
+        linkViewers.selectedProperty().addListener((p, o, n) -> updateOverlays(getActiveViewer()));
 
         rotationIncrement.setText(String.valueOf(DEFAULT_ROTATION_INCREMENT));
         rotationIncrement.setTextFormatter(Utils.createFloatFormatter());
@@ -217,7 +354,51 @@ public class AlignWindow extends Stage {
         ));
         pixelSize.setText(String.valueOf(DEFAULT_PIXEL_SIZE_MICRONS));
         pixelSize.setTextFormatter(Utils.createFloatFormatter());
+        preprocessingStages.getItems().setAll(AutoAligner.PreprocessingStage.values());
+        preprocessingStages.setConverter(new StringConverter<>() {
+            @Override
+            public String toString(AutoAligner.PreprocessingStage object) {
+                return switch (object) {
+                    case CLAHE -> resources.getString("ImageOverlayAlignmentWindow.clahe");
+                    case GRADIENT_MAGNITUDE -> resources.getString("ImageOverlayAlignmentWindow.gradientMagnitude");
+                    case HISTOGRAM_MATCHING -> resources.getString("ImageOverlayAlignmentWindow.histogramMatching");
+                };
+            }
+
+            @Override
+            public AutoAligner.PreprocessingStage fromString(String string) {
+                return null;
+            }
+        });
+        preprocessingStages.disableProperty().bind(
+                alignmentType.getSelectionModel().selectedItemProperty().isNotEqualTo(AutoAligner.AlignmentType.INTENSITY)
+        );
+        gaussianFilterSize.setText(String.valueOf(AutoAligner.EccOptions.DEFAULT_GAUSSIAN_FILTER_SIZE));
+        gaussianFilterSize.setTextFormatter(Utils.createIntegerFormatter());
+        gaussianFilterSize.disableProperty().bind(
+                alignmentType.getSelectionModel().selectedItemProperty().isEqualTo(AutoAligner.AlignmentType.POINT_ANNOTATIONS)
+        );
+        numberOfThreads.setText(String.valueOf(AutoAligner.EccOptions.DEFAULT.numberOfThreads()));
+        numberOfThreads.setTextFormatter(Utils.createIntegerFormatter());
+        numberOfThreads.disableProperty().bind(
+                alignmentType.getSelectionModel().selectedItemProperty().isEqualTo(AutoAligner.AlignmentType.POINT_ANNOTATIONS)
+        );
+        alignmentChannel.setTextFormatter(Utils.createIntegerFormatter());
+        alignmentChannel.disableProperty().bind(
+                alignmentType.getSelectionModel().selectedItemProperty().isNotEqualTo(AutoAligner.AlignmentType.INTENSITY)
+        );
         estimateTransform.disableProperty().bind(inactiveOverlayImageOrViewerImage);
+        localTileSize.setText(String.valueOf(DEFAULT_LOCAL_TILE_SIZE_MICRONS));
+        localTileSize.setTextFormatter(Utils.createFloatFormatter());
+        estimateLocalTransform.disableProperty().bind(inactiveOverlayImageOrViewerImage.or(
+                alignmentType.getSelectionModel().selectedItemProperty().isNotEqualTo(AutoAligner.AlignmentType.INTENSITY)
+        ));
+        estimatePlaneTransforms.disableProperty().bind(inactiveOverlayImageOrViewerImage.or(
+                alignmentType.getSelectionModel().selectedItemProperty().isNotEqualTo(AutoAligner.AlignmentType.INTENSITY)
+        ));
+        registerAllRounds.disableProperty().bind(quPath.viewerProperty().flatMap(QuPathViewer::imageDataProperty).isNull().or(
+                alignmentType.getSelectionModel().selectedItemProperty().isNotEqualTo(AutoAligner.AlignmentType.INTENSITY)
+        ));
 
         affineTransformation.editableProperty().bind(inactiveOverlayImageOrViewerImage.not());
         affineTransformation.setText(resources.getString("ImageOverlayAlignmentWindow.noOverlaySelected"));
@@ -242,31 +423,39 @@ public class AlignWindow extends Stage {
             button.disableProperty().bind(inactiveOverlayImageOrViewerImage);
         }
         propagate.disableProperty().bind(inactiveOverlayImageOrViewerImage.or(quPath.projectProperty().isNull()));
+        addToProject.disableProperty().bind(inactiveOverlayImageOrViewerImage.or(quPath.projectProperty().isNull()));
+        addFusedToProject.disableProperty().bind(quPath.projectProperty().isNull().or(BooleanExpression.booleanExpression(
+                quPath.viewerProperty().flatMap(QuPathViewer::imageDataProperty).map(Objects::isNull).orElse(true)
+        )));
 
-        ImageTransformTranslater imageTransformTranslater = new ImageTransformTranslater(selectedImageTransform, quPath.viewerProperty());
+        imageTransformTranslater = new ImageTransformTranslater(selectedImageTransform, quPath.viewerProperty());
         ChangeListener<? super QuPathViewer> viewerListener = (ChangeListener<QuPathViewer>) (p, o, n) -> {
             if (o != null) {
+                logger.debug("{} is not active anymore. Transform mouse handler removed", o);
                 o.getView().removeEventFilter(MouseEvent.ANY, imageTransformTranslater);
-
-                if (currentOverlay != null) {
-                    logger.debug("{} is not active anymore. Transform mouse handler removed and closing overlay", o);
-                    currentOverlay.close();
-                    currentOverlay = null;
-                } else {
-                    logger.debug("{} is not active anymore. Transform mouse handler removed", o);
-                }
             }
             if (n != null) {
-                logger.debug("Current viewer set to {}. Adding transform mouse handler and creating overlay", n);
+                logger.debug("Current viewer set to {}. Adding transform mouse handler", n);
                 n.getView().addEventFilter(MouseEvent.ANY, imageTransformTranslater);
-
-                currentOverlay = new AlignOverlay(n, selectedImageTransform, opacity.valueProperty());
             }
+
+            updateOverlays(n);
         };
         showingProperty().addListener((p, o, n) -> {
             if (n) {
                 logger.debug("Image alignment window showed. Adding and calling viewer listener");
 
+                imageLoadingExecutor = Executors.newFixedThreadPool(
+                        Math.min(ThreadTools.getParallelism(), MAX_IMAGE_LOADING_THREADS),
+                        ThreadTools.createThreadFactory("align-image-loader-", true)
+                );
+
+                // The overlay pipeline only lives while the window is shown
+                overlayTileCache = new OverlayTileCache();
+                overlayTileStore = new OverlayTileStore(MAX_OVERLAY_TILE_STORE_BYTES);
+
+                // Displays whose creation was stopped when the window was hidden are requested again
+                updateOverlayLayers();
                 quPath.viewerProperty().addListener(viewerListener);
                 viewerListener.changed(quPath.viewerProperty(), null, quPath.viewerProperty().get());
             } else {
@@ -274,6 +463,22 @@ public class AlignWindow extends Stage {
 
                 quPath.viewerProperty().removeListener(viewerListener);
                 viewerListener.changed(quPath.viewerProperty(), quPath.viewerProperty().get(), null);
+
+                // Images still loading are forgotten, as they can be chosen again when the window is shown again
+                logger.debug("Cancelling loading of {} and stopping image loading threads", imagesLoading.keySet());
+                imagesLoading.values().forEach(imageLoading -> imageLoading.cancel(true));
+                imagesLoading.clear();
+                updateImagesLoadingProgress();
+                imageLoadingExecutor.shutdownNow();
+                imageLoadingExecutor = null;
+                imageDisplayLoader.close();
+
+                // Overlays were closed when the viewer listener was called, so the overlay pipeline is not used anymore
+                overlayTileCache.close();
+                overlayTileCache = null;
+                logger.debug("Closing overlay tile store. Usage: {}", overlayTileStore.getStats());
+                overlayTileStore.close();
+                overlayTileStore = null;
             }
         });
 
@@ -292,10 +497,10 @@ public class AlignWindow extends Stage {
         try {
             imagesSelector = new ImagesSelector(
                     project.getImageList(),
-                    images.getItems().stream()
-                            .map(project::getEntry)
-                            .filter(Objects::nonNull)
-                            .toList()
+                    Stream.concat(
+                            images.getItems().stream().map(ImageHandle::getEntry),
+                            imagesLoading.keySet().stream()
+                    ).toList()
             );
         } catch (IOException e) {
             logger.error("Error while creating images selector pane", e);
@@ -312,58 +517,43 @@ public class AlignWindow extends Stage {
                 project.getImageList()
         );
 
-        images.getItems().removeIf(imageData -> imagesSelector.getUnselectedImages().contains(project.getEntry(imageData)));
-        images.getItems().addAll(imagesSelector.getSelectedImages().stream()
-                .filter(entry -> images.getItems().stream()
-                        .map(project::getEntry)
-                        .noneMatch(entry::equals)
-                )
-                .map(entry -> {
-                    logger.debug("Getting image data of {} to add it to the list of image entries", entry);
-
-                    for (QuPathViewer viewer : quPath.getAllViewers()) {
-                        ImageData<BufferedImage> imageData = viewer.getImageData();
-
-                        if (imageData != null && entry.equals(project.getEntry(imageData))) {
-                            logger.debug("Found viewer {} that contain {}. Using its image data", viewer, entry);
-                            return imageData;
-                        }
-                    }
+        images.getItems().removeIf(image -> imagesSelector.getUnselectedImages().contains(image.getEntry()));
+        for (ProjectImageEntry<BufferedImage> entry: imagesSelector.getUnselectedImages()) {
+            Future<ImageHandle> imageLoading = imagesLoading.remove(entry);
+            if (imageLoading != null) {
+                logger.debug("{} unselected while being loaded. Cancelling its loading", entry);
+                imageLoading.cancel(true);
+                numberOfImagesToLoad--;
+            }
+        }
 
-                    try {
-                        if (entry.hasImageData()) {
-                            logger.debug(
-                                    "{} has already available image data. Using it and removing non annotations objects from its hierarchy to save memory",
-                                    entry
-                            );
-                            ImageData<BufferedImage> imageData = entry.readImageData();
-
-                            Collection<PathObject> pathObjects = imageData.getHierarchy().getObjects(null, null);
-                            Set<PathObject> pathObjectsToRemove = pathObjects.stream().filter(p -> !p.isAnnotation()).collect(Collectors.toSet());
-                            imageData.getHierarchy().removeObjects(pathObjectsToRemove, true);
-
-                            return imageData;
-                        } else {
-                            logger.debug("{} has no available image data. Creating one", entry);
-                            return entry.readImageData();
-                        }
-                    } catch (IOException e) {
-                        logger.error("Unable to read ImageData for {}. Cannot add it to the image list", entry, e);
-                        return null;
-                    }
-                })
-                .filter(Objects::nonNull)
-                .filter(imageData -> {
-                    try {
-                        return imageData.getServer() != null;
-                    } catch (Exception e) {
-                        logger.debug("Cannot create server of {}. Skipping it", imageData, e);
-                        return false;
+        for (ProjectImageEntry<BufferedImage> entry: imagesSelector.getSelectedImages()) {
+            if (imagesLoading.containsKey(entry) || images.getItems().stream().map(ImageHandle::getEntry).anyMatch(entry::equals)) {
+                continue;
+            }
+
+            // Servers are opened in the background and images are added to the list as soon as they are ready
+            FutureTask<ImageHandle> imageLoading = new FutureTask<>(() -> openImage(entry)) {
+                @Override
+                protected void set(ImageHandle image) {
+                    super.set(image);
+
+                    // The image was opened after the loading was cancelled, so nobody will use it
+                    if (isCancelled() && image != null) {
+                        image.close();
                     }
-                })
-                .toList()
-        );
-        logger.debug("List of image entries updated to {}", images.getItems());
+                }
+
+                @Override
+                protected void done() {
+                    Platform.runLater(() -> onImageLoaded(entry, this));
+                }
+            };
+            imagesLoading.put(entry, imageLoading);
+            numberOfImagesToLoad++;
+            imageLoadingExecutor.execute(imageLoading);
+        }
+        updateImagesLoadingProgress();
     }
 
     @FXML
@@ -378,100 +568,295 @@ public class AlignWindow extends Stage {
 
     @FXML
     private void onEstimateTransformClicked(ActionEvent ignored) {
-        AffineImageTransform affineImageTransform = selectedImageTransform.get();
-        if (affineImageTransform == null) {
-            logger.error("No current image transform. Cannot estimate transform");
+        AlignmentInputs alignmentInputs = getAlignmentInputs();
+        if (alignmentInputs == null) {
+            return;
+        }
+        AutoAligner.EccOptions eccOptions = getEccOptions();
+        if (eccOptions == null) {
+            return;
+        }
+        ImageData<BufferedImage> imageDataToAlign = getImageData(alignmentInputs.imageToAlign());
+        if (imageDataToAlign == null) {
             return;
         }
 
-        double pixelSizeMicrons;
         try {
-            pixelSizeMicrons = Double.parseDouble(pixelSize.getText());
-        } catch (NumberFormatException e) {
-            logger.error("Cannot parse pixel size {} to a double", pixelSize.getText(), e);
-
+            alignmentInputs.affineImageTransform().alignTransform(
+                    alignmentInputs.baseImageData(),
+                    imageDataToAlign,
+                    alignmentType.getValue(),
+                    transformationTypes.getValue(),
+                    alignmentInputs.downsample(),
+                    eccOptions
+            );
+        } catch (Exception e) {
             Dialogs.showErrorMessage(
                     resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
                     MessageFormat.format(
-                            resources.getString("ImageOverlayAlignmentWindow.pixelSizeCannotBeConvertedToNumber"),
-                            pixelSize.getText()
+                            resources.getString("ImageOverlayAlignmentWindow.errorDuringAutoAlign"),
+                            e.getLocalizedMessage()
                     )
             );
+            logger.error("Error when auto aligning {} to {}", imageDataToAlign, alignmentInputs.baseImageData(), e);
+            return;
+        } catch (Error e) {
+            showAutoAlignmentUnavailable(e, imageDataToAlign, alignmentInputs.baseImageData());
             return;
         }
 
-        ImageData<BufferedImage> baseImageData = quPath.getViewer() == null ? null : quPath.getViewer().getImageData();
-        if (baseImageData == null) {
-            Dialogs.showErrorMessage(
-                    resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
-                    resources.getString("ImageOverlayAlignmentWindow.noImageAvailable")
-            );
+        Dialogs.showInfoNotification(
+                resources.getString("ImageOverlayAlignmentWindow.autoAlignment"),
+                resources.getString("ImageOverlayAlignmentWindow.autoAlignmentCompleted")
+        );
+    }
+
+    @FXML
+    private void onEstimateLocalTransformClicked(ActionEvent ignored) {
+        AlignmentInputs alignmentInputs = getAlignmentInputs();
+        if (alignmentInputs == null) {
             return;
         }
-        ImageData<BufferedImage> imageDataToAlign = images.getSelectionModel().selectedItemProperty().get();
-        if (imageDataToAlign == null) {
+        AutoAligner.EccOptions eccOptions = getEccOptions();
+        if (eccOptions == null) {
+            return;
+        }
+
+        double tileSizeMicrons;
+        try {
+            tileSizeMicrons = Double.parseDouble(localTileSize.getText());
+        } catch (NumberFormatException e) {
+            logger.error("Cannot parse local tile size {} to a double", localTileSize.getText(), e);
+
             Dialogs.showErrorMessage(
                     resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
-                    resources.getString("ImageOverlayAlignmentWindow.noOverlaySelected")
+                    MessageFormat.format(
+                            resources.getString("ImageOverlayAlignmentWindow.localTileSizeCannotBeConvertedToNumber"),
+                            localTileSize.getText()
+                    )
             );
             return;
         }
-        if (baseImageData.equals(imageDataToAlign)) {
+        if (!alignmentInputs.baseImageData().getServerMetadata().getPixelCalibration().hasPixelSizeMicrons()) {
             Dialogs.showErrorMessage(
                     resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
-                    resources.getString("ImageOverlayAlignmentWindow.selectImageOverlay")
+                    resources.getString("ImageOverlayAlignmentWindow.setPixelSize")
             );
             return;
         }
+        double tileSize = tileSizeMicrons / alignmentInputs.baseImageData().getServerMetadata().getPixelCalibration().getAveragedPixelSizeMicrons();
+        AutoAligner.TransformationTypes transformationType = transformationTypes.getValue();
+
+        runAlignment(
+                alignmentInputs,
+                resources.getString("ImageOverlayAlignmentWindow.estimateLocalTransform"),
+                (imageDataToAlign, initialTransform) -> AutoAligner.getLocalAlignTransformation(
+                        alignmentInputs.baseImageData(),
+                        imageDataToAlign,
+                        initialTransform,
+                        transformationType,
+                        alignmentInputs.downsample(),
+                        tileSize,
+                        eccOptions
+                ),
+                localTransform -> alignmentInputs.affineImageTransform().setLocalTransform(localTransform),
+                resources.getString("ImageOverlayAlignmentWindow.localAlignmentCompleted")
+        );
+    }
 
-        double downsample;
-        if (pixelSizeMicrons > 0) {
-            if (baseImageData.getServerMetadata().getPixelCalibration().hasPixelSizeMicrons()) {
-                downsample = pixelSizeMicrons / baseImageData.getServerMetadata().getPixelCalibration().getAveragedPixelSizeMicrons();
-            } else {
-                Dialogs.showErrorMessage(
-                        resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
-                        resources.getString("ImageOverlayAlignmentWindow.setPixelSize")
-                );
-                return;
-            }
-        } else {
-            downsample = 1;
+    @FXML
+    private void onEstimatePlaneTransformsClicked(ActionEvent ignored) {
+        AlignmentInputs alignmentInputs = getAlignmentInputs();
+        if (alignmentInputs == null) {
+            return;
+        }
+        AutoAligner.EccOptions eccOptions = getEccOptions();
+        if (eccOptions == null) {
+            return;
         }
 
+        // The image data of the image to align was read when it was added to the list, so its server is already open
+        ImageServer<BufferedImage> baseServer = alignmentInputs.baseImageData().getServer();
+        ImageServer<BufferedImage> serverToAlign;
         try {
-            affineImageTransform.alignTransform(
-                    baseImageData,
-                    imageDataToAlign,
-                    alignmentType.getValue(),
-                    transformationTypes.getValue(),
-                    downsample
-            );
-        } catch (Exception e) {
+            serverToAlign = alignmentInputs.imageToAlign().getImageData().getServer();
+        } catch (IOException e) {
+            logger.error("Cannot read image data of {}", alignmentInputs.imageToAlign(), e);
+
             Dialogs.showErrorMessage(
                     resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
                     MessageFormat.format(
-                            resources.getString("ImageOverlayAlignmentWindow.errorDuringAutoAlign"),
-                            e.getLocalizedMessage()
+                            resources.getString("ImageOverlayAlignmentWindow.cannotReadImageData"),
+                            alignmentInputs.imageToAlign().getEntry().getImageName()
                     )
             );
-            logger.error("Error when auto aligning {} to {}", imageDataToAlign, baseImageData, e);
             return;
-        } catch (Error e) {     //TODO: to remove when https://github.com/qupath/qupath-extension-align/issues/15 is fixed
+        }
+        // Time series are aligned along time to track drift, other images along z
+        AutoAligner.PlaneAxis planeAxis = Math.min(baseServer.nTimepoints(), serverToAlign.nTimepoints()) > 1 ?
+                AutoAligner.PlaneAxis.T :
+                AutoAligner.PlaneAxis.Z;
+        if (planeAxis == AutoAligner.PlaneAxis.Z && Math.min(baseServer.nZSlices(), serverToAlign.nZSlices()) < 2) {
             Dialogs.showErrorMessage(
                     resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
-                    "Auto-alignment is not currently available on this platform. Please see the log for more details."
+                    resources.getString("ImageOverlayAlignmentWindow.singlePlaneImages")
             );
-            logger.error("Error when auto aligning {} to {}. Please see https://github.com/qupath/qupath-extension-align/issues/15 for more information", imageDataToAlign, baseImageData, e);
             return;
         }
 
-        Dialogs.showInfoNotification(
-                resources.getString("ImageOverlayAlignmentWindow.autoAlignment"),
-                resources.getString("ImageOverlayAlignmentWindow.autoAlignmentCompleted")
+        AutoAligner.TransformationTypes transformationType = transformationTypes.getValue();
+
+        runAlignment(
+                alignmentInputs,
+                resources.getString("ImageOverlayAlignmentWindow.estimatePlaneTransforms"),
+                (imageDataToAlign, initialTransform) -> AutoAligner.getPlaneAlignTransformations(
+                        alignmentInputs.baseImageData(),
+                        imageDataToAlign,
+                        initialTransform,
+                        transformationType,
+                        alignmentInputs.downsample(),
+                        eccOptions,
+                        planeAxis
+                ),
+                planeTransforms -> alignmentInputs.affineImageTransform().setPlaneTransforms(planeTransforms),
+                resources.getString("ImageOverlayAlignmentWindow.planeAlignmentCompleted")
         );
     }
 
+    @FXML
+    private void onRegisterAllRoundsClicked(ActionEvent ignored) {
+        QuPathViewer viewer = quPath.getViewer();
+        ImageData<BufferedImage> referenceImageData = viewer == null ? null : viewer.getImageData();
+        if (referenceImageData == null) {
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
+                    resources.getString("ImageOverlayAlignmentWindow.noImageAvailable")
+            );
+            return;
+        }
+        List<ImageHandle> roundImages = images.getItems().stream()
+                .filter(image -> !isImageOf(image, referenceImageData))
+                .toList();
+        List<AffineImageTransform> roundTransforms = roundImages.stream()
+                .map(image -> getImageTransform(image, viewer))
+                .toList();
+        if (roundImages.isEmpty() || roundTransforms.contains(null)) {
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
+                    resources.getString("ImageOverlayAlignmentWindow.noRoundToRegister")
+            );
+            return;
+        }
+        Double downsample = getDownsample(referenceImageData);
+        if (downsample == null) {
+            return;
+        }
+        AutoAligner.EccOptions eccOptions = getEccOptions();
+        if (eccOptions == null) {
+            return;
+        }
+        // Images already opened in a viewer are retrieved here, as viewers must be accessed from the JavaFX Application Thread
+        Project<BufferedImage> project = quPath.getProject();
+        List<ImageData<BufferedImage>> roundImageDataOfViewers = roundImages.stream()
+                .map(image -> project == null ? null : getImageDataOfViewer(project, image.getEntry()))
+                .toList();
+        List<AffineTransform> initialTransforms = roundTransforms.stream()
+                .map(affineImageTransform -> new AffineTransform(affineImageTransform.getTransform().getValue()))
+                .toList();
+        AutoAligner.TransformationTypes transformationType = transformationTypes.getValue();
+
+        Task<List<AffineTransform>> registration = new Task<>() {
+            @Override
+            protected List<AffineTransform> call() throws Exception {
+                // Images are retained until the registration is done, so that their servers are not closed if they
+                // are removed from the list meanwhile
+                List<ImageHandle> retainedImages = new ArrayList<>(roundImages.size());
+                try {
+                    List<ImageData<BufferedImage>> roundImageData = new ArrayList<>(roundImages.size());
+                    for (int i=0; i<roundImages.size(); i++) {
+                        if (isCancelled()) {
+                            return null;
+                        }
+                        updateMessage(MessageFormat.format(
+                                resources.getString("ImageOverlayAlignmentWindow.readingImage"),
+                                roundImages.get(i).getEntry().getImageName()
+                        ));
+                        updateProgress(i, roundImages.size() + 1);
+
+                        retainImage(roundImages.get(i));
+                        retainedImages.add(roundImages.get(i));
+                        ImageData<BufferedImage> imageData = roundImageDataOfViewers.get(i);
+                        roundImageData.add(imageData == null ? roundImages.get(i).readImageData() : imageData);
+                    }
+
+                    updateMessage(resources.getString("ImageOverlayAlignmentWindow.registeringRounds"));
+                    updateProgress(roundImages.size(), roundImages.size() + 1);
+                    return AutoAligner.getMultiRoundAlignTransformations(
+                            referenceImageData,
+                            roundImageData,
+                            initialTransforms,
+                            transformationType,
+                            downsample,
+                            eccOptions
+                    );
+                } finally {
+                    retainedImages.forEach(ImageHandle::release);
+                }
+            }
+        };
+        registration.setOnSucceeded(event -> {
+            List<AffineTransform> transforms = registration.getValue();
+            if (transforms == null) {
+                return;
+            }
+
+            for (int i=0; i<transforms.size(); i++) {
+                double[] values = new double[6];
+                transforms.get(i).getMatrix(values);
+                roundTransforms.get(i).setTransform(values[0], values[1], values[2], values[3], values[4], values[5]);
+            }
+            saveRoundTransforms(referenceImageData, roundImages, transforms);
+
+            Dialogs.showInfoNotification(
+                    resources.getString("ImageOverlayAlignmentWindow.autoAlignment"),
+                    MessageFormat.format(
+                            resources.getString("ImageOverlayAlignmentWindow.roundsRegistered"),
+                            transforms.size()
+                    )
+            );
+        });
+        registration.setOnFailed(event -> {
+            Throwable e = registration.getException();
+
+            if (e instanceof Error error) {
+                showAutoAlignmentUnavailable(error, roundImages, referenceImageData);
+            } else {
+                Dialogs.showErrorMessage(
+                        resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
+                        MessageFormat.format(
+                                resources.getString("ImageOverlayAlignmentWindow.errorDuringAutoAlign"),
+                                e.getLocalizedMessage()
+                        )
+                );
+                logger.error("Error when aligning {} to {}", roundImages, referenceImageData, e);
+            }
+        });
+        registration.setOnCancelled(event -> logger.debug("Registration of {} to {} cancelled", roundImages, referenceImageData));
+
+        ProgressDialog progressDialog = new ProgressDialog(registration);
+        progressDialog.initOwner(this);
+        progressDialog.setTitle(resources.getString("ImageOverlayAlignmentWindow.autoAlignment"));
+        progressDialog.setHeaderText(resources.getString("ImageOverlayAlignmentWindow.registerAllRounds"));
+        progressDialog.getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
+        progressDialog.getDialogPane().lookupButton(ButtonType.CANCEL).addEventFilter(ActionEvent.ACTION, event -> {
+            registration.cancel(true);
+            event.consume();
+        });
+
+        logger.debug("Registering {} to {} in the background", roundImages, referenceImageData);
+        ThreadTools.createThreadFactory("align-round-registration-", true).newThread(registration).start();
+    }
+
     @FXML
     private void onUpdateClicked(ActionEvent ignored) {
         AffineImageTransform affineImageTransform = selectedImageTransform.get();
@@ -580,23 +965,23 @@ public class AlignWindow extends Stage {
             );
             return;
         }
-        ImageData<BufferedImage> selectedImageData = images.getSelectionModel().selectedItemProperty().get();
-        if (selectedImageData == null) {
+        ImageHandle selectedImage = images.getSelectionModel().selectedItemProperty().get();
+        if (selectedImage == null) {
             Dialogs.showErrorMessage(
                     resources.getString("ImageOverlayAlignmentWindow.propagateAnnotations"),
                     resources.getString("ImageOverlayAlignmentWindow.ensureImageOverlaySelected")
             );
             return;
         }
-        if (baseImageData.equals(selectedImageData)) {
+        if (isImageOf(selectedImage, baseImageData)) {
             Dialogs.showErrorMessage(
                     resources.getString("ImageOverlayAlignmentWindow.propagateAnnotations"),
                     resources.getString("ImageOverlayAlignmentWindow.selectImageOverlay")
             );
             return;
         }
-        ProjectImageEntry<BufferedImage> imageEntrySelected = project.getEntry(selectedImageData);
-        if (imageEntrySelected == null) {
+        ProjectImageEntry<BufferedImage> imageEntrySelected = selectedImage.getEntry();
+        if (!project.getImageList().contains(imageEntrySelected)) {
             Dialogs.showErrorMessage(
                     resources.getString("ImageOverlayAlignmentWindow.propagateAnnotations"),
                     resources.getString("ImageOverlayAlignmentWindow.selectedImageNotPartOfCurrentProject")
@@ -604,30 +989,27 @@ public class AlignWindow extends Stage {
             return;
         }
 
-        logger.debug("Transforming with {} and copying annotations of {} to {}", affineImageTransform, baseImageData, selectedImageData);
-        List<PathObject> transformedAnnotations = baseImageData.getHierarchy().getAnnotationObjects().stream()
-                .map(annotation -> {
-                    PathObject newAnnotation = PathObjects.createAnnotationObject(
-                            affineImageTransform.transformROI(annotation.getROI()),
-                            annotation.getPathClass(),
-                            annotation.getMeasurementList()
-                    );
-                    newAnnotation.setName(annotation.getName());
-                    return newAnnotation;
-                })
-                .toList();
-        selectedImageData.getHierarchy().addObjects(transformedAnnotations);
-        logger.debug("{} added to {}", transformedAnnotations, selectedImageData);
-
+        // The complete image data of the entry (or the one of a viewer if the image is opened) is only read now, so
+        // that annotations are saved without losing other objects
+        ImageData<BufferedImage> imageDataToSave = getImageDataOfViewer(project, imageEntrySelected);
         try {
-            imageEntrySelected.saveImageData(selectedImageData);
+            if (imageDataToSave == null) {
+                imageDataToSave = imageEntrySelected.readImageData();
+            }
+
+            logger.debug("Transforming with {} and copying annotations of {} to {}", affineImageTransform, baseImageData, imageDataToSave);
+            List<PathObject> transformedAnnotations = transformAnnotations(baseImageData, affineImageTransform);
+            imageDataToSave.getHierarchy().addObjects(transformedAnnotations);
+            logger.debug("{} added to {}", transformedAnnotations, imageDataToSave);
+
+            imageEntrySelected.saveImageData(imageDataToSave);
 
             Dialogs.showInfoNotification(
                     resources.getString("ImageOverlayAlignmentWindow.propagateAnnotations"),
                     resources.getString("ImageOverlayAlignmentWindow.annotationsTransformedAndCopied")
             );
         } catch (IOException e) {
-            logger.error("Cannot save image data {}. Annotations not propagated", selectedImageData, e);
+            logger.error("Cannot save image data {}. Annotations not propagated", imageDataToSave, e);
 
             Dialogs.showErrorMessage(
                     resources.getString("ImageOverlayAlignmentWindow.propagateAnnotations"),
@@ -636,51 +1018,733 @@ public class AlignWindow extends Stage {
         }
     }
 
-    private ObservableList<ImageDataViewer> createImageDataViewerList() {
-        ObservableList<ImageDataViewer> imageDataViewers = FXCollections.observableArrayList();
-
-        for (ImageData<BufferedImage> imageData: images.getItems()) {
-            for (QuPathViewer viewer: quPath.getAllViewers()) {
-                imageDataViewers.add(new ImageDataViewer(imageData, viewer));
-            }
+    @FXML
+    private void onAddToProjectClicked(ActionEvent ignored) {
+        Project<BufferedImage> project = quPath.getProject();
+        if (project == null) {
+            logger.error("No current QuPath project. Cannot add transformed image to project");
+            return;
+        }
+        AffineImageTransform affineImageTransform = selectedImageTransform.get();
+        if (affineImageTransform == null) {
+            logger.error("No current image transform. Cannot add transformed image to project");
+            return;
         }
 
-        images.getItems().addListener((ListChangeListener<? super ImageData<BufferedImage>>) change -> {
-            while (change.next()) {
-                if (change.wasAdded()) {
-                    for (ImageData<BufferedImage> imageData: change.getAddedSubList()) {
-                        for (QuPathViewer viewer: quPath.getAllViewers()) {
-                            imageDataViewers.add(new ImageDataViewer(imageData, viewer));
-                        }
-                    }
-                }
-                if (change.wasRemoved()) {
-                    for (ImageData<BufferedImage> imageData: change.getRemoved()) {
-                        imageDataViewers.removeIf(imageDataViewer -> imageData.equals(imageDataViewer.imageData()));
-                    }
-                }
-            }
-            change.reset();
-        });
-        quPath.getAllViewers().addListener((ListChangeListener<? super QuPathViewer>) change -> {
-            while (change.next()) {
-                if (change.wasAdded()) {
-                    for (QuPathViewer viewer: change.getAddedSubList()) {
-                        for (ImageData<BufferedImage> imageData: images.getItems()) {
-                            imageDataViewers.add(new ImageDataViewer(imageData, viewer));
-                        }
-                    }
-                }
-                if (change.wasRemoved()) {
-                    for (QuPathViewer viewer: change.getRemoved()) {
-                        imageDataViewers.removeIf(imageDataViewer -> imageDataViewer.viewer().equals(viewer));
+        ImageData<BufferedImage> baseImageData = quPath.getViewer() == null ? null : quPath.getViewer().getImageData();
+        if (baseImageData == null) {
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.addToProject"),
+                    resources.getString("ImageOverlayAlignmentWindow.noImageAvailable")
+            );
+            return;
+        }
+        ImageHandle selectedImage = images.getSelectionModel().selectedItemProperty().get();
+        if (selectedImage == null) {
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.addToProject"),
+                    resources.getString("ImageOverlayAlignmentWindow.ensureImageOverlaySelected")
+            );
+            return;
+        }
+        if (isImageOf(selectedImage, baseImageData)) {
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.addToProject"),
+                    resources.getString("ImageOverlayAlignmentWindow.selectImageOverlay")
+            );
+            return;
+        }
+
+        ImageServerBuilder.ServerBuilder<BufferedImage> builder;
+        try {
+            builder = affineImageTransform.createTransformedServerBuilder();
+        } catch (IllegalStateException e) {
+            logger.error("Cannot create builder of transformed {}", selectedImage, e);
+
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.addToProject"),
+                    resources.getString("ImageOverlayAlignmentWindow.imageCannotBeAddedToProject")
+            );
+            return;
+        }
+
+        addImageToProject(
+                project,
+                builder,
+                MessageFormat.format(
+                        resources.getString("ImageOverlayAlignmentWindow.transformedImageName"),
+                        selectedImage.getEntry().getImageName(),
+                        ServerTools.getDisplayableImageName(baseImageData.getServer())
+                ),
+                baseImageData.getImageType(),
+                resources.getString("ImageOverlayAlignmentWindow.addToProject")
+        );
+    }
+
+    @FXML
+    private void onAddFusedToProjectClicked(ActionEvent ignored) {
+        Project<BufferedImage> project = quPath.getProject();
+        if (project == null) {
+            logger.error("No current QuPath project. Cannot add fused image to project");
+            return;
+        }
+
+        ImageData<BufferedImage> baseImageData = quPath.getViewer() == null ? null : quPath.getViewer().getImageData();
+        if (baseImageData == null) {
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.addFusedToProject"),
+                    resources.getString("ImageOverlayAlignmentWindow.noImageAvailable")
+            );
+            return;
+        }
+        List<ImageHandle> imagesToFuse = images.getCheckModel().getCheckedItems().stream()
+                .filter(image -> !isImageOf(image, baseImageData))
+                .toList();
+        if (imagesToFuse.isEmpty()) {
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.addFusedToProject"),
+                    resources.getString("ImageOverlayAlignmentWindow.checkImagesToFuse")
+            );
+            return;
+        }
+
+        // The base image comes first, followed by the checked images warped on top of it in the order of the list
+        List<ImageServerBuilder.ServerBuilder<BufferedImage>> builders = new ArrayList<>();
+        try {
+            ImageServerBuilder.ServerBuilder<BufferedImage> baseBuilder = baseImageData.getServer().getBuilder();
+            if (baseBuilder == null) {
+                throw new IllegalStateException(String.format("%s has no server builder", baseImageData));
+            }
+            builders.add(baseBuilder);
+
+            for (ImageHandle image: imagesToFuse) {
+                AffineImageTransform affineImageTransform = getImageTransform(image, quPath.getViewer());
+                if (affineImageTransform == null) {
+                    throw new IllegalStateException(String.format("No transform of %s available", image));
+                }
+
+                builders.add(affineImageTransform.createTransformedServerBuilder());
+            }
+        } catch (IllegalStateException e) {
+            logger.error("Cannot create builder of {} fused with {}", baseImageData, imagesToFuse, e);
+
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.addFusedToProject"),
+                    resources.getString("ImageOverlayAlignmentWindow.imageCannotBeAddedToProject")
+            );
+            return;
+        }
+
+        addImageToProject(
+                project,
+                new FusedImageServer.Builder(builders),
+                MessageFormat.format(
+                        resources.getString("ImageOverlayAlignmentWindow.fusedImageName"),
+                        ServerTools.getDisplayableImageName(baseImageData.getServer())
+                ),
+                baseImageData.getImageType(),
+                resources.getString("ImageOverlayAlignmentWindow.addFusedToProject")
+        );
+    }
+
+    private void addImageToProject(
+            Project<BufferedImage> project,
+            ImageServerBuilder.ServerBuilder<BufferedImage> builder,
+            String imageName,
+            ImageData.ImageType imageType,
+            String title
+    ) {
+        // Building the server and computing its thumbnail read pixels of all combined images, so it is done in the background
+        Task<ProjectImageEntry<BufferedImage>> adding = new Task<>() {
+            @Override
+            protected ProjectImageEntry<BufferedImage> call() throws Exception {
+                updateMessage(MessageFormat.format(resources.getString("ImageOverlayAlignmentWindow.addingImageToProject"), imageName));
+
+                try (ImageServer<BufferedImage> server = builder.build()) {
+                    BufferedImage thumbnail = ProjectCommands.getThumbnailRGB(server);
+
+                    ProjectImageEntry<BufferedImage> entry = project.addImage(builder);
+                    entry.setImageName(imageName);
+                    entry.setThumbnail(thumbnail);
+                    entry.saveImageData(new ImageData<>(server, imageType));
+                    return entry;
+                }
+            }
+        };
+        adding.setOnSucceeded(event -> {
+            try {
+                project.syncChanges();
+            } catch (IOException e) {
+                logger.error("Cannot save {} after adding {}", project, adding.getValue(), e);
+            }
+            quPath.refreshProject();
+
+            Dialogs.showInfoNotification(
+                    title,
+                    MessageFormat.format(resources.getString("ImageOverlayAlignmentWindow.imageAddedToProject"), imageName)
+            );
+        });
+        adding.setOnFailed(event -> {
+            logger.error("Cannot add {} to {}", imageName, project, adding.getException());
+
+            Dialogs.showErrorMessage(
+                    title,
+                    resources.getString("ImageOverlayAlignmentWindow.imageCannotBeAddedToProject")
+            );
+        });
+
+        ProgressDialog progressDialog = new ProgressDialog(adding);
+        progressDialog.initOwner(this);
+        progressDialog.setTitle(title);
+        progressDialog.setHeaderText(imageName);
+
+        logger.debug("Adding {} created from {} to {} in the background", imageName, builder, project);
+        ThreadTools.createThreadFactory("align-project-", true).newThread(adding).start();
+    }
+
+    private AlignmentInputs getAlignmentInputs() {
+        AffineImageTransform affineImageTransform = selectedImageTransform.get();
+        if (affineImageTransform == null) {
+            logger.error("No current image transform. Cannot get alignment inputs");
+            return null;
+        }
+
+        ImageData<BufferedImage> baseImageData = quPath.getViewer() == null ? null : quPath.getViewer().getImageData();
+        if (baseImageData == null) {
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
+                    resources.getString("ImageOverlayAlignmentWindow.noImageAvailable")
+            );
+            return null;
+        }
+        ImageHandle imageToAlign = images.getSelectionModel().selectedItemProperty().get();
+        if (imageToAlign == null) {
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
+                    resources.getString("ImageOverlayAlignmentWindow.noOverlaySelected")
+            );
+            return null;
+        }
+        if (isImageOf(imageToAlign, baseImageData)) {
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
+                    resources.getString("ImageOverlayAlignmentWindow.selectImageOverlay")
+            );
+            return null;
+        }
+
+        Double downsample = getDownsample(baseImageData);
+        if (downsample == null) {
+            return null;
+        }
+
+        // Viewers must be accessed from the JavaFX Application Thread, so the image data of a viewer is retrieved here
+        Project<BufferedImage> project = quPath.getProject();
+        ImageData<BufferedImage> imageDataOfViewer = project == null ? null : getImageDataOfViewer(project, imageToAlign.getEntry());
+
+        return new AlignmentInputs(affineImageTransform, baseImageData, imageToAlign, imageDataOfViewer, downsample);
+    }
+
+    private Double getDownsample(ImageData<BufferedImage> baseImageData) {
+        double pixelSizeMicrons;
+        try {
+            pixelSizeMicrons = Double.parseDouble(pixelSize.getText());
+        } catch (NumberFormatException e) {
+            logger.error("Cannot parse pixel size {} to a double", pixelSize.getText(), e);
+
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
+                    MessageFormat.format(
+                            resources.getString("ImageOverlayAlignmentWindow.pixelSizeCannotBeConvertedToNumber"),
+                            pixelSize.getText()
+                    )
+            );
+            return null;
+        }
+
+        if (pixelSizeMicrons > 0) {
+            if (baseImageData.getServerMetadata().getPixelCalibration().hasPixelSizeMicrons()) {
+                return pixelSizeMicrons / baseImageData.getServerMetadata().getPixelCalibration().getAveragedPixelSizeMicrons();
+            } else {
+                Dialogs.showErrorMessage(
+                        resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
+                        resources.getString("ImageOverlayAlignmentWindow.setPixelSize")
+                );
+                return null;
+            }
+        } else {
+            return 1.0;
+        }
+    }
+
+    private AutoAligner.EccOptions getEccOptions() {
+        try {
+            AutoAligner.ChannelSelection channelSelection = alignmentChannel.getText().isBlank() ?
+                    AutoAligner.ChannelSelection.ALL_CHANNELS :
+                    AutoAligner.ChannelSelection.of(Integer.parseInt(alignmentChannel.getText()));
+
+            return new AutoAligner.EccOptions(
+                    preprocessingStages.getCheckModel().getCheckedItems().stream()
+                            .sorted()       // stages are applied in the order of the enumeration, whatever the order they were checked in
+                            .toList(),
+                    Integer.parseInt(gaussianFilterSize.getText()),
+                    Integer.parseInt(numberOfThreads.getText()),
+                    channelSelection,
+                    channelSelection
+            );
+        } catch (IllegalArgumentException e) {      // this includes NumberFormatException
+            logger.error(
+                    "Cannot create ECC options from {}, {}, and {}",
+                    gaussianFilterSize.getText(),
+                    numberOfThreads.getText(),
+                    alignmentChannel.getText(),
+                    e
+            );
+
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
+                    MessageFormat.format(
+                            resources.getString("ImageOverlayAlignmentWindow.invalidEccOptions"),
+                            e.getLocalizedMessage()
+                    )
+            );
+            return null;
+        }
+    }
+
+    private void saveRoundTransforms(
+            ImageData<BufferedImage> referenceImageData,
+            List<ImageHandle> roundImages,
+            List<AffineTransform> transforms
+    ) {
+        Project<BufferedImage> project = quPath.getProject();
+        ProjectImageEntry<BufferedImage> referenceEntry = project == null ? null : project.getEntry(referenceImageData);
+        if (referenceEntry == null) {
+            logger.debug("{} is not part of the current project. Round transforms not saved", referenceImageData);
+            return;
+        }
+
+        // Transforms are stored in the metadata of each entry, with the key "align.transform.<ID of the reference entry>"
+        // and the value "m00, m01, m02, m10, m11, m12" (mapping the reference image to the entry). They are restored
+        // when a transform of the entry is created on the reference image (see restoreRoundTransform())
+        for (int i=0; i<roundImages.size(); i++) {
+            ProjectImageEntry<BufferedImage> entry = roundImages.get(i).getEntry();
+            if (!project.getImageList().contains(entry)) {
+                logger.debug("{} is not part of the current project. Its round transform is not saved", entry);
+                continue;
+            }
+
+            double[] values = new double[6];
+            transforms.get(i).getMatrix(values);
+            entry.getMetadata().put(
+                    ROUND_TRANSFORM_METADATA_KEY_PREFIX + referenceEntry.getID(),
+                    String.format("%s, %s, %s, %s, %s, %s", values[0], values[2], values[4], values[1], values[3], values[5])
+            );
+        }
+
+        try {
+            project.syncChanges();
+        } catch (IOException e) {
+            logger.error("Cannot save round transforms to {}", project, e);
+
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
+                    resources.getString("ImageOverlayAlignmentWindow.cannotSaveRoundTransforms")
+            );
+        }
+    }
+
+    private <T> void runAlignment(
+            AlignmentInputs alignmentInputs,
+            String title,
+            AlignmentJob<T> job,
+            Consumer<T> onAligned,
+            String completedMessage
+    ) {
+        AffineTransform initialTransform = new AffineTransform(alignmentInputs.affineImageTransform().getTransform().getValue());
+
+        Task<T> alignment = new Task<>() {
+            @Override
+            protected T call() throws Exception {
+                updateMessage(MessageFormat.format(
+                        resources.getString("ImageOverlayAlignmentWindow.readingImage"),
+                        alignmentInputs.imageToAlign().getEntry().getImageName()
+                ));
+
+                // The image is retained until the alignment is done, so that its server is not closed if it is
+                // removed from the list meanwhile
+                retainImage(alignmentInputs.imageToAlign());
+                try {
+                    ImageData<BufferedImage> imageDataToAlign = alignmentInputs.readImageDataToAlign();
+                    if (isCancelled()) {
+                        return null;
                     }
+
+                    updateMessage(resources.getString("ImageOverlayAlignmentWindow.estimatingTransform"));
+                    return job.align(imageDataToAlign, initialTransform);
+                } finally {
+                    alignmentInputs.imageToAlign().release();
                 }
             }
-            change.reset();
+        };
+        alignment.setOnSucceeded(event -> {
+            T result = alignment.getValue();
+            if (result == null) {
+                return;
+            }
+            // The result was estimated from the initial transform, so it is not valid anymore if the transform changed
+            if (!initialTransform.equals(alignmentInputs.affineImageTransform().getTransform().getValue())) {
+                logger.warn(
+                        "Transform of {} changed from {} during alignment. Discarding the result",
+                        alignmentInputs.imageToAlign(),
+                        initialTransform
+                );
+                return;
+            }
+
+            onAligned.accept(result);
+            Dialogs.showInfoNotification(resources.getString("ImageOverlayAlignmentWindow.autoAlignment"), completedMessage);
         });
+        alignment.setOnFailed(event -> {
+            Throwable e = alignment.getException();
 
-        return imageDataViewers;
+            if (e instanceof Error error) {
+                showAutoAlignmentUnavailable(error, alignmentInputs.imageToAlign(), alignmentInputs.baseImageData());
+            } else {
+                Dialogs.showErrorMessage(
+                        resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
+                        MessageFormat.format(
+                                resources.getString("ImageOverlayAlignmentWindow.errorDuringAutoAlign"),
+                                e.getLocalizedMessage()
+                        )
+                );
+                logger.error("Error when aligning {} to {}", alignmentInputs.imageToAlign(), alignmentInputs.baseImageData(), e);
+            }
+        });
+        alignment.setOnCancelled(event -> logger.debug(
+                "Alignment of {} to {} cancelled",
+                alignmentInputs.imageToAlign(),
+                alignmentInputs.baseImageData()
+        ));
+
+        ProgressDialog progressDialog = new ProgressDialog(alignment);
+        progressDialog.initOwner(this);
+        progressDialog.setTitle(resources.getString("ImageOverlayAlignmentWindow.autoAlignment"));
+        progressDialog.setHeaderText(title);
+        progressDialog.getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
+        progressDialog.getDialogPane().lookupButton(ButtonType.CANCEL).addEventFilter(ActionEvent.ACTION, event -> {
+            alignment.cancel(true);
+            event.consume();
+        });
+
+        logger.debug("Aligning {} to {} in the background", alignmentInputs.imageToAlign(), alignmentInputs.baseImageData());
+        ThreadTools.createThreadFactory("align-estimation-", true).newThread(alignment).start();
+    }
+
+    private static void retainImage(ImageHandle image) {
+        if (!image.retain()) {
+            throw new IllegalStateException(String.format("%s was removed from the list of images", image));
+        }
+    }
+
+    //TODO: to remove when https://github.com/qupath/qupath-extension-align/issues/15 is fixed
+    private void showAutoAlignmentUnavailable(Error error, Object imagesToAlign, Object baseImage) {
+        Dialogs.showErrorMessage(
+                resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
+                resources.getString("ImageOverlayAlignmentWindow.autoAlignmentUnavailable")
+        );
+        logger.error(
+                "Error when aligning {} to {}. Please see https://github.com/qupath/qupath-extension-align/issues/15 for more information",
+                imagesToAlign,
+                baseImage,
+                error
+        );
+    }
+
+    private AffineImageTransform getImageTransform(ImageHandle image, QuPathViewer viewer) {
+        if (image == null || viewer == null || viewer.getImageData() == null) {
+            return null;
+        }
+
+        // Viewers showing the same base image share the same transform
+        TransformKey key = new TransformKey(image, getBaseImage(viewer.getImageData()));
+        AffineImageTransform existingTransform = transforms.get(key);
+        ImageData<BufferedImage> imageDataOfExistingTransform = existingTransform == null ? null : existingTransform.getViewer().getImageData();
+        if (imageDataOfExistingTransform != null && getBaseImage(imageDataOfExistingTransform).equals(key.baseImage())) {
+            return existingTransform;
+        }
+
+        logger.debug("Creating transform of {} on {}", image, viewer);
+        AffineImageTransform affineImageTransform;
+        try {
+            affineImageTransform = new AffineImageTransform(image.getImageData(), viewer);
+        } catch (Exception e) {
+            logger.error("Error while reading image data of {}. Cannot create image transform", image, e);
+            return null;
+        }
+
+        // The viewer of the existing transform doesn't show the base image anymore, so its state is moved to a
+        // transform bound to the provided viewer
+        if (existingTransform != null) {
+            double[] values = new double[6];
+            existingTransform.getTransform().getValue().getMatrix(values);
+            affineImageTransform.setTransform(values[0], values[1], values[2], values[3], values[4], values[5]);
+            affineImageTransform.setLocalTransform(existingTransform.getLocalTransform().getValue());
+            affineImageTransform.setPlaneTransforms(existingTransform.getPlaneTransforms());
+        } else {
+            restoreRoundTransform(image, viewer.getImageData(), affineImageTransform);
+        }
+
+        transforms.put(key, affineImageTransform);
+        return affineImageTransform;
+    }
+
+    private void restoreRoundTransform(
+            ImageHandle image,
+            ImageData<BufferedImage> baseImageData,
+            AffineImageTransform affineImageTransform
+    ) {
+        Project<BufferedImage> project = quPath.getProject();
+        ProjectImageEntry<BufferedImage> baseEntry = project == null ? null : project.getEntry(baseImageData);
+        if (baseEntry == null) {
+            return;
+        }
+
+        String transform = image.getEntry().getMetadata().get(ROUND_TRANSFORM_METADATA_KEY_PREFIX + baseEntry.getID());
+        if (transform == null) {
+            return;
+        }
+
+        try {
+            double[] values = GeometryTools.parseTransformMatrix(transform).getMatrixEntries();
+            affineImageTransform.setTransform(values[0], values[3], values[1], values[4], values[2], values[5]);
+            logger.debug("Transform of {} on {} restored from {}", image, baseEntry, transform);
+        } catch (Exception e) {
+            logger.debug("Cannot parse round transform {} of {}. Not restoring it", transform, image, e);
+        }
+    }
+
+    private QuPathViewer getActiveViewer() {
+        return isShowing() ? quPath.getViewer() : null;
+    }
+
+    private void updateOverlays(QuPathViewer activeViewer) {
+        // The overlay is displayed on the active viewer, and also on all viewers showing the same image if viewers are linked.
+        // No overlay is displayed while the window is hidden, as the overlay pipeline is closed
+        Set<QuPathViewer> viewers = new HashSet<>();
+        if (activeViewer != null && overlayTileCache != null) {
+            viewers.add(activeViewer);
+
+            if (linkViewers.isSelected() && activeViewer.getImageData() != null) {
+                Object baseImage = getBaseImage(activeViewer.getImageData());
+
+                for (QuPathViewer viewer: quPath.getAllViewers()) {
+                    if (viewer.getImageData() != null && getBaseImage(viewer.getImageData()).equals(baseImage)) {
+                        viewers.add(viewer);
+                    }
+                }
+            }
+        }
+
+        // Other viewers are listened so that their overlay is added or removed when they open another image
+        for (QuPathViewer viewer: quPath.getAllViewers()) {
+            viewer.imageDataProperty().removeListener(viewerImageListener);
+            if (activeViewer != null && overlayTileCache != null && linkViewers.isSelected() && viewer != activeViewer) {
+                viewer.imageDataProperty().addListener(viewerImageListener);
+            }
+        }
+
+        overlays.entrySet().removeIf(entry -> {
+            if (viewers.contains(entry.getKey())) {
+                return false;
+            } else {
+                logger.debug("Closing overlay of {}", entry.getKey());
+                entry.getValue().close();
+                return true;
+            }
+        });
+        for (QuPathViewer viewer: viewers) {
+            overlays.computeIfAbsent(viewer, v -> {
+                logger.debug("Creating overlay of {}", v);
+
+                // Overlays share the same tile cache, so tiles rendered for a viewer are drawn by the other linked viewers
+                return new AlignOverlay(
+                        v,
+                        overlayLayers,
+                        overlayTileCache,
+                        overlayTileStore,
+                        imageTransformTranslater.interactingProperty(),
+                        displayMode.valueProperty()
+                );
+            });
+        }
+
+        if (overlays.isEmpty() && overlayTileCache != null) {
+            overlayTileCache.clear();
+        }
+    }
+
+    private void updateOverlayLayers() {
+        // Checked images are displayed in the order of the list, and the selected image is displayed on top of them
+        ImageHandle selectedImage = images.getSelectionModel().getSelectedItem();
+        List<ImageHandle> imagesToDisplay = new ArrayList<>(images.getItems().stream()
+                .filter(image -> !image.equals(selectedImage) && images.getCheckModel().isChecked(image))
+                .toList()
+        );
+        if (selectedImage != null) {
+            imagesToDisplay.add(selectedImage);
+        }
+
+        List<OverlayLayer> layers = new ArrayList<>(imagesToDisplay.size());
+        for (ImageHandle image: imagesToDisplay) {
+            AffineImageTransform affineImageTransform = getImageTransform(image, quPath.viewerProperty().get());
+
+            if (affineImageTransform != null) {
+                layers.add(new OverlayLayer(
+                        image,
+                        affineImageTransform,
+                        getOpacity(image),
+                        imageDisplayLoader.getImageDisplay(image),
+                        thumbnailCache.get().getIfPresent(image)
+                ));
+            }
+        }
+
+        if (!layers.equals(overlayLayers)) {
+            logger.debug("Overlay layers updated to {}", layers);
+
+            // The tile cache is shared by all overlays, so it is invalidated here even if no overlay currently exists
+            if (overlayTileCache != null) {
+                overlayTileCache.invalidate();
+            }
+            overlayLayers.setAll(layers);
+        }
+    }
+
+    private DoubleProperty getOpacity(ImageHandle image) {
+        return opacities.computeIfAbsent(image, i -> new SimpleDoubleProperty(DEFAULT_OPACITY));
+    }
+
+    private Object getBaseImage(ImageData<BufferedImage> imageData) {
+        // Images of the project are identified by their entry so that their transforms are kept when they are reopened
+        Project<BufferedImage> project = quPath.getProject();
+        ProjectImageEntry<BufferedImage> entry = project == null ? null : project.getEntry(imageData);
+        return entry == null ? imageData : entry;
+    }
+
+    private void removeUnusedImageTransforms() {
+        // Transforms of images that are not part of the project can't be retrieved once no viewer shows the image anymore
+        transforms.keySet().removeIf(key -> key.baseImage() instanceof ImageData<?> imageData &&
+                quPath.getAllViewers().stream().noneMatch(viewer -> viewer.getImageData() == imageData)
+        );
+    }
+
+    private static List<PathObject> transformAnnotations(ImageData<BufferedImage> imageData, AffineImageTransform affineImageTransform) {
+        return imageData.getHierarchy().getAnnotationObjects().stream()
+                .map(annotation -> {
+                    PathObject newAnnotation = PathObjects.createAnnotationObject(
+                            affineImageTransform.transformROI(annotation.getROI()),
+                            annotation.getPathClass(),
+                            annotation.getMeasurementList()
+                    );
+                    newAnnotation.setName(annotation.getName());
+                    return newAnnotation;
+                })
+                .toList();
+    }
+
+    private ImageData<BufferedImage> getImageDataOfViewer(Project<BufferedImage> project, ProjectImageEntry<BufferedImage> entry) {
+        for (QuPathViewer viewer : quPath.getAllViewers()) {
+            ImageData<BufferedImage> imageData = viewer.getImageData();
+
+            if (imageData != null && entry.equals(project.getEntry(imageData))) {
+                logger.debug("Found viewer {} that contain {}. Using its image data", viewer, entry);
+                return imageData;
+            }
+        }
+        return null;
+    }
+
+    private static ImageHandle openImage(ProjectImageEntry<BufferedImage> entry) {
+        logger.debug("Reading image data of {} to add it to the list of image entries", entry);
+
+        ImageHandle image = new ImageHandle(entry);
+        try {
+            image.getImageData();
+            return image;
+        } catch (Exception e) {
+            logger.debug("Cannot read image data of {}. Skipping it", entry, e);
+            return null;
+        }
+    }
+
+    private ImageData<BufferedImage> getImageData(ImageHandle image) {
+        Project<BufferedImage> project = quPath.getProject();
+        ImageData<BufferedImage> imageDataOfViewer = project == null ? null : getImageDataOfViewer(project, image.getEntry());
+        if (imageDataOfViewer != null) {
+            return imageDataOfViewer;
+        }
+
+        try {
+            return image.readImageData();
+        } catch (IOException e) {
+            logger.error("Cannot read image data of {}", image, e);
+
+            Dialogs.showErrorMessage(
+                    resources.getString("ImageOverlayAlignmentWindow.alignmentError"),
+                    MessageFormat.format(
+                            resources.getString("ImageOverlayAlignmentWindow.cannotReadImageData"),
+                            image.getEntry().getImageName()
+                    )
+            );
+            return null;
+        }
+    }
+
+    private boolean isImageOf(ImageHandle image, ImageData<BufferedImage> imageData) {
+        Project<BufferedImage> project = quPath.getProject();
+        return project != null && image.getEntry().equals(project.getEntry(imageData));
+    }
+
+    private void onImageLoaded(ProjectImageEntry<BufferedImage> entry, Future<ImageHandle> imageLoading) {
+        // The loading may have been cancelled or replaced by another one since it completed
+        if (imagesLoading.get(entry) != imageLoading) {
+            if (imageLoading.state() == Future.State.SUCCESS && imageLoading.resultNow() != null) {
+                imageLoading.resultNow().close();
+            }
+            return;
+        }
+        imagesLoading.remove(entry);
+
+        try {
+            ImageHandle image = imageLoading.get();
+            if (image != null) {
+                images.getItems().add(image);
+                logger.debug("{} loaded and added to the list of image entries", image);
+            }
+        } catch (InterruptedException | ExecutionException | CancellationException e) {
+            logger.debug("Loading of {} didn't complete. Not adding it to the list of image entries", entry, e);
+        }
+        updateImagesLoadingProgress();
+    }
+
+    private void updateImagesLoadingProgress() {
+        // Images are only added to the list once their image data is read, so the loading state is shown by a single
+        // progress bar below the list rather than by each cell
+        if (imagesLoading.isEmpty()) {
+            numberOfImagesToLoad = 0;
+            imagesLoadingPane.setVisible(false);
+            return;
+        }
+
+        int numberOfImagesLoaded = numberOfImagesToLoad - imagesLoading.size();
+        imagesLoadingProgress.setProgress((double) numberOfImagesLoaded / numberOfImagesToLoad);
+        imagesLoadingLabel.setText(MessageFormat.format(
+                resources.getString("ImageOverlayAlignmentWindow.loadingImages"),
+                numberOfImagesLoaded,
+                numberOfImagesToLoad
+        ));
+        imagesLoadingPane.setVisible(true);
     }
 
     private void rotate(int sign) {
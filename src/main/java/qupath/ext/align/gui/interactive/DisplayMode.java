@@ -0,0 +1,85 @@
+package qupath.ext.align.gui.interactive;
+
+/**
+ * The ways an {@link AlignOverlay} can display the overlay image on top of the base image.
+ * <p>
+ * Apart from {@link #BLEND}, modes are applied to each tile of the overlay once it has been rendered, so they
+ * don't slow down painting.
+ */
+enum DisplayMode {
+
+    /**
+     * Display the overlay image as it is, blended with the base image according to the opacity of the overlay
+     */
+    BLEND(false),
+    /**
+     * Display the absolute difference between the overlay image and the base image, channel by channel
+     */
+    DIFFERENCE(true),
+    /**
+     * Display the overlay image in one square out of two, and the base image in the others
+     */
+    CHECKERBOARD(false),
+    /**
+     * Display the intensity of the base image in magenta and the intensity of the overlay image in green, so that
+     * aligned structures appear white or gray
+     */
+    MAGENTA_GREEN(true);
+
+    private static final int CHECKERBOARD_SQUARE_SIZE = 32;
+    private final boolean usesBaseImage;
+
+    DisplayMode(boolean usesBaseImage) {
+        this.usesBaseImage = usesBaseImage;
+    }
+
+    /**
+     * @return whether this mode needs the pixels of the base image
+     */
+    public boolean usesBaseImage() {
+        return usesBaseImage;
+    }
+
+    /**
+     * Apply this mode to a tile of the overlay image.
+     *
+     * @param overlay the ARGB pixels of the tile of the overlay image, stored row by row. They are replaced by the
+     *                pixels to display
+     * @param base the ARGB pixels of the base image covering the same region as the tile, stored row by row. Only
+     *             used if {@link #usesBaseImage()} returns true (it can be null otherwise)
+     * @param width the width of the tile in pixels
+     * @param originX the x-coordinate of the first pixel of the tile, in pixels of the tile resolution. This is used
+     *                to align patterns across tiles
+     * @param originY the y-coordinate of the first pixel of the tile, in pixels of the tile resolution. This is used
+     *                to align patterns across tiles
+     */
+    public void apply(int[] overlay, int[] base, int width, int originX, int originY) {
+        for (int i=0; i<overlay.length; i++) {
+            int pixel = overlay[i];
+            if (pixel >>> 24 == 0) {
+                continue;       // transparent pixels are outside the overlay image
+            }
+
+            overlay[i] = switch (this) {
+                case BLEND -> pixel;
+                case DIFFERENCE -> 0xff000000 |
+                        Math.abs(((pixel >> 16) & 0xff) - ((base[i] >> 16) & 0xff)) << 16 |
+                        Math.abs(((pixel >> 8) & 0xff) - ((base[i] >> 8) & 0xff)) << 8 |
+                        Math.abs((pixel & 0xff) - (base[i] & 0xff));
+                case CHECKERBOARD -> {
+                    int squareX = Math.floorDiv(originX + i % width, CHECKERBOARD_SQUARE_SIZE);
+                    int squareY = Math.floorDiv(originY + i / width, CHECKERBOARD_SQUARE_SIZE);
+                    yield Math.floorMod(squareX + squareY, 2) == 0 ? pixel : 0;
+                }
+                case MAGENTA_GREEN -> {
+                    int baseIntensity = getIntensity(base[i]);
+                    yield 0xff000000 | baseIntensity << 16 | getIntensity(pixel) << 8 | baseIntensity;
+                }
+            };
+        }
+    }
+
+    private static int getIntensity(int pixel) {
+        return (((pixel >> 16) & 0xff) + ((pixel >> 8) & 0xff) + (pixel & 0xff)) / 3;
+    }
+}
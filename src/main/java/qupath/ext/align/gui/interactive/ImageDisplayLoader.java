@@ -0,0 +1,128 @@
+package qupath.ext.align.gui.interactive;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.display.ImageDisplay;
+import qupath.lib.images.ImageData;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A class that creates the {@link ImageDisplay image displays} of overlay images in the background.
+ * <p>
+ * Creating an image display can compute the histograms of all channels to set their display ranges, which can take
+ * seconds with large multichannel images. Displays are therefore created on background threads. They are created
+ * from the image data of the project entry of each image, so the display settings saved by QuPath for an image
+ * (channel colors, display ranges...) are used when present.
+ * <p>
+ * This loader must be {@link #close() closed} once no longer used.
+ * <p>
+ * This class is not thread-safe and must be used from the JavaFX Application Thread.
+ */
+class ImageDisplayLoader implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageDisplayLoader.class);
+    private static final String DISPLAY_SETTINGS_PROPERTY = ImageDisplay.class.getName();     // used by QuPath to restore the display settings of an image data
+    private static final int LOADING_THREADS = 2;
+    private final Map<ImageHandle, ReadOnlyObjectWrapper<ImageDisplay>> imageDisplays = new HashMap<>();
+    private ExecutorService executor = null;
+
+    /**
+     * Get the image display of the provided image. The display is created in the background the first time this
+     * function is called with an image.
+     *
+     * @param image the image whose display should be retrieved
+     * @return a read-only property containing the image display of the provided image, or null if it is not created
+     * yet or if its creation failed. This property is always updated from the JavaFX Application Thread
+     */
+    public ReadOnlyObjectProperty<ImageDisplay> getImageDisplay(ImageHandle image) {
+        ReadOnlyObjectWrapper<ImageDisplay> imageDisplay = imageDisplays.get(image);
+
+        if (imageDisplay == null) {
+            ReadOnlyObjectWrapper<ImageDisplay> newImageDisplay = new ReadOnlyObjectWrapper<>();
+            imageDisplay = newImageDisplay;
+            imageDisplays.put(image, newImageDisplay);
+
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(
+                        LOADING_THREADS,
+                        ThreadTools.createThreadFactory("align-image-display-loader-", true)
+                );
+            }
+
+            logger.debug("Creating image display of {} in the background", image);
+            executor.execute(() -> {
+                // The image is retained so that its server is not closed while the display is being created
+                if (!image.retain()) {
+                    logger.debug("{} closed. Not creating its image display", image);
+                    return;
+                }
+
+                try {
+                    ImageDisplay display = createImageDisplay(image);
+
+                    if (display != null) {
+                        Platform.runLater(() -> newImageDisplay.set(display));
+                    }
+                } finally {
+                    image.release();
+                }
+            });
+        }
+        return imageDisplay.getReadOnlyProperty();
+    }
+
+    /**
+     * Forget the image display of the provided image. A new display will be created the next time it is requested.
+     *
+     * @param image the image whose display should be forgotten
+     */
+    public void remove(ImageHandle image) {
+        imageDisplays.remove(image);
+    }
+
+    /**
+     * Stop the threads creating image displays. Displays not created yet are forgotten and will be created again the
+     * next time they are requested, while already created displays are kept.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        imageDisplays.values().removeIf(imageDisplay -> imageDisplay.get() == null);
+    }
+
+    private static ImageDisplay createImageDisplay(ImageHandle image) {
+        ImageData<BufferedImage> imageData;
+        try {
+            imageData = image.getImageData();
+        } catch (Exception e) {
+            logger.error("Cannot read image data of {}. Cannot create image display", image, e);
+            return null;
+        }
+
+        try {
+            ImageDisplay imageDisplay = ImageDisplay.create(imageData);
+            logger.debug(
+                    "Image display of {} created {}",
+                    image,
+                    imageData.getProperty(DISPLAY_SETTINGS_PROPERTY) == null ? "from histograms" : "from settings saved in the project"
+            );
+            return imageDisplay;
+        } catch (IOException e) {
+            logger.error("Cannot create image display of {}", image, e);
+            return null;
+        }
+    }
+}
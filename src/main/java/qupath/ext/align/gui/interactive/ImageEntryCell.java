@@ -1,68 +1,88 @@
 package qupath.ext.align.gui.interactive;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.scene.control.ListCell;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.image.ImageView;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.gui.viewer.QuPathViewer;
 import qupath.lib.images.ImageData;
-import qupath.lib.images.servers.ImageServer;
-import qupath.lib.images.servers.ServerTools;
 import qupath.lib.projects.Project;
 
 import java.awt.image.BufferedImage;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A cell displaying an image name and thumbnail.
+ * <p>
+ * Thumbnails are loaded in the background, and a placeholder is displayed while they are loading. They are
+ * stored in the provided {@link ThumbnailCache}.
  */
-class ImageEntryCell extends ListCell<ImageData<BufferedImage>> {
+class ImageEntryCell extends ListCell<ImageHandle> {
 
     private static final Logger logger = LoggerFactory.getLogger(ImageEntryCell.class);
     private static final int IMAGE_WIDTH = 80;
     private static final int IMAGE_HEIGHT = 60;
-    private static final int THUMBNAIL_CACHE_SIZE = 64;
-    private static final Cache<ImageData<BufferedImage>, BufferedImage> thumbnailCache = CacheBuilder.newBuilder()
-            .maximumSize(THUMBNAIL_CACHE_SIZE)
-            .softValues()
-            .build();
+    private static final int THUMBNAIL_LOADING_THREADS = 2;
+    private static final ExecutorService thumbnailLoadingExecutor = Executors.newFixedThreadPool(
+            THUMBNAIL_LOADING_THREADS,
+            ThreadTools.createThreadFactory("align-thumbnail-loader-", true)
+    );
     private final ImageView imageView = new ImageView();
+    private final ProgressIndicator placeholder = new ProgressIndicator();
     private final ObservableValue<Project<BufferedImage>> projectProperty;
+    private final ObservableValue<ThumbnailCache> thumbnailCacheProperty;
     private final ObservableValue<ImageData<BufferedImage>> imageInCurrentViewerObservable;
     private ChangeListener<? super ImageData<BufferedImage>> imageInCurrentViewerListener = null;
+    private Future<?> thumbnailLoading = null;
 
     /**
      * Create the cell.
      *
-     * @param projectProperty an observable value containing the current QuPath project. This is used to determine the image name
-     *                        when updating this cell. It cannot be null but its value can be
+     * @param projectProperty an observable value containing the current QuPath project. This is used to determine whether this
+     *                        cell represents the image contained in the current viewer. It cannot be null but its value can be
      * @param viewerProperty an observable value containing the current viewer. If this cell represents the image contained in the
      *                       current viewer, its name will be displayed differently. This observable must be updated from the
      *                       JavaFX Application Thread. It cannot be null but its value can be
+     * @param thumbnailCacheProperty an observable value containing the cache where thumbnails should be stored. Its value
+     *                               is read each time the cell is updated. It cannot be null and its value cannot be null
      * @throws NullPointerException if one of the provided parameters is null
      */
-    public ImageEntryCell(ObservableValue<Project<BufferedImage>> projectProperty, ObservableValue<QuPathViewer> viewerProperty) {
+    public ImageEntryCell(
+            ObservableValue<Project<BufferedImage>> projectProperty,
+            ObservableValue<QuPathViewer> viewerProperty,
+            ObservableValue<ThumbnailCache> thumbnailCacheProperty
+    ) {
         this.projectProperty = Objects.requireNonNull(projectProperty);
+        this.thumbnailCacheProperty = Objects.requireNonNull(thumbnailCacheProperty);
         this.imageInCurrentViewerObservable = viewerProperty.flatMap(QuPathViewer::imageDataProperty);
 
         imageView.setFitWidth(IMAGE_WIDTH);
         imageView.setFitWidth(IMAGE_HEIGHT);
         imageView.setPreserveRatio(true);
         imageView.getStyleClass().add("image-cell-thumbnail");
+        placeholder.setPrefSize(IMAGE_HEIGHT / 2., IMAGE_HEIGHT / 2.);
     }
 
     @Override
-    protected void updateItem(ImageData<BufferedImage> item, boolean empty) {
+    protected void updateItem(ImageHandle item, boolean empty) {
         super.updateItem(item, empty);
 
         setText(null);
         setStyle(null);
         setGraphic(null);
+        if (thumbnailLoading != null) {
+            thumbnailLoading.cancel(false);     // interrupting a read can break the reader of the image
+            thumbnailLoading = null;
+        }
         if (imageInCurrentViewerListener != null) {
             imageInCurrentViewerObservable.removeListener(imageInCurrentViewerListener);
             imageInCurrentViewerListener = null;
@@ -72,62 +92,85 @@ class ImageEntryCell extends ListCell<ImageData<BufferedImage>> {
             return;
         }
 
-        if (projectProperty.getValue() != null && projectProperty.getValue().getEntry(item) != null) {
-            setText(projectProperty.getValue().getEntry(item).getImageName());
-        } else {
-            setText(ServerTools.getDisplayableImageName(item.getServer()));
-        }
+        setText(item.getEntry().getImageName());
 
         imageInCurrentViewerListener = (p, o, n) -> updateStyle(item, n);
         imageInCurrentViewerObservable.addListener(imageInCurrentViewerListener);
         imageInCurrentViewerListener.changed(imageInCurrentViewerObservable, null, imageInCurrentViewerObservable.getValue());
 
+        // Cached thumbnails are shown immediately, others are read in the background with a placeholder in the meantime
+        ThumbnailCache thumbnailCache = thumbnailCacheProperty.getValue();
+        BufferedImage thumbnail = thumbnailCache.getIfPresent(item);
+        if (thumbnail == null) {
+            setGraphic(placeholder);
+            thumbnailLoading = thumbnailLoadingExecutor.submit(() -> loadThumbnail(thumbnailCache, item));
+        } else {
+            setThumbnail(thumbnail);
+        }
+    }
+
+    private void loadThumbnail(ThumbnailCache thumbnailCache, ImageHandle item) {
+        BufferedImage thumbnail;
         try {
-            BufferedImage thumbnail = thumbnailCache.get(
-                    item,
-                    () -> {
-                        BufferedImage projectEntryThumbnail = null;     // project entry thumbnail is usually more representative than
-                                                                        // image server thumbnail at z=0,t=0
-                        if (projectProperty.getValue() != null && projectProperty.getValue().getEntry(item) != null) {
-                            projectEntryThumbnail = projectProperty.getValue().getEntry(item).getThumbnail();
-                        }
-                        if (projectEntryThumbnail != null) {
-                            return projectEntryThumbnail;
-                        }
-
-                        BufferedImage serverThumbnail = item.getServer().getDefaultThumbnail(0, 0);
-                        if (serverThumbnail != null) {
-                            return serverThumbnail;
-                        }
-
-                        throw new IllegalArgumentException(String.format(
-                                "Could not retrieve thumbnail of %s",
-                                item
-                        ));
-                    }
-            );
-
-            imageView.setImage(SwingFXUtils.toFXImage(thumbnail, null));
-            setGraphic(imageView);
+            thumbnail = thumbnailCache.get(item, () -> readThumbnail(item));
         } catch (Exception e) {
             logger.debug("Cannot retrieve thumbnail of {}, so cannot set thumbnail of {}", item, this, e);
+            thumbnail = null;
         }
+
+        BufferedImage loadedThumbnail = thumbnail;
+        Platform.runLater(() -> {
+            // The cell may have been reused for another item while the thumbnail was loading
+            if (item.equals(getItem()) && !isEmpty()) {
+                if (loadedThumbnail == null) {
+                    setGraphic(null);
+                } else {
+                    setThumbnail(loadedThumbnail);
+                }
+            }
+        });
     }
 
-    private void updateStyle(ImageData<BufferedImage> item, ImageData<BufferedImage> imageDataInCurrentViewer) {
-        try {
-            ImageServer<BufferedImage> server = item.getServer();
-            ImageServer<BufferedImage> serverOfImageInCurrentViewer = imageDataInCurrentViewer == null ? null : imageDataInCurrentViewer.getServer();
+    private void setThumbnail(BufferedImage thumbnail) {
+        imageView.setImage(SwingFXUtils.toFXImage(thumbnail, null));
+        setGraphic(imageView);
+    }
+
+    private static BufferedImage readThumbnail(ImageHandle item) throws Exception {
+        // project entry thumbnail is usually more representative than image server thumbnail at z=0,t=0
+        BufferedImage projectEntryThumbnail = item.getEntry().getThumbnail();
+        if (projectEntryThumbnail != null) {
+            return projectEntryThumbnail;
+        }
 
-            if (server != null && serverOfImageInCurrentViewer != null && server.getURIs().equals(serverOfImageInCurrentViewer.getURIs())) {
-                getStyleClass().remove("not-current-viewer-cell");
-                if (!getStyleClass().contains("current-viewer-cell")) {
-                    getStyleClass().add("current-viewer-cell");
+        // The image is retained so that its server is not closed while the thumbnail is being read
+        if (item.retain()) {
+            try {
+                BufferedImage serverThumbnail = item.getImageData().getServer().getDefaultThumbnail(0, 0);
+                if (serverThumbnail != null) {
+                    return serverThumbnail;
                 }
-                return;
+            } finally {
+                item.release();
             }
-        } catch (Exception e) {
-            logger.debug("Cannot get server of {}. Considering it is not in the current viewer", item, e);
+        }
+
+        throw new IllegalArgumentException(String.format(
+                "Could not retrieve thumbnail of %s",
+                item
+        ));
+    }
+
+    private void updateStyle(ImageHandle item, ImageData<BufferedImage> imageDataInCurrentViewer) {
+        Project<BufferedImage> project = projectProperty.getValue();
+
+        // Entries are compared instead of servers so that the server of the item doesn't have to be opened
+        if (project != null && imageDataInCurrentViewer != null && item.getEntry().equals(project.getEntry(imageDataInCurrentViewer))) {
+            getStyleClass().remove("not-current-viewer-cell");
+            if (!getStyleClass().contains("current-viewer-cell")) {
+                getStyleClass().add("current-viewer-cell");
+            }
+            return;
         }
 
         getStyleClass().remove("current-viewer-cell");
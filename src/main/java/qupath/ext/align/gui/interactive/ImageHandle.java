@@ -0,0 +1,202 @@
+package qupath.ext.align.gui.interactive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.images.ImageData;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.projects.ProjectImageEntry;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A reference to an image of a project, used in the list of images to align.
+ * <p>
+ * A handle only stores the project entry of the image. The image data of the entry is read when first needed and is
+ * then kept until the handle is closed. Only the annotations of the entry are kept in this image data, while the
+ * other properties of the image (type, stains, display settings...) are kept as saved in the project.
+ * <p>
+ * Jobs using the server of the image from a background thread must {@link #retain() retain} the handle before starting
+ * and {@link #release() release} it once done. When the handle is {@link #close() closed}, the server is closed
+ * immediately if no job retains the handle, or once the last job releases it otherwise. A closed handle can't be
+ * used anymore.
+ * <p>
+ * Two handles are equal if they refer to the same project entry.
+ * <p>
+ * This class is thread-safe.
+ */
+class ImageHandle implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageHandle.class);
+    private final ProjectImageEntry<BufferedImage> entry;
+    private ImageData<BufferedImage> imageData = null;
+    private int numberOfJobs = 0;
+    private boolean closed = false;
+
+    /**
+     * Create the handle. This doesn't open the image.
+     *
+     * @param entry the project entry of the image
+     * @throws NullPointerException if the provided entry is null
+     */
+    public ImageHandle(ProjectImageEntry<BufferedImage> entry) {
+        this.entry = Objects.requireNonNull(entry);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Image handle of %s", entry);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof ImageHandle imageHandle && entry.getID().equals(imageHandle.entry.getID());
+    }
+
+    @Override
+    public int hashCode() {
+        return entry.getID().hashCode();
+    }
+
+    /**
+     * @return the project entry of the image
+     */
+    public ProjectImageEntry<BufferedImage> getEntry() {
+        return entry;
+    }
+
+    /**
+     * Close this handle. The server of the image is closed now if no job {@link #retain() retains} this handle, or
+     * once the last job {@link #release() releases} it otherwise. Calling this function several times has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (numberOfJobs == 0) {
+            closeServer();
+        } else {
+            logger.debug("{} closed while used by {} jobs. Its server will be closed once they are done", this, numberOfJobs);
+        }
+    }
+
+    /**
+     * Indicate that a job is about to use the server of this image. The server is not closed until the job calls
+     * {@link #release()}, even if this handle is closed in the meantime.
+     *
+     * @return whether the job can use the server. If false, this handle is closed, the job shouldn't use the server,
+     * and {@link #release()} must not be called
+     */
+    public synchronized boolean retain() {
+        if (closed) {
+            return false;
+        }
+
+        numberOfJobs++;
+        return true;
+    }
+
+    /**
+     * Indicate that a job that {@link #retain() retained} this handle doesn't use the server of this image anymore.
+     * If this handle was closed and this was the last job using it, the server is closed.
+     *
+     * @throws IllegalStateException if no job currently retains this handle
+     */
+    public synchronized void release() {
+        if (numberOfJobs == 0) {
+            throw new IllegalStateException(String.format("%s is not retained by any job", this));
+        }
+
+        numberOfJobs--;
+        if (closed && numberOfJobs == 0) {
+            closeServer();
+        }
+    }
+
+    /**
+     * Get the image data of the project entry, with only its annotations. The image data is read the first time this
+     * function is called, so this call may take some time. The returned image data is shared between all callers, so
+     * it shouldn't be modified.
+     *
+     * @return the image data of the project entry, with only its annotations
+     * @throws IOException if an error occurs while reading the image data
+     * @throws IllegalStateException if this handle is closed
+     */
+    public synchronized ImageData<BufferedImage> getImageData() throws IOException {
+        if (closed) {
+            throw new IllegalStateException(String.format("%s is closed", this));
+        }
+
+        if (imageData == null) {
+            logger.debug("Reading image data of {} and keeping only annotations", entry);
+
+            ImageData<BufferedImage> readImageData = entry.readImageData();
+            removeNonAnnotations(readImageData.getHierarchy());
+            imageData = readImageData;
+        }
+        return imageData;
+    }
+
+    /**
+     * Read an image data containing the server of the image and the annotations currently saved in its project entry.
+     * Contrary to {@link #getImageData()}, the hierarchy of the entry is read again, so that annotations saved since
+     * the image data was read are included. The server and the other properties of the image are the ones of
+     * {@link #getImageData()}. The returned image data is not stored by this handle.
+     *
+     * @return an image data containing the server and the current annotations of the image
+     * @throws IOException if an error occurs while reading the hierarchy of the entry or the image data
+     * @throws IllegalStateException if this handle is closed
+     */
+    public ImageData<BufferedImage> readImageData() throws IOException {
+        ImageData<BufferedImage> sharedImageData = getImageData();
+
+        PathObjectHierarchy hierarchy;
+        if (entry.hasImageData()) {
+            logger.debug("{} has already available image data. Reading its hierarchy and keeping only annotations", entry);
+
+            hierarchy = entry.readHierarchy();
+            removeNonAnnotations(hierarchy);
+        } else {
+            logger.debug("{} has no available image data. Creating empty hierarchy", entry);
+            hierarchy = new PathObjectHierarchy();
+        }
+
+        ImageData<BufferedImage> imageData = new ImageData<>(sharedImageData.getServer(), hierarchy, sharedImageData.getImageType());
+        if (sharedImageData.getColorDeconvolutionStains() != null) {
+            imageData.setColorDeconvolutionStains(sharedImageData.getColorDeconvolutionStains());
+        }
+        sharedImageData.getProperties().forEach(imageData::setProperty);
+        return imageData;
+    }
+
+    private void closeServer() {
+        if (imageData == null) {
+            return;
+        }
+
+        logger.debug("Closing server of {}", entry);
+        try {
+            imageData.getServer().close();
+        } catch (Exception e) {
+            logger.error("Error when closing server of {}", entry, e);
+        }
+        imageData = null;
+    }
+
+    private static void removeNonAnnotations(PathObjectHierarchy hierarchy) {
+        Collection<PathObject> pathObjects = hierarchy.getObjects(null, null);
+        Set<PathObject> pathObjectsToRemove = pathObjects.stream().filter(p -> !p.isAnnotation()).collect(Collectors.toSet());
+        hierarchy.removeObjects(pathObjectsToRemove, true);
+    }
+}
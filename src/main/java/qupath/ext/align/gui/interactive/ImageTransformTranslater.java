@@ -1,8 +1,12 @@
 package qupath.ext.align.gui.interactive;
 
+import javafx.animation.PauseTransition;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
 import javafx.beans.value.ObservableValue;
 import javafx.event.EventHandler;
 import javafx.scene.input.MouseEvent;
+import javafx.util.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.ext.align.core.AffineImageTransform;
@@ -14,10 +18,17 @@ import java.util.Objects;
 /**
  * A mouse event handler that translates an {@link AffineImageTransform} when the mouse is dragged with the primary
  * button and the Shift modifier pressed.
+ * <p>
+ * This handler exposes whether a translation is currently happening, so that the image can be painted faster during
+ * the interaction. The interaction is considered finished when the mouse is released or when it hasn't moved for a short
+ * time.
  */
 class ImageTransformTranslater implements EventHandler<MouseEvent> {
 
     private static final Logger logger = LoggerFactory.getLogger(ImageTransformTranslater.class);
+    private static final Duration SETTLE_DELAY = Duration.millis(200);
+    private final ReadOnlyBooleanWrapper interacting = new ReadOnlyBooleanWrapper(false);
+    private final PauseTransition settleTransition = new PauseTransition(SETTLE_DELAY);
     private final ObservableValue<AffineImageTransform> selectedImageTransform;
     private final ObservableValue<QuPathViewer> selectedQuPathViewer;
     private Point2D pDragging;
@@ -34,10 +45,29 @@ class ImageTransformTranslater implements EventHandler<MouseEvent> {
     public ImageTransformTranslater(ObservableValue<AffineImageTransform> selectedImageTransform, ObservableValue<QuPathViewer> selectedQuPathViewer) {
         this.selectedImageTransform = Objects.requireNonNull(selectedImageTransform);
         this.selectedQuPathViewer = Objects.requireNonNull(selectedQuPathViewer);
+
+        settleTransition.setOnFinished(event -> {
+            logger.trace("Mouse not moved for {}. Interaction considered finished", SETTLE_DELAY);
+            interacting.set(false);
+        });
+    }
+
+    /**
+     * @return a read-only property indicating whether the transform is currently being translated by this handler. This
+     * property is updated from the JavaFX Application Thread
+     */
+    public ReadOnlyBooleanProperty interactingProperty() {
+        return interacting.getReadOnlyProperty();
     }
 
     @Override
     public void handle(MouseEvent event) {
+        if (event.getEventType() == MouseEvent.MOUSE_RELEASED && interacting.get()) {
+            logger.trace("Mouse released. Interaction finished");
+            settleTransition.stop();
+            interacting.set(false);
+        }
+
         if (!event.isPrimaryButtonDown() || event.isConsumed()) {
             logger.trace("Primary button not pressed or mouse event {} already consumed. Not doing anything", event);
             return;
@@ -63,6 +93,9 @@ class ImageTransformTranslater implements EventHandler<MouseEvent> {
             if (event.isShiftDown() && pDragging != null) {
                 double dx = pDragging.getX() - point.getX();
                 double dy = pDragging.getY() - point.getY();
+                interacting.set(true);
+                settleTransition.playFromStart();
+
                 affineImageTransform.translateTransform(dx, dy);
                 event.consume();
                 logger.trace("Mouse dragged and shift modifier down. {} dragged by [{}, {}] and {} consumed", affineImageTransform, dx, dy, event);
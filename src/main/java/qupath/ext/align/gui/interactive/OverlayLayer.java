@@ -0,0 +1,43 @@
+package qupath.ext.align.gui.interactive;
+
+import javafx.beans.value.ObservableDoubleValue;
+import javafx.beans.value.ObservableValue;
+import qupath.ext.align.core.AffineImageTransform;
+import qupath.lib.display.ImageDisplay;
+
+import java.awt.image.BufferedImage;
+import java.util.Objects;
+
+/**
+ * An image displayed by an {@link AlignOverlay}, with its own opacity.
+ *
+ * @param image the image to display. It is {@link ImageHandle#retain() retained} while its server is read from
+ *              background threads
+ * @param imageTransform the image data (and the transform to apply to it) to display
+ * @param opacity an observable value containing the opacity the image should have. This observable must be updated
+ *                from the JavaFX Application Thread
+ * @param imageDisplay an observable value containing the image display to use when painting the image. Its value is
+ *                     null while the display is being created. This observable must be updated from the JavaFX
+ *                     Application Thread
+ * @param placeholder a thumbnail of the image to paint while the image display is being created. Can be null
+ */
+record OverlayLayer(
+        ImageHandle image,
+        AffineImageTransform imageTransform,
+        ObservableDoubleValue opacity,
+        ObservableValue<ImageDisplay> imageDisplay,
+        BufferedImage placeholder
+) {
+
+    /**
+     * Create the layer.
+     *
+     * @throws NullPointerException if the image, the image transform, the opacity, or the image display is null
+     */
+    OverlayLayer {
+        Objects.requireNonNull(image);
+        Objects.requireNonNull(imageTransform);
+        Objects.requireNonNull(opacity);
+        Objects.requireNonNull(imageDisplay);
+    }
+}
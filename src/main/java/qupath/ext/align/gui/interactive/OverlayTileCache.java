@@ -0,0 +1,250 @@
+package qupath.ext.align.gui.interactive;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.ext.align.core.AffineImageTransform;
+import qupath.ext.align.core.PiecewiseAffineTransform;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.regions.ImagePlane;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A cache of tiles painted by an {@link AlignOverlay}. Each tile contains the overlay images already transformed,
+ * resampled to the coordinates of the base image at some downsample, and composited with their opacities, so that
+ * it can be drawn on the viewer without transforming the overlay images again.
+ * <p>
+ * The layers of each tile (one per overlay image) are also kept before being composited, so that changing the
+ * opacity or the transform of one image doesn't require to transform the other images again.
+ * <p>
+ * Tiles are rendered on background threads when first requested. The cache must be {@link #invalidate() invalidated}
+ * each time the transform of an overlay image or the list of overlay images changes. Tiles whose rendering started before an invalidation are
+ * discarded.
+ * <p>
+ * Tiles are expressed in coordinates of the base image and don't depend on a viewer, so a cache can be shared by
+ * the overlays of several viewers showing the same base image.
+ * <p>
+ * This cache owns the threads rendering its tiles, so it must be {@link #close() closed} once no longer used.
+ * <p>
+ * This class is thread-safe.
+ */
+class OverlayTileCache implements AutoCloseable {
+
+    /**
+     * The width and height in pixels of each tile
+     */
+    public static final int TILE_SIZE = 256;
+    private static final Logger logger = LoggerFactory.getLogger(OverlayTileCache.class);
+    private static final long MAX_BYTES = 64L * 1024 * 1024;
+    private static final long MAX_LAYER_BYTES = 128L * 1024 * 1024;
+    private final ExecutorService executor = Executors.newFixedThreadPool(
+            ThreadTools.getParallelism(),
+            ThreadTools.createThreadFactory("align-overlay-renderer-", true)
+    );
+    private final Cache<TileKey, BufferedImage> tiles = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_BYTES)
+            .weigher((TileKey key, BufferedImage tile) -> tile.getWidth() * tile.getHeight() * 4)
+            .build();
+    private final Cache<LayerTileKey, BufferedImage> layerTiles = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_LAYER_BYTES)
+            .weigher((LayerTileKey key, BufferedImage tile) -> tile.getWidth() * tile.getHeight() * 4)
+            .build();
+    private final Map<TileKey, Future<?>> tilesRendering = new HashMap<>();
+    private final Set<Runnable> tileRenderedListeners = new CopyOnWriteArraySet<>();
+    private long version = 0;
+
+    /**
+     * Identify a tile of the cache.
+     *
+     * @param downsample the downsample at which the tile is rendered
+     * @param plane the plane of the tile
+     * @param x the index of the tile along the x-axis. The tile starts at x * {@link #TILE_SIZE} * downsample in
+     *          coordinates of the base image
+     * @param y the index of the tile along the y-axis. The tile starts at y * {@link #TILE_SIZE} * downsample in
+     *          coordinates of the base image
+     * @param bilinear whether the tile is rendered with bilinear interpolation
+     * @param displayMode the display mode applied to the tile
+     * @param baseDisplayTimestamp the last time the display settings of the base image changed, if the display mode
+     *                             uses the base image, or 0 otherwise
+     * @param layers the layers composited in the tile, from bottom to top
+     */
+    public record TileKey(
+            double downsample,
+            ImagePlane plane,
+            int x,
+            int y,
+            boolean bilinear,
+            DisplayMode displayMode,
+            long baseDisplayTimestamp,
+            List<Layer> layers
+    ) {}
+
+    /**
+     * A layer composited in a tile of the cache.
+     *
+     * @param displayTimestamp the last time the display settings of the image of the layer changed
+     * @param opacity the opacity of the layer
+     */
+    public record Layer(long displayTimestamp, double opacity) {}
+
+    /**
+     * Identify a single layer of a tile of the cache, before it is composited with the other layers.
+     * <p>
+     * Contrary to {@link TileKey}, this key contains the transforms of the layer, so layer tiles don't need to be
+     * invalidated when a transform changes: they are simply not requested anymore and end up evicted.
+     *
+     * @param downsample the downsample at which the tile is rendered
+     * @param plane the plane of the tile
+     * @param x the index of the tile along the x-axis
+     * @param y the index of the tile along the y-axis
+     * @param bilinear whether the tile is rendered with bilinear interpolation
+     * @param displayMode the display mode applied to the tile
+     * @param baseDisplayTimestamp the last time the display settings of the base image changed, if the display mode
+     *                             uses the base image, or 0 otherwise
+     * @param imageTransform the image transform of the layer
+     * @param transform the transform mapping coordinates of the base image to coordinates of the image of the layer
+     * @param localTransform the local transform of the layer, or null if there is none
+     * @param displayTimestamp the last time the display settings of the image of the layer changed
+     */
+    public record LayerTileKey(
+            double downsample,
+            ImagePlane plane,
+            int x,
+            int y,
+            boolean bilinear,
+            DisplayMode displayMode,
+            long baseDisplayTimestamp,
+            AffineImageTransform imageTransform,
+            AffineTransform transform,
+            PiecewiseAffineTransform localTransform,
+            long displayTimestamp
+    ) {}
+
+    /**
+     * Add a function that will be called (from any thread) each time a tile has been rendered and added to this cache.
+     *
+     * @param listener the function to call when a tile is rendered
+     * @throws NullPointerException if the provided function is null
+     */
+    public void addTileRenderedListener(Runnable listener) {
+        tileRenderedListeners.add(Objects.requireNonNull(listener));
+    }
+
+    /**
+     * Remove a function added with {@link #addTileRenderedListener(Runnable)}.
+     *
+     * @param listener the function to remove
+     */
+    public void removeTileRenderedListener(Runnable listener) {
+        tileRenderedListeners.remove(listener);
+    }
+
+    /**
+     * Get a tile of this cache. If the tile is not present, it is rendered in the background with the provided function,
+     * and the {@link #addTileRenderedListener(Runnable) tile rendered listeners} are called once it is available.
+     *
+     * @param key the key of the tile to retrieve
+     * @param renderer a function that renders the tile. It will be called from a background thread
+     * @return the tile, or null if it is not present in this cache yet
+     */
+    public BufferedImage getTile(TileKey key, Callable<BufferedImage> renderer) {
+        BufferedImage tile = tiles.getIfPresent(key);
+
+        if (tile == null) {
+            requestTile(key, renderer);
+        }
+        return tile;
+    }
+
+    /**
+     * Get a layer of a tile of this cache, or render it with the provided function if it is not present. This is
+     * meant to be called when rendering a tile, so that only the layers that changed are rendered again.
+     *
+     * @param key the key of the layer to retrieve
+     * @param renderer a function that renders the layer. It will be called from the calling thread
+     * @return the layer
+     * @throws ExecutionException if the provided function throws an exception
+     */
+    public BufferedImage getLayerTile(LayerTileKey key, Callable<BufferedImage> renderer) throws ExecutionException {
+        return layerTiles.get(key, renderer);
+    }
+
+    /**
+     * Remove all tiles of this cache and cancel tiles currently rendering. This should be called each time the
+     * tiles of this cache become invalid.
+     */
+    public synchronized void invalidate() {
+        version++;
+
+        // Rendering threads are not interrupted, as an interruption while reading can break the reader of an image
+        // (for example by closing its file channel). Tiles rendered with the old version are discarded anyway
+        tilesRendering.values().forEach(future -> future.cancel(false));
+        tilesRendering.clear();
+        tiles.invalidateAll();
+    }
+
+    /**
+     * Invalidate this cache and remove all layers of tiles. The cache can still be used after that.
+     */
+    public void clear() {
+        invalidate();
+        layerTiles.invalidateAll();
+    }
+
+    /**
+     * Clear this cache and stop its rendering threads once the tiles currently rendering are done. This cache
+     * cannot be used anymore after that.
+     */
+    @Override
+    public void close() {
+        clear();
+        executor.shutdown();
+    }
+
+    private synchronized void requestTile(TileKey key, Callable<BufferedImage> renderer) {
+        if (tilesRendering.containsKey(key)) {
+            return;
+        }
+
+        long tileVersion = version;
+        tilesRendering.put(key, executor.submit(() -> {
+            BufferedImage tile;
+            try {
+                tile = renderer.call();
+            } catch (Exception e) {
+                logger.debug("Cannot render overlay tile {}", key, e);
+                tile = null;
+            }
+
+            synchronized (this) {
+                // The cache may have been invalidated while the tile was rendering
+                if (tileVersion != version) {
+                    return;
+                }
+
+                tilesRendering.remove(key);
+                if (tile == null) {
+                    return;
+                }
+                tiles.put(key, tile);
+            }
+
+            logger.trace("Overlay tile {} rendered", key);
+            tileRenderedListeners.forEach(Runnable::run);
+        }));
+    }
+}
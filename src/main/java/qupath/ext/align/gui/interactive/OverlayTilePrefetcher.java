@@ -0,0 +1,148 @@
+package qupath.ext.align.gui.interactive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.gui.images.stores.ImageRenderer;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * A class that reads in the background the tiles of an overlay image that are about to be painted, so that they are
+ * already present in an {@link OverlayTileStore} when the viewer needs them.
+ * <p>
+ * The caller provides the visible region of the viewer and an extended region around it, both already mapped to the
+ * coordinates of the overlay image, and the downsample at which the overlay image is read when painted. Tiles of the
+ * visible region are requested before tiles of the extended region. A new prefetch cancels the tiles of the previous
+ * one that were not read yet.
+ * <p>
+ * This prefetcher must be {@link #close() closed} once no longer used.
+ * <p>
+ * This class is thread-safe.
+ */
+class OverlayTilePrefetcher implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(OverlayTilePrefetcher.class);
+    private final List<Future<?>> tilesPrefetching = new ArrayList<>();
+    private final OverlayTileStore tileStore;
+    private final ImageHandle image;
+    private Prefetch lastPrefetch = null;
+
+    private record Prefetch(
+            ImageServer<BufferedImage> server,
+            ImageRenderer renderer,
+            long rendererTimestamp,
+            ImagePlane plane,
+            Rectangle2D visibleRegion,
+            Rectangle2D extendedRegion,
+            double downsample
+    ) {}
+
+    /**
+     * Create the prefetcher.
+     *
+     * @param tileStore the store reading the prefetched tiles and where they should be added
+     * @param image the image whose tiles are prefetched. It is {@link ImageHandle#retain() retained} while tiles are read
+     * @throws NullPointerException if one of the provided parameters is null
+     */
+    public OverlayTilePrefetcher(OverlayTileStore tileStore, ImageHandle image) {
+        this.tileStore = Objects.requireNonNull(tileStore);
+        this.image = Objects.requireNonNull(image);
+    }
+
+    /**
+     * Read in the background the tiles of the provided server covering the provided regions. Nothing happens if the
+     * parameters are the same as the ones of the last call.
+     *
+     * @param server the server of the overlay image
+     * @param renderer the renderer used to paint the overlay image
+     * @param plane the plane of the viewer. It is clamped to the planes of the overlay image
+     * @param visibleRegion the region of the overlay image that is currently visible, in full resolution coordinates
+     *                      of the overlay image. It is copied, so further changes won't be reflected
+     * @param extendedRegion a region around the visible region that is likely to become visible, in full resolution
+     *                       coordinates of the overlay image. It is copied, so further changes won't be reflected
+     * @param downsample the downsample at which the overlay image is read when painted
+     * @throws NullPointerException if one of the provided parameters is null
+     */
+    public synchronized void prefetch(
+            ImageServer<BufferedImage> server,
+            ImageRenderer renderer,
+            ImagePlane plane,
+            Rectangle2D visibleRegion,
+            Rectangle2D extendedRegion,
+            double downsample
+    ) {
+        Prefetch prefetch = new Prefetch(
+                Objects.requireNonNull(server),
+                renderer,
+                renderer.getLastChangeTimestamp(),
+                Objects.requireNonNull(plane),
+                (Rectangle2D) visibleRegion.clone(),
+                (Rectangle2D) extendedRegion.clone(),
+                downsample
+        );
+        if (prefetch.equals(lastPrefetch)) {
+            return;
+        }
+        lastPrefetch = prefetch;
+
+        cancel();
+
+        // Tiles are added in priority order, and the set removes margin tiles that are already visible
+        Set<TileRequest> tiles = new LinkedHashSet<>();
+        tiles.addAll(getTiles(server, plane, visibleRegion, downsample));
+        tiles.addAll(getTiles(server, plane, extendedRegion, downsample));
+        logger.trace("Prefetching {} tiles of {} for {}", tiles.size(), server, visibleRegion);
+
+        for (TileRequest tile: tiles) {
+            tilesPrefetching.add(tileStore.prefetchTile(image, server, tile, renderer));
+        }
+    }
+
+    /**
+     * Cancel the tiles currently waiting to be read.
+     */
+    @Override
+    public synchronized void close() {
+        cancel();
+        lastPrefetch = null;
+    }
+
+    private void cancel() {
+        tilesPrefetching.forEach(future -> future.cancel(false));
+        tilesPrefetching.clear();
+    }
+
+    private static List<TileRequest> getTiles(
+            ImageServer<BufferedImage> server,
+            ImagePlane plane,
+            Rectangle2D region,
+            double downsample
+    ) {
+        Rectangle2D imageRegion = region.createIntersection(new Rectangle2D.Double(0, 0, server.getWidth(), server.getHeight()));
+        if (imageRegion.isEmpty() || !(downsample > 0) || Double.isInfinite(downsample)) {
+            return List.of();
+        }
+
+        return List.copyOf(server.getTileRequestManager().getTileRequests(RegionRequest.createInstance(
+                server.getPath(),
+                downsample,
+                (int) imageRegion.getX(),
+                (int) imageRegion.getY(),
+                (int) Math.ceil(imageRegion.getWidth()),
+                (int) Math.ceil(imageRegion.getHeight()),
+                Math.min(plane.getZ(), server.nZSlices() - 1),
+                Math.min(plane.getT(), server.nTimepoints() - 1)
+        )));
+    }
+}
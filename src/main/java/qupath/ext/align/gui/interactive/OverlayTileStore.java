@@ -0,0 +1,266 @@
+package qupath.ext.align.gui.interactive;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.gui.images.stores.ImageRenderer;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A store of the tiles of overlay images, separate from the {@link qupath.lib.gui.viewer.QuPathViewer#getImageRegionStore()
+ * store of the viewers}. This prevents large overlay images from evicting the tiles of the base images.
+ * <p>
+ * Raw tiles read by tileable servers still go through the tile cache that QuPath shares between all servers and
+ * viewers, like the tiles of any other opened image. This cache is managed by QuPath and is not modified here. Tiles
+ * of this store are already rendered, so raw tiles are only requested again once evicted from this store.
+ * <p>
+ * Tiles are stored already rendered with the display settings of the overlay image, in a cache limited by the number
+ * of bytes of their pixels. The least recently used tiles are evicted first. The hit rate of the store is recorded and
+ * can be retrieved with {@link #getStats()}.
+ * <p>
+ * This store owns the threads reading its tiles in the background, so it must be {@link #close() closed} once no
+ * longer used.
+ * <p>
+ * This class is thread-safe.
+ */
+class OverlayTileStore implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(OverlayTileStore.class);
+    private static final int READING_THREADS = 4;
+    private static final int PREFETCHING_THREADS = 2;
+    private final ExecutorService executor = Executors.newFixedThreadPool(
+            READING_THREADS,
+            ThreadTools.createThreadFactory("align-overlay-tile-reader-", true)
+    );
+    private final ExecutorService prefetchingExecutor = Executors.newFixedThreadPool(
+            PREFETCHING_THREADS,
+            ThreadTools.createThreadFactory("align-overlay-prefetcher-", true)
+    );
+    private final Cache<TileKey, BufferedImage> tiles;
+    private final Set<TileKey> tilesReading = new HashSet<>();
+
+    private record TileKey(RegionRequest request, ImageRenderer renderer, long rendererTimestamp) {}
+
+    private static class NoImageException extends Exception {}
+
+    /**
+     * Create the store.
+     *
+     * @param maxBytes the maximum number of bytes the pixels of the stored tiles can take
+     */
+    public OverlayTileStore(long maxBytes) {
+        this.tiles = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((TileKey key, BufferedImage tile) -> tile.getWidth() * tile.getHeight() * 4)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Paint a region of the provided server with the tiles of this store.
+     *
+     * @param image the image to paint. It is {@link ImageHandle#retain() retained} while missing tiles are read in
+     *              the background, and the caller must retain it if tiles are read completely from another thread
+     * @param server the server of the image to paint
+     * @param g2d the graphics to paint on. Its transform must map coordinates of the provided server to the output space
+     * @param clip the region of the image to paint, in coordinates of the provided server. Can be null to paint the
+     *             entire image
+     * @param z the z-slice of the region to paint
+     * @param t the timepoint of the region to paint
+     * @param downsample the downsample at which the image should be painted
+     * @param renderer the renderer to apply to tiles before painting them
+     * @param paintCompletely whether to read the tiles not present in this store before painting them. If false, only the
+     *                        tiles present in this store are painted, and missing tiles are read in the background
+     * @param onTileRead a function called (from any thread) each time a tile read in the background is added to this store
+     */
+    public void paintRegion(
+            ImageHandle image,
+            ImageServer<BufferedImage> server,
+            Graphics2D g2d,
+            Shape clip,
+            int z,
+            int t,
+            double downsample,
+            ImageRenderer renderer,
+            boolean paintCompletely,
+            Runnable onTileRead
+    ) {
+        for (TileRequest tile: getTiles(server, clip, z, t, downsample)) {
+            BufferedImage tileImage;
+            if (paintCompletely) {
+                try {
+                    tileImage = readTile(server, tile, renderer);
+                } catch (IOException e) {
+                    logger.debug("Cannot read {} of {}. Skipping it", tile, server, e);
+                    tileImage = null;
+                }
+            } else {
+                tileImage = getTileOrRequest(image, server, tile, renderer, onTileRead);
+            }
+
+            if (tileImage != null) {
+                g2d.drawImage(tileImage, tile.getImageX(), tile.getImageY(), tile.getImageWidth(), tile.getImageHeight(), null);
+            }
+        }
+    }
+
+    /**
+     * Get the provided tile from this store, or read it and add it to this store if it is not present.
+     *
+     * @param server the server the tile belongs to
+     * @param tile the tile to retrieve
+     * @param renderer the renderer to apply to the tile
+     * @return the rendered tile, or null if the server returned no image for this tile
+     * @throws IOException if an error occurs while reading the tile
+     */
+    public BufferedImage readTile(ImageServer<BufferedImage> server, TileRequest tile, ImageRenderer renderer) throws IOException {
+        TileKey key = new TileKey(tile.getRegionRequest(), renderer, renderer.getLastChangeTimestamp());
+
+        // The tile is read once even if the painting and prefetching threads request it at the same time
+        try {
+            return tiles.get(key, () -> {
+                BufferedImage rawImage = server.readRegion(tile.getRegionRequest());
+                if (rawImage == null) {
+                    throw new NoImageException();
+                }
+
+                return renderer.applyTransforms(rawImage, null);
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof NoImageException) {
+                return null;
+            } else if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            } else {
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Read the provided tile in the background and add it to this store if it is not present. Prefetched tiles are
+     * read by other threads than the tiles missing when painting, so that prefetching doesn't delay painting.
+     *
+     * @param image the image the tile belongs to. It is {@link ImageHandle#retain() retained} while the tile is read
+     * @param server the server the tile belongs to
+     * @param tile the tile to read
+     * @param renderer the renderer to apply to the tile
+     * @return the prefetching of the tile. It can be cancelled if the tile is not needed anymore
+     */
+    public Future<?> prefetchTile(ImageHandle image, ImageServer<BufferedImage> server, TileRequest tile, ImageRenderer renderer) {
+        return prefetchingExecutor.submit(() -> {
+            // The image is retained so that its server is not closed while the tile is read
+            if (!image.retain()) {
+                return;
+            }
+
+            try {
+                readTile(server, tile, renderer);
+            } catch (IOException e) {
+                logger.debug("Cannot prefetch {} of {}", tile, server, e);
+            } finally {
+                image.release();
+            }
+        });
+    }
+
+    /**
+     * Get statistics on the usage of this store. A request of a tile counts as a hit if the tile was present in
+     * this store.
+     *
+     * @return statistics on the usage of this store
+     */
+    public CacheStats getStats() {
+        return tiles.stats();
+    }
+
+    /**
+     * Remove all tiles of this store and stop its reading threads once the tiles currently read are done. This store
+     * cannot be used anymore after that.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        prefetchingExecutor.shutdown();
+        tiles.invalidateAll();
+    }
+
+    private BufferedImage getTileOrRequest(
+            ImageHandle image,
+            ImageServer<BufferedImage> server,
+            TileRequest tile,
+            ImageRenderer renderer,
+            Runnable onTileRead
+    ) {
+        TileKey key = new TileKey(tile.getRegionRequest(), renderer, renderer.getLastChangeTimestamp());
+
+        BufferedImage tileImage = tiles.getIfPresent(key);
+        if (tileImage == null) {
+            synchronized (tilesReading) {
+                if (!tilesReading.add(key)) {
+                    return null;
+                }
+            }
+
+            executor.execute(() -> {
+                // The image is retained so that its server is not closed while the tile is read
+                boolean retained = image.retain();
+                try {
+                    if (retained && readTile(server, tile, renderer) != null) {
+                        onTileRead.run();
+                    }
+                } catch (IOException e) {
+                    logger.debug("Cannot read {} of {}", tile, server, e);
+                } finally {
+                    if (retained) {
+                        image.release();
+                    }
+                    synchronized (tilesReading) {
+                        tilesReading.remove(key);
+                    }
+                }
+            });
+        }
+        return tileImage;
+    }
+
+    private static Collection<TileRequest> getTiles(ImageServer<BufferedImage> server, Shape clip, int z, int t, double downsample) {
+        Rectangle2D imageBounds = new Rectangle2D.Double(0, 0, server.getWidth(), server.getHeight());
+        Rectangle2D bounds = clip == null ? imageBounds : clip.getBounds2D().createIntersection(imageBounds);
+        if (bounds.isEmpty()) {
+            return List.of();
+        }
+
+        int x = (int) Math.floor(bounds.getMinX());
+        int y = (int) Math.floor(bounds.getMinY());
+        return server.getTileRequestManager().getTileRequests(RegionRequest.createInstance(
+                server.getPath(),
+                downsample,
+                x,
+                y,
+                (int) Math.ceil(bounds.getMaxX()) - x,
+                (int) Math.ceil(bounds.getMaxY()) - y,
+                Math.min(z, server.nZSlices() - 1),
+                Math.min(t, server.nTimepoints() - 1)
+        ));
+    }
+}
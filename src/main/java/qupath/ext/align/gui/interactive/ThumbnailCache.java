@@ -0,0 +1,226 @@
+package qupath.ext.align.gui.interactive;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.projects.Project;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+/**
+ * A two-level cache of image thumbnails.
+ * <p>
+ * Thumbnails are downscaled and kept in memory, in a cache whose size is limited by the number of bytes of their
+ * pixels. They are also written as JPEG files to a directory of the project, so that they don't have to be read
+ * from the image servers again in later sessions. Files are named after the URIs of the image and their modification
+ * time (when they are local files), so a modified image gets a new thumbnail. The total size of the files is
+ * limited, and the least recently used files are deleted first.
+ * <p>
+ * A cache is meant to be used for a single project and to be discarded (with the thumbnails it holds in memory)
+ * when the project is closed.
+ * <p>
+ * This class is thread-safe.
+ */
+class ThumbnailCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailCache.class);
+    private static final String DIRECTORY_NAME = "align-thumbnails";
+    private static final String FILE_FORMAT = "jpg";
+    private static final int MAX_THUMBNAIL_SIZE = 160;
+    private static final long MAX_MEMORY_BYTES = 16L * 1024 * 1024;
+    private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+    private final Cache<ImageHandle, BufferedImage> memoryCache = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_MEMORY_BYTES)
+            .weigher((ImageHandle image, BufferedImage thumbnail) -> thumbnail.getWidth() * thumbnail.getHeight() * 4)
+            .build();
+    private final Path directory;
+    private long diskBytes = -1;
+
+    /**
+     * Create the thumbnail cache of the provided project. This doesn't perform any IO operation.
+     *
+     * @param project the project whose thumbnails should be cached. Can be null to create a cache that only
+     *                stores thumbnails in memory
+     */
+    public ThumbnailCache(Project<BufferedImage> project) {
+        Path projectPath = project == null ? null : project.getPath();
+        this.directory = projectPath == null ? null : projectPath.toAbsolutePath().getParent().resolve(DIRECTORY_NAME);
+    }
+
+    /**
+     * Get the thumbnail of the provided image if it is present in memory. This doesn't perform any IO operation.
+     *
+     * @param image the image whose thumbnail should be retrieved
+     * @return the thumbnail of the provided image, or null if it is not present in memory
+     */
+    public BufferedImage getIfPresent(ImageHandle image) {
+        return memoryCache.getIfPresent(image);
+    }
+
+    /**
+     * Get the thumbnail of the provided image, from memory, from disk, or by reading and downscaling it with
+     * the provided function (in this order). This may perform IO operations.
+     *
+     * @param image the image whose thumbnail should be retrieved
+     * @param thumbnailReader a function that reads the full thumbnail of the image. It shouldn't return null
+     * @return the thumbnail of the provided image
+     * @throws Exception if the provided function throws an exception
+     */
+    public BufferedImage get(ImageHandle image, Callable<BufferedImage> thumbnailReader) throws Exception {
+        BufferedImage thumbnail = memoryCache.getIfPresent(image);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+
+        Path file = getFile(image);
+        thumbnail = file == null ? null : readFile(file);
+        if (thumbnail == null) {
+            thumbnail = downscale(thumbnailReader.call());
+
+            if (file != null) {
+                writeFile(file, thumbnail);
+            }
+        }
+
+        memoryCache.put(image, thumbnail);
+        return thumbnail;
+    }
+
+    private Path getFile(ImageHandle image) {
+        if (directory == null) {
+            return null;
+        }
+
+        try {
+            StringBuilder key = new StringBuilder();
+            for (URI uri: image.getEntry().getURIs()) {
+                key.append(uri);
+
+                if ("file".equals(uri.getScheme())) {
+                    Path path = Path.of(uri);
+                    if (Files.exists(path)) {
+                        key.append('@').append(Files.getLastModifiedTime(path).toMillis());
+                    }
+                }
+                key.append(';');
+            }
+
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(String.format("%s.%s", HexFormat.of().formatHex(hash), FILE_FORMAT));
+        } catch (IOException | NoSuchAlgorithmException | IllegalArgumentException e) {
+            logger.debug("Cannot compute thumbnail file of {}. Its thumbnail won't be stored on disk", image, e);
+            return null;
+        }
+    }
+
+    private synchronized BufferedImage readFile(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try {
+            BufferedImage thumbnail = ImageIO.read(file.toFile());
+
+            // The modification time of a file is used as its last access time when evicting files
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            logger.trace("Thumbnail read from {}", file);
+            return thumbnail;
+        } catch (IOException e) {
+            logger.debug("Cannot read thumbnail from {}", file, e);
+            return null;
+        }
+    }
+
+    private synchronized void writeFile(Path file, BufferedImage thumbnail) {
+        try {
+            Files.createDirectories(directory);
+            if (diskBytes < 0) {
+                diskBytes = getFiles().stream().mapToLong(ThumbnailCache::getSize).sum();
+            }
+
+            ImageIO.write(thumbnail, FILE_FORMAT, file.toFile());
+            diskBytes += getSize(file);
+            logger.trace("Thumbnail written to {}. Thumbnail files now take {} bytes", file, diskBytes);
+
+            if (diskBytes > MAX_DISK_BYTES) {
+                evictFiles();
+            }
+        } catch (IOException e) {
+            logger.debug("Cannot write thumbnail to {}", file, e);
+        }
+    }
+
+    private void evictFiles() throws IOException {
+        List<Path> files = getFiles().stream()
+                .sorted(Comparator.comparingLong(file -> getLastModifiedTime(file)))
+                .toList();
+
+        for (Path file: files) {
+            if (diskBytes <= MAX_DISK_BYTES) {
+                return;
+            }
+
+            long size = getSize(file);
+            if (Files.deleteIfExists(file)) {
+                diskBytes -= size;
+                logger.trace("Least recently used thumbnail {} deleted", file);
+            }
+        }
+    }
+
+    private List<Path> getFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith("." + FILE_FORMAT)).toList();
+        }
+    }
+
+    private static BufferedImage downscale(BufferedImage image) {
+        double scale = Math.min(1, (double) MAX_THUMBNAIL_SIZE / Math.max(image.getWidth(), image.getHeight()));
+        int width = (int) Math.max(1, Math.round(image.getWidth() * scale));
+        int height = (int) Math.max(1, Math.round(image.getHeight() * scale));
+
+        // Drawing the image converts it to RGB, which can be encoded as JPEG whatever the type of the original image
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = thumbnail.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+
+        return thumbnail;
+    }
+
+    private static long getSize(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            logger.debug("Cannot get size of {}", file, e);
+            return 0;
+        }
+    }
+
+    private static long getLastModifiedTime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            logger.debug("Cannot get last modified time of {}", file, e);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package qupath.ext.align.core;
+
+import qupath.lib.color.ColorModelFactory;
+import qupath.lib.images.servers.AbstractImageServer;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServerBuilder;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+import java.net.URI;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * An image server used by tests, whose pixel values are computed from the full resolution coordinates of the pixels
+ * by a provided function. Pixels of a region read at a downsample greater than 1 are the ones located at the top
+ * left corner of each downsampled pixel.
+ */
+class PixelFunctionImageServer extends AbstractImageServer<BufferedImage> {
+
+    private final String id = UUID.randomUUID().toString();
+    private final ImageServerMetadata metadata;
+    private final PixelFunction pixelFunction;
+
+    /**
+     * A function computing the value of a pixel.
+     */
+    @FunctionalInterface
+    interface PixelFunction {
+
+        /**
+         * @param x the x-coordinate of the pixel at full resolution
+         * @param y the y-coordinate of the pixel at full resolution
+         * @param c the channel of the pixel (or the red, green, or blue band for RGB images)
+         * @param z the z-slice of the pixel
+         * @param t the timepoint of the pixel
+         * @return the value of the pixel
+         */
+        int getValue(int x, int y, int c, int z, int t);
+    }
+
+    /**
+     * Create a single channel and single plane 16-bit image server.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param pixelFunction the function computing the value of each pixel
+     */
+    PixelFunctionImageServer(int width, int height, PixelFunction pixelFunction) {
+        this(
+                new ImageServerMetadata.Builder()
+                        .width(width)
+                        .height(height)
+                        .pixelType(PixelType.UINT16)
+                        .channels(List.of(ImageChannel.getInstance("c", 0)))
+                        .build(),
+                pixelFunction
+        );
+    }
+
+    /**
+     * Create an image server.
+     *
+     * @param metadata the metadata of the image
+     * @param pixelFunction the function computing the value of each pixel
+     */
+    PixelFunctionImageServer(ImageServerMetadata metadata, PixelFunction pixelFunction) {
+        super(BufferedImage.class);
+
+        this.metadata = metadata;
+        this.pixelFunction = pixelFunction;
+    }
+
+    @Override
+    protected ImageServerBuilder.ServerBuilder<BufferedImage> createServerBuilder() {
+        return null;
+    }
+
+    @Override
+    protected String createID() {
+        return getClass().getName() + ": " + id;
+    }
+
+    @Override
+    public Collection<URI> getURIs() {
+        return List.of();
+    }
+
+    @Override
+    public BufferedImage readRegion(RegionRequest request) {
+        int width = (int) Math.round(request.getWidth() / request.getDownsample());
+        int height = (int) Math.round(request.getHeight() / request.getDownsample());
+
+        BufferedImage image;
+        if (metadata.isRGB()) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        } else {
+            ColorModel colorModel = ColorModelFactory.createColorModel(metadata.getPixelType(), metadata.getChannels());
+            image = new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(width, height), false, null);
+        }
+
+        WritableRaster raster = image.getRaster();
+        for (int y=0; y<raster.getHeight(); y++) {
+            for (int x=0; x<raster.getWidth(); x++) {
+                int pixelX = (int) (request.getX() + x * request.getDownsample());
+                int pixelY = (int) (request.getY() + y * request.getDownsample());
+
+                for (int c=0; c<raster.getNumBands(); c++) {
+                    raster.setSample(x, y, c, pixelFunction.getValue(pixelX, pixelY, c, request.getZ(), request.getT()));
+                }
+            }
+        }
+        return image;
+    }
+
+    @Override
+    public String getServerType() {
+        return "";
+    }
+
+    @Override
+    public ImageServerMetadata getOriginalMetadata() {
+        return metadata;
+    }
+}
@@ -2,6 +2,7 @@ package qupath.ext.align.core;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.extension.ExtensionContext;
 import org.junit.jupiter.api.extension.TestExecutionExceptionHandler;
@@ -18,6 +19,7 @@ import qupath.lib.images.servers.ImageServerMetadata;
 import qupath.lib.objects.PathObjects;
 import qupath.lib.objects.classes.PathClass;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
 import qupath.lib.regions.RegionRequest;
 import qupath.lib.roi.ROIs;
 
@@ -26,6 +28,9 @@ import java.awt.image.BufferedImage;
 import java.net.URI;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 @ExtendWith(TestAutoAligner.AbortOnLinkageError.class)      // some environments might lack OpenCV native libraries. In that case, tests are skipped
 public class TestAutoAligner {
@@ -162,6 +167,309 @@ public class TestAutoAligner {
         serverToAlign.close();
     }
 
+    @ParameterizedTest
+    @EnumSource(AutoAligner.PreprocessingStage.class)
+    void Check_Intensity_Auto_Alignment_On_Translated_Image_With_Preprocessing(AutoAligner.PreprocessingStage preprocessingStage) throws Exception {
+        int width = 500;
+        int height = 500;
+        int shift = 3;
+        AffineTransform initialTransform = new AffineTransform();
+        double downsample = 1;
+        int[][] basePixels = createPixels(width, height);
+        int[][] pixelsToAlign = copyArray(basePixels, shift);
+        ImageServer<BufferedImage> baseServer = new SampleImageServer(basePixels);
+        ImageServer<BufferedImage> serverToAlign = new SampleImageServer(pixelsToAlign);
+        ImageData<BufferedImage> baseImageData = new ImageData<>(baseServer, new PathObjectHierarchy(), ImageData.ImageType.UNSET);
+        ImageData<BufferedImage> imageDataToAlign = new ImageData<>(serverToAlign, new PathObjectHierarchy(), ImageData.ImageType.UNSET);
+        AffineTransform expectedTransform = new AffineTransform(1, 0, 0, 1, shift, shift);
+
+        AffineTransform transform = AutoAligner.getAlignTransformation(
+                baseImageData,
+                imageDataToAlign,
+                initialTransform,
+                AutoAligner.AlignmentType.INTENSITY,
+                AutoAligner.TransformationTypes.AFFINE,
+                downsample,
+                new AutoAligner.EccOptions(
+                        List.of(preprocessingStage),
+                        AutoAligner.EccOptions.DEFAULT_GAUSSIAN_FILTER_SIZE,
+                        AutoAligner.EccOptions.DEFAULT.numberOfThreads()
+                )
+        );
+
+        assertAffineAlmostEquals(expectedTransform, transform, .5);
+
+        baseImageData.close();
+        baseServer.close();
+        imageDataToAlign.close();
+        serverToAlign.close();
+    }
+
+    @ParameterizedTest
+    @EnumSource(AutoAligner.TransformationTypes.class)
+    void Check_Intensity_Auto_Alignment_On_Translated_Image_Without_Gaussian_Filter_And_With_Limited_Threads(AutoAligner.TransformationTypes transformationTypes) throws Exception {
+        int width = 500;
+        int height = 500;
+        int shift = 3;
+        AffineTransform initialTransform = new AffineTransform();
+        double downsample = 1;
+        int[][] basePixels = createPixels(width, height);
+        int[][] pixelsToAlign = copyArray(basePixels, shift);
+        ImageServer<BufferedImage> baseServer = new SampleImageServer(basePixels);
+        ImageServer<BufferedImage> serverToAlign = new SampleImageServer(pixelsToAlign);
+        ImageData<BufferedImage> baseImageData = new ImageData<>(baseServer, new PathObjectHierarchy(), ImageData.ImageType.UNSET);
+        ImageData<BufferedImage> imageDataToAlign = new ImageData<>(serverToAlign, new PathObjectHierarchy(), ImageData.ImageType.UNSET);
+        AffineTransform expectedTransform = new AffineTransform(1, 0, 0, 1, shift, shift);
+
+        AffineTransform transform = AutoAligner.getAlignTransformation(
+                baseImageData,
+                imageDataToAlign,
+                initialTransform,
+                AutoAligner.AlignmentType.INTENSITY,
+                transformationTypes,
+                downsample,
+                new AutoAligner.EccOptions(List.of(), 1, 1)
+        );
+
+        assertAffineAlmostEquals(expectedTransform, transform, .2);
+
+        baseImageData.close();
+        baseServer.close();
+        imageDataToAlign.close();
+        serverToAlign.close();
+    }
+
+    @ParameterizedTest
+    @EnumSource(AutoAligner.TransformationTypes.class)
+    void Check_Intensity_Auto_Alignment_On_Translated_Image_With_Selected_Channels(AutoAligner.TransformationTypes transformationTypes) throws Exception {
+        int width = 500;
+        int height = 500;
+        int shift = 3;
+        AffineTransform initialTransform = new AffineTransform();
+        double downsample = 1;
+        int[][] basePixels = createPixels(width, height);
+        int[][] pixelsToAlign = copyArray(basePixels, shift);
+        ImageServer<BufferedImage> baseServer = new SampleImageServer(basePixels);
+        ImageServer<BufferedImage> serverToAlign = new SampleImageServer(pixelsToAlign);
+        ImageData<BufferedImage> baseImageData = new ImageData<>(baseServer, new PathObjectHierarchy(), ImageData.ImageType.UNSET);
+        ImageData<BufferedImage> imageDataToAlign = new ImageData<>(serverToAlign, new PathObjectHierarchy(), ImageData.ImageType.UNSET);
+        AffineTransform expectedTransform = new AffineTransform(1, 0, 0, 1, shift, shift);
+
+        AffineTransform transform = AutoAligner.getAlignTransformation(
+                baseImageData,
+                imageDataToAlign,
+                initialTransform,
+                AutoAligner.AlignmentType.INTENSITY,
+                transformationTypes,
+                downsample,
+                new AutoAligner.EccOptions(
+                        List.of(),
+                        AutoAligner.EccOptions.DEFAULT_GAUSSIAN_FILTER_SIZE,
+                        0,
+                        AutoAligner.ChannelSelection.of(1),
+                        new AutoAligner.ChannelSelection(Map.of(0, 0.5, 2, 0.5))
+                )
+        );
+
+        assertAffineAlmostEquals(expectedTransform, transform, .2);
+
+        baseImageData.close();
+        baseServer.close();
+        imageDataToAlign.close();
+        serverToAlign.close();
+    }
+
+    @Test
+    void Check_Channel_Selection_With_Negative_Channel() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> AutoAligner.ChannelSelection.of(-1)
+        );
+    }
+
+    @Test
+    void Check_Multi_Round_Auto_Alignment_On_Translated_Images() throws Exception {
+        int width = 500;
+        int height = 500;
+        List<Integer> shifts = List.of(0, 2, 3);
+        double downsample = 1;
+        int[][] referencePixels = createPixels(width, height);
+        ImageServer<BufferedImage> referenceServer = new SampleImageServer(referencePixels);
+        ImageData<BufferedImage> referenceImageData = new ImageData<>(referenceServer, new PathObjectHierarchy(), ImageData.ImageType.UNSET);
+        List<ImageData<BufferedImage>> imageDataToAlign = shifts.stream()
+                .map(shift -> new ImageData<>(
+                        (ImageServer<BufferedImage>) new SampleImageServer(copyArray(referencePixels, shift)),
+                        new PathObjectHierarchy(),
+                        ImageData.ImageType.UNSET
+                ))
+                .toList();
+        List<AffineTransform> expectedTransforms = shifts.stream()
+                .map(shift -> new AffineTransform(1, 0, 0, 1, shift, shift))
+                .toList();
+
+        List<AffineTransform> transforms = AutoAligner.getMultiRoundAlignTransformations(
+                referenceImageData,
+                imageDataToAlign,
+                shifts.stream().map(shift -> new AffineTransform()).toList(),
+                AutoAligner.TransformationTypes.RIGID,
+                downsample,
+                new AutoAligner.EccOptions(
+                        List.of(),
+                        AutoAligner.EccOptions.DEFAULT_GAUSSIAN_FILTER_SIZE,
+                        0,
+                        AutoAligner.ChannelSelection.of(0),
+                        AutoAligner.ChannelSelection.of(0)
+                )
+        );
+
+        Assertions.assertEquals(expectedTransforms.size(), transforms.size());
+        for (int i=0; i<expectedTransforms.size(); i++) {
+            assertAffineAlmostEquals(expectedTransforms.get(i), transforms.get(i), .2);
+        }
+
+        referenceImageData.close();
+        referenceServer.close();
+        for (ImageData<BufferedImage> imageData: imageDataToAlign) {
+            imageData.close();
+            imageData.getServer().close();
+        }
+    }
+
+    @Test
+    void Check_Multi_Round_Auto_Alignment_With_Wrong_Number_Of_Initial_Transforms() {
+        ImageData<BufferedImage> referenceImageData = new ImageData<>(
+                new SampleImageServer(createPixels(10, 10)),
+                new PathObjectHierarchy(),
+                ImageData.ImageType.UNSET
+        );
+
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> AutoAligner.getMultiRoundAlignTransformations(
+                        referenceImageData,
+                        List.of(referenceImageData),
+                        List.of(),
+                        AutoAligner.TransformationTypes.RIGID,
+                        1,
+                        AutoAligner.EccOptions.DEFAULT
+                )
+        );
+    }
+
+    @ParameterizedTest
+    @EnumSource(AutoAligner.TransformationTypes.class)
+    void Check_Local_Auto_Alignment_On_Translated_Image(AutoAligner.TransformationTypes transformationTypes) throws Exception {
+        int width = 500;
+        int height = 500;
+        int shift = 3;
+        AffineTransform globalTransform = new AffineTransform();
+        double downsample = 1;
+        double tileSize = 250;
+        int[][] basePixels = createPixels(width, height);
+        int[][] pixelsToAlign = copyArray(basePixels, shift);
+        ImageServer<BufferedImage> baseServer = new SampleImageServer(basePixels);
+        ImageServer<BufferedImage> serverToAlign = new SampleImageServer(pixelsToAlign);
+        ImageData<BufferedImage> baseImageData = new ImageData<>(baseServer, new PathObjectHierarchy(), ImageData.ImageType.UNSET);
+        ImageData<BufferedImage> imageDataToAlign = new ImageData<>(serverToAlign, new PathObjectHierarchy(), ImageData.ImageType.UNSET);
+        AffineTransform expectedTransform = new AffineTransform(1, 0, 0, 1, shift, shift);
+
+        PiecewiseAffineTransform transform = AutoAligner.getLocalAlignTransformation(
+                baseImageData,
+                imageDataToAlign,
+                globalTransform,
+                transformationTypes,
+                downsample,
+                tileSize,
+                AutoAligner.EccOptions.DEFAULT
+        );
+
+        Assertions.assertEquals(2, transform.getNumberOfColumns());
+        Assertions.assertEquals(2, transform.getNumberOfRows());
+        for (int row=0; row<transform.getNumberOfRows(); row++) {
+            for (int col=0; col<transform.getNumberOfColumns(); col++) {
+                assertAffineAlmostEquals(expectedTransform, transform.getTileTransform(col, row), .2);
+            }
+        }
+
+        baseImageData.close();
+        baseServer.close();
+        imageDataToAlign.close();
+        serverToAlign.close();
+    }
+
+    @Test
+    void Check_Local_Auto_Alignment_With_Too_Small_Tiles() {
+        ImageData<BufferedImage> baseImageData = new ImageData<>(
+                new SampleImageServer(createPixels(100, 100)),
+                new PathObjectHierarchy(),
+                ImageData.ImageType.UNSET
+        );
+
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> AutoAligner.getLocalAlignTransformation(
+                        baseImageData,
+                        baseImageData,
+                        new AffineTransform(),
+                        AutoAligner.TransformationTypes.RIGID,
+                        4,
+                        AutoAligner.MIN_LOCAL_TILE_SIZE,
+                        AutoAligner.EccOptions.DEFAULT
+                )
+        );
+    }
+
+    @ParameterizedTest
+    @EnumSource(AutoAligner.PlaneAxis.class)
+    void Check_Plane_Auto_Alignment_On_Translated_Single_Plane_Image(AutoAligner.PlaneAxis planeAxis) throws Exception {
+        int width = 500;
+        int height = 500;
+        int shift = 3;
+        AffineTransform initialTransform = new AffineTransform();
+        double downsample = 1;
+        int[][] basePixels = createPixels(width, height);
+        int[][] pixelsToAlign = copyArray(basePixels, shift);
+        ImageServer<BufferedImage> baseServer = new SampleImageServer(basePixels);
+        ImageServer<BufferedImage> serverToAlign = new SampleImageServer(pixelsToAlign);
+        ImageData<BufferedImage> baseImageData = new ImageData<>(baseServer, new PathObjectHierarchy(), ImageData.ImageType.UNSET);
+        ImageData<BufferedImage> imageDataToAlign = new ImageData<>(serverToAlign, new PathObjectHierarchy(), ImageData.ImageType.UNSET);
+        AffineTransform expectedTransform = new AffineTransform(1, 0, 0, 1, shift, shift);
+
+        Map<ImagePlane, AffineTransform> transforms = AutoAligner.getPlaneAlignTransformations(
+                baseImageData,
+                imageDataToAlign,
+                initialTransform,
+                AutoAligner.TransformationTypes.RIGID,
+                downsample,
+                AutoAligner.EccOptions.DEFAULT,
+                planeAxis
+        );
+
+        Assertions.assertEquals(Set.of(ImagePlane.getDefaultPlane()), transforms.keySet());
+        assertAffineAlmostEquals(expectedTransform, transforms.get(ImagePlane.getDefaultPlane()), .2);
+
+        baseImageData.close();
+        baseServer.close();
+        imageDataToAlign.close();
+        serverToAlign.close();
+    }
+
+    @Test
+    void Check_Ecc_Options_With_Even_Gaussian_Filter_Size() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new AutoAligner.EccOptions(List.of(), 4, 0)
+        );
+    }
+
+    @Test
+    void Check_Ecc_Options_With_Negative_Number_Of_Threads() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new AutoAligner.EccOptions(List.of(), 5, -1)
+        );
+    }
+
     @ParameterizedTest
     @EnumSource(AutoAligner.TransformationTypes.class)
     void Check_Area_Annotations_Auto_Alignment_With_Same_Annotations(AutoAligner.TransformationTypes transformationTypes) throws Exception {
@@ -476,6 +784,7 @@ public class TestAutoAligner {
 
     private static class SampleImageServer extends AbstractImageServer<BufferedImage> {
 
+        private final String id = UUID.randomUUID().toString();
         private final int[][] pixels;
         private final ImageServerMetadata metadata;
 
@@ -497,7 +806,8 @@ public class TestAutoAligner {
 
         @Override
         protected String createID() {
-            return "";
+            // Prepared images are cached by server path, so each server must have its own
+            return getClass().getName() + ": " + id;
         }
 
         @Override
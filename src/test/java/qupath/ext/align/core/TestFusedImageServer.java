@@ -0,0 +1,72 @@
+package qupath.ext.align.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+public class TestFusedImageServer {
+
+    @Test
+    void Check_Aligned_Server_With_Different_Size() throws Exception {
+        ImageServer<BufferedImage> baseServer = createServer(100, 100, 1);
+        ImageServer<BufferedImage> alignedServer = createServer(100, 50, 2);
+
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new FusedImageServer(baseServer, List.of(alignedServer))
+        );
+
+        baseServer.close();
+        alignedServer.close();
+    }
+
+    @Test
+    void Check_Number_Of_Channels() throws Exception {
+        ImageServer<BufferedImage> baseServer = createServer(100, 100, 1);
+        List<ImageServer<BufferedImage>> alignedServers = List.of(createServer(100, 100, 2), createServer(100, 100, 3));
+        int expectedNumberOfChannels = 3;
+
+        try (ImageServer<BufferedImage> fusedServer = new FusedImageServer(baseServer, alignedServers)) {
+            Assertions.assertEquals(expectedNumberOfChannels, fusedServer.nChannels());
+        }
+
+        baseServer.close();
+        for (ImageServer<BufferedImage> server: alignedServers) {
+            server.close();
+        }
+    }
+
+    @Test
+    void Check_Pixels_Of_Each_Channel() throws Exception {
+        ImageServer<BufferedImage> baseServer = createServer(100, 100, 1);
+        List<ImageServer<BufferedImage>> alignedServers = List.of(createServer(100, 100, 2), createServer(100, 100, 3));
+        RegionRequest request = RegionRequest.createInstance(baseServer.getPath(), 1, 10, 20, 30, 40);
+        List<ImageServer<BufferedImage>> servers = List.of(baseServer, alignedServers.get(0), alignedServers.get(1));
+
+        try (ImageServer<BufferedImage> fusedServer = new FusedImageServer(baseServer, alignedServers)) {
+            BufferedImage image = fusedServer.readRegion(RegionRequest.createInstance(fusedServer.getPath(), 1, request));
+
+            for (int channel=0; channel<servers.size(); channel++) {
+                BufferedImage expectedImage = servers.get(channel).readRegion(request);
+                for (int y=0; y<image.getHeight(); y++) {
+                    for (int x=0; x<image.getWidth(); x++) {
+                        Assertions.assertEquals(expectedImage.getRaster().getSample(x, y, 0), image.getRaster().getSample(x, y, channel));
+                    }
+                }
+            }
+        }
+
+        baseServer.close();
+        for (ImageServer<BufferedImage> server: alignedServers) {
+            server.close();
+        }
+    }
+
+    private static ImageServer<BufferedImage> createServer(int width, int height, int factor) {
+        return new PixelFunctionImageServer(width, height, (x, y, c, z, t) -> factor * (x + y));
+    }
+}
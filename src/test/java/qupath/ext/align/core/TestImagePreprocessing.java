@@ -0,0 +1,110 @@
+package qupath.ext.align.core;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.PixelType;
+import qupath.lib.regions.ImagePlane;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestImagePreprocessing {
+
+    @ParameterizedTest
+    @EnumSource(AutoAligner.PreprocessingStage.class)
+    void Check_Stage_Changes_Prepared_Image_To_Align(AutoAligner.PreprocessingStage preprocessingStage) throws Exception {
+        try (
+                ImageServer<BufferedImage> baseServer = createServer(1);
+                ImageServer<BufferedImage> serverToAlign = createServer(2)
+        ) {
+            byte[][] unprocessedPixels = getPreparedPixels(baseServer, serverToAlign, List.of());
+
+            byte[][] pixels = getPreparedPixels(baseServer, serverToAlign, List.of(preprocessingStage));
+
+            Assertions.assertFalse(Arrays.equals(unprocessedPixels[1], pixels[1]));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = AutoAligner.PreprocessingStage.class, names = "HISTOGRAM_MATCHING", mode = EnumSource.Mode.EXCLUDE)
+    void Check_Stage_Changes_Prepared_Base_Image(AutoAligner.PreprocessingStage preprocessingStage) throws Exception {
+        try (
+                ImageServer<BufferedImage> baseServer = createServer(1);
+                ImageServer<BufferedImage> serverToAlign = createServer(2)
+        ) {
+            byte[][] unprocessedPixels = getPreparedPixels(baseServer, serverToAlign, List.of());
+
+            byte[][] pixels = getPreparedPixels(baseServer, serverToAlign, List.of(preprocessingStage));
+
+            Assertions.assertFalse(Arrays.equals(unprocessedPixels[0], pixels[0]));
+        }
+    }
+
+    @Test
+    void Check_Histogram_Matching_Does_Not_Change_Prepared_Base_Image() throws Exception {
+        try (
+                ImageServer<BufferedImage> baseServer = createServer(1);
+                ImageServer<BufferedImage> serverToAlign = createServer(2)
+        ) {
+            byte[][] unprocessedPixels = getPreparedPixels(baseServer, serverToAlign, List.of());
+
+            byte[][] pixels = getPreparedPixels(baseServer, serverToAlign, List.of(AutoAligner.PreprocessingStage.HISTOGRAM_MATCHING));
+
+            Assertions.assertArrayEquals(unprocessedPixels[0], pixels[0]);
+        }
+    }
+
+    private static ImageServer<BufferedImage> createServer(int contrastDivisor) {
+        return new PixelFunctionImageServer(
+                new ImageServerMetadata.Builder()
+                        .width(200)
+                        .height(150)
+                        .rgb(true)
+                        .pixelType(PixelType.UINT8)
+                        .channels(ImageChannel.getDefaultRGBChannels())
+                        .build(),
+                (x, y, c, z, t) -> (20 + (x * 3 + y * 5 + (x * y) % 17) % 200) / contrastDivisor
+        );
+    }
+
+    /**
+     * @return the pixels of the prepared base image (first element) and image to align (second element)
+     */
+    private static byte[][] getPreparedPixels(
+            ImageServer<BufferedImage> baseServer,
+            ImageServer<BufferedImage> serverToAlign,
+            List<AutoAligner.PreprocessingStage> preprocessingStages
+    ) throws IOException {
+        Mat[] preparedImages = ImagePreprocessing.prepareImages(
+                baseServer,
+                serverToAlign,
+                1,
+                ImagePlane.getDefaultPlane(),
+                preprocessingStages,
+                AutoAligner.ChannelSelection.ALL_CHANNELS,
+                AutoAligner.ChannelSelection.ALL_CHANNELS,
+                false,
+                null
+        );
+
+        try (
+                Mat baseMat = preparedImages[0];
+                Mat matToAlign = preparedImages[1]
+        ) {
+            byte[] basePixels = new byte[(int) baseMat.total()];
+            baseMat.data().get(basePixels);
+            byte[] pixelsToAlign = new byte[(int) matToAlign.total()];
+            matToAlign.data().get(pixelsToAlign);
+
+            return new byte[][] {basePixels, pixelsToAlign};
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package qupath.ext.align.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+public class TestImageWarper {
+
+    @Test
+    void Check_Non_Positive_Output_Size() {
+        BufferedImage source = createSampleImage(10, 10);
+
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> ImageWarper.warp(source, 0, 10, (points, nPoints) -> {}, ImageWarper.Interpolation.NEAREST)
+        );
+    }
+
+    @Test
+    void Check_Identity_With_Nearest_Interpolation() throws InterruptedException {
+        BufferedImage source = createSampleImage(70, 50);
+
+        BufferedImage output = ImageWarper.warp(source, 70, 50, (points, nPoints) -> {}, ImageWarper.Interpolation.NEAREST);
+
+        assertImagesEqual(source, output);
+    }
+
+    @Test
+    void Check_Identity_With_Bilinear_Interpolation() throws InterruptedException {
+        BufferedImage source = createSampleImage(70, 50);
+
+        BufferedImage output = ImageWarper.warp(source, 70, 50, (points, nPoints) -> {}, ImageWarper.Interpolation.BILINEAR);
+
+        assertImagesEqual(source, output);
+    }
+
+    @Test
+    void Check_Translation() throws InterruptedException {
+        BufferedImage source = createSampleImage(70, 50);
+        int dx = 3;
+        int dy = 2;
+
+        BufferedImage output = ImageWarper.warp(
+                source,
+                20,
+                20,
+                (points, nPoints) -> {
+                    for (int i=0; i<nPoints; i++) {
+                        points[2*i] += dx;
+                        points[2*i + 1] += dy;
+                    }
+                },
+                ImageWarper.Interpolation.NEAREST
+        );
+
+        for (int y=0; y<output.getHeight(); y++) {
+            for (int x=0; x<output.getWidth(); x++) {
+                Assertions.assertEquals(source.getRGB(x + dx, y + dy), output.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void Check_Sequential_Warp_Matches_Parallel_Warp() throws InterruptedException {
+        BufferedImage source = createSampleImage(60, 80);
+        ImageWarper.CoordinateMapping mapping = (points, nPoints) -> {
+            for (int i=0; i<2*nPoints; i+=2) {
+                double x = points[i];
+                points[i] = 0.8 * x + 0.3 * points[i+1] + 2;
+                points[i+1] = -0.2 * x + 0.9 * points[i+1] + 5;
+            }
+        };
+        BufferedImage expectedOutput = ImageWarper.warp(source, 50, 70, mapping, ImageWarper.Interpolation.BILINEAR, true);
+
+        BufferedImage output = ImageWarper.warp(source, 50, 70, mapping, ImageWarper.Interpolation.BILINEAR, false);
+
+        assertImagesEqual(expectedOutput, output);
+    }
+
+    @Test
+    void Check_Pixels_Outside_Source_Are_Transparent() throws InterruptedException {
+        BufferedImage source = createSampleImage(10, 10);
+
+        BufferedImage output = ImageWarper.warp(
+                source,
+                5,
+                5,
+                (points, nPoints) -> {
+                    for (int i=0; i<2*nPoints; i++) {
+                        points[i] -= 100;
+                    }
+                },
+                ImageWarper.Interpolation.BILINEAR
+        );
+
+        for (int y=0; y<output.getHeight(); y++) {
+            for (int x=0; x<output.getWidth(); x++) {
+                Assertions.assertEquals(0, output.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void Check_Bilinear_Interpolation_Between_Two_Pixels() throws InterruptedException {
+        BufferedImage source = new BufferedImage(2, 1, BufferedImage.TYPE_INT_RGB);
+        source.setRGB(0, 0, 0x000000);
+        source.setRGB(1, 0, 0x00c864);
+        int expectedPixel = 0xff006432;
+
+        BufferedImage output = ImageWarper.warp(
+                source,
+                1,
+                1,
+                (points, nPoints) -> points[0] = 1,        // halfway between the centers of the two pixels
+                ImageWarper.Interpolation.BILINEAR
+        );
+
+        Assertions.assertEquals(expectedPixel, output.getRGB(0, 0));
+    }
+
+    private static BufferedImage createSampleImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y=0; y<height; y++) {
+            for (int x=0; x<width; x++) {
+                image.setRGB(x, y, (x * 3) << 16 | (y * 5) << 8 | (x + y));
+            }
+        }
+        return image;
+    }
+
+    private static void assertImagesEqual(BufferedImage expectedImage, BufferedImage image) {
+        Assertions.assertEquals(expectedImage.getWidth(), image.getWidth());
+        Assertions.assertEquals(expectedImage.getHeight(), image.getHeight());
+        for (int y=0; y<image.getHeight(); y++) {
+            for (int x=0; x<image.getWidth(); x++) {
+                Assertions.assertEquals(expectedImage.getRGB(x, y), image.getRGB(x, y));
+            }
+        }
+    }
+}
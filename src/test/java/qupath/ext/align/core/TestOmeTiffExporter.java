@@ -0,0 +1,365 @@
+package qupath.ext.align.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import qupath.lib.images.servers.ImageChannel;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.PixelType;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class TestOmeTiffExporter {
+
+    private static final int TILE_SIZE = 512;
+    private static final int IMAGE_WIDTH_TAG = 256;
+    private static final int IMAGE_HEIGHT_TAG = 257;
+    private static final int COMPRESSION_TAG = 259;
+    private static final int PHOTOMETRIC_TAG = 262;
+    private static final int SAMPLES_PER_PIXEL_TAG = 277;
+    private static final int TILE_OFFSETS_TAG = 324;
+    private static final int TILE_BYTE_COUNTS_TAG = 325;
+    private static final int SUB_DIRECTORIES_TAG = 330;
+    private static final int COMPRESSION_DEFLATE = 8;
+    private static final int PHOTOMETRIC_RGB = 2;
+    private record Directory(Map<Integer, long[]> entries, long nextDirectoryOffset) {}
+
+    @Test
+    void Check_BigTiff_Header(@TempDir Path directory) throws Exception {
+        Path path = directory.resolve("image.ome.tif");
+
+        try (ImageServer<BufferedImage> server = new PixelFunctionImageServer(1300, 600, (x, y, c, z, t) -> x + y)) {
+            OmeTiffExporter.writeImage(server, path, 2, null);
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        Assertions.assertEquals('I', header.get(0));
+        Assertions.assertEquals('I', header.get(1));
+        Assertions.assertEquals(43, header.getShort(2));
+    }
+
+    @Test
+    void Check_Image_Size(@TempDir Path directory) throws Exception {
+        int width = 1300;
+        int height = 600;
+        Path path = directory.resolve("image.ome.tif");
+
+        try (ImageServer<BufferedImage> server = new PixelFunctionImageServer(width, height, (x, y, c, z, t) -> x + y)) {
+            OmeTiffExporter.writeImage(server, path, 2, null);
+        }
+
+        Map<Integer, long[]> entries = readDirectories(path).getFirst().entries();
+        Assertions.assertEquals(width, entries.get(IMAGE_WIDTH_TAG)[0]);
+        Assertions.assertEquals(height, entries.get(IMAGE_HEIGHT_TAG)[0]);
+    }
+
+    @Test
+    void Check_Number_Of_Sub_Resolutions(@TempDir Path directory) throws Exception {
+        Path path = directory.resolve("image.ome.tif");
+        int expectedNumberOfSubResolutions = 2;     // 1300x600 -> 650x300 -> 325x150
+
+        try (ImageServer<BufferedImage> server = new PixelFunctionImageServer(1300, 600, (x, y, c, z, t) -> x + y)) {
+            OmeTiffExporter.writeImage(server, path, 2, null);
+        }
+
+        Map<Integer, long[]> entries = readDirectories(path).getFirst().entries();
+        Assertions.assertEquals(expectedNumberOfSubResolutions, entries.get(SUB_DIRECTORIES_TAG).length);
+    }
+
+    @Test
+    void Check_Progress_Reaches_One(@TempDir Path directory) throws Exception {
+        Path path = directory.resolve("image.ome.tif");
+        List<Double> progress = new ArrayList<>();
+
+        try (ImageServer<BufferedImage> server = new PixelFunctionImageServer(1300, 600, (x, y, c, z, t) -> x + y)) {
+            OmeTiffExporter.writeImage(server, path, 2, progress::add);
+        }
+
+        Assertions.assertEquals(1, progress.getLast(), 1e-6);
+    }
+
+    @Test
+    void Check_Tiles_Are_Deflated(@TempDir Path directory) throws Exception {
+        Path path = directory.resolve("image.ome.tif");
+
+        try (ImageServer<BufferedImage> server = new PixelFunctionImageServer(700, 600, (x, y, c, z, t) -> x + y)) {
+            OmeTiffExporter.writeImage(server, path, 2, null);
+        }
+
+        Map<Integer, long[]> entries = readDirectories(path).getFirst().entries();
+        Assertions.assertEquals(COMPRESSION_DEFLATE, entries.get(COMPRESSION_TAG)[0]);
+    }
+
+    @Test
+    void Check_Full_Resolution_Pixels_Of_Each_Plane(@TempDir Path directory) throws Exception {
+        Path path = directory.resolve("image.ome.tif");
+        PixelFunctionImageServer.PixelFunction pixelFunction = (x, y, c, z, t) -> x + y + 2000 * c + 4000 * z + 8000 * t;
+        ImageServerMetadata metadata = createMultichannelMetadata(700, 600);
+
+        try (ImageServer<BufferedImage> server = new PixelFunctionImageServer(metadata, pixelFunction)) {
+            OmeTiffExporter.writeImage(server, path, 2, null);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        List<Directory> directories = readDirectories(path);
+        Assertions.assertEquals(metadata.getSizeC() * metadata.getSizeZ() * metadata.getSizeT(), directories.size());
+        for (int t=0; t<metadata.getSizeT(); t++) {
+            for (int z=0; z<metadata.getSizeZ(); z++) {
+                for (int c=0; c<metadata.getSizeC(); c++) {
+                    // Directories are ordered by channel, then z-slice, then timepoint
+                    Directory planeDirectory = directories.get(c + metadata.getSizeC() * (z + metadata.getSizeZ() * t));
+
+                    assertPixelsEqual(buffer, planeDirectory.entries(), metadata.getWidth(), metadata.getHeight(), 1, 2, c, z, t, pixelFunction);
+                }
+            }
+        }
+    }
+
+    @Test
+    void Check_Downsampled_Pixels_Of_Each_Plane(@TempDir Path directory) throws Exception {
+        Path path = directory.resolve("image.ome.tif");
+        PixelFunctionImageServer.PixelFunction pixelFunction = (x, y, c, z, t) -> x + y + 2000 * c + 4000 * z + 8000 * t;
+        ImageServerMetadata metadata = createMultichannelMetadata(700, 600);
+
+        try (ImageServer<BufferedImage> server = new PixelFunctionImageServer(metadata, pixelFunction)) {
+            OmeTiffExporter.writeImage(server, path, 2, null);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        List<Directory> directories = readDirectories(path);
+        for (int t=0; t<metadata.getSizeT(); t++) {
+            for (int z=0; z<metadata.getSizeZ(); z++) {
+                for (int c=0; c<metadata.getSizeC(); c++) {
+                    Directory planeDirectory = directories.get(c + metadata.getSizeC() * (z + metadata.getSizeZ() * t));
+                    Map<Integer, long[]> subDirectory = readDirectory(buffer, planeDirectory.entries().get(SUB_DIRECTORIES_TAG)[0]).entries();
+
+                    assertDownsampledPixelsEqual(buffer, subDirectory, metadata.getWidth() / 2, metadata.getHeight() / 2, 1, 2, c, z, t, pixelFunction);
+                }
+            }
+        }
+    }
+
+    @Test
+    void Check_Interleaved_RGB_Pixels(@TempDir Path directory) throws Exception {
+        Path path = directory.resolve("image.ome.tif");
+        PixelFunctionImageServer.PixelFunction pixelFunction = (x, y, c, z, t) -> (x + y) / 8 + 50 * c;
+        ImageServerMetadata metadata = new ImageServerMetadata.Builder()
+                .width(600)
+                .height(520)
+                .rgb(true)
+                .pixelType(PixelType.UINT8)
+                .channels(ImageChannel.getDefaultRGBChannels())
+                .build();
+
+        try (ImageServer<BufferedImage> server = new PixelFunctionImageServer(metadata, pixelFunction)) {
+            OmeTiffExporter.writeImage(server, path, 2, null);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        List<Directory> directories = readDirectories(path);
+        Map<Integer, long[]> entries = directories.getFirst().entries();
+        Map<Integer, long[]> subDirectory = readDirectory(buffer, entries.get(SUB_DIRECTORIES_TAG)[0]).entries();
+        Assertions.assertEquals(1, directories.size());
+        Assertions.assertEquals(3, entries.get(SAMPLES_PER_PIXEL_TAG)[0]);
+        Assertions.assertEquals(PHOTOMETRIC_RGB, entries.get(PHOTOMETRIC_TAG)[0]);
+        assertPixelsEqual(buffer, entries, metadata.getWidth(), metadata.getHeight(), 3, 1, 0, 0, 0, pixelFunction);
+        assertDownsampledPixelsEqual(buffer, subDirectory, metadata.getWidth() / 2, metadata.getHeight() / 2, 3, 1, 0, 0, 0, pixelFunction);
+    }
+
+    @Test
+    void Check_Existing_File_Kept_When_Export_Fails(@TempDir Path directory) throws Exception {
+        Path path = directory.resolve("image.ome.tif");
+        byte[] existingContent = {1, 2, 3};
+        Files.write(path, existingContent);
+
+        try (ImageServer<BufferedImage> server = new PixelFunctionImageServer(700, 600, (x, y, c, z, t) -> {
+            throw new IllegalStateException("Pixels cannot be read");
+        })) {
+            Assertions.assertThrows(IOException.class, () -> OmeTiffExporter.writeImage(server, path, 2, null));
+        }
+
+        Assertions.assertArrayEquals(existingContent, Files.readAllBytes(path));
+    }
+
+    @Test
+    void Check_No_Temporary_File_Left_When_Export_Fails(@TempDir Path directory) throws Exception {
+        Path path = directory.resolve("image.ome.tif");
+
+        try (ImageServer<BufferedImage> server = new PixelFunctionImageServer(700, 600, (x, y, c, z, t) -> {
+            throw new IllegalStateException("Pixels cannot be read");
+        })) {
+            Assertions.assertThrows(IOException.class, () -> OmeTiffExporter.writeImage(server, path, 2, null));
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertEquals(List.of(), files.toList());
+        }
+    }
+
+    private static ImageServerMetadata createMultichannelMetadata(int width, int height) {
+        return new ImageServerMetadata.Builder()
+                .width(width)
+                .height(height)
+                .pixelType(PixelType.UINT16)
+                .channels(List.of(ImageChannel.getInstance("c1", 0), ImageChannel.getInstance("c2", 0)))
+                .sizeZ(2)
+                .sizeT(2)
+                .build();
+    }
+
+    private static void assertPixelsEqual(
+            ByteBuffer buffer,
+            Map<Integer, long[]> entries,
+            int width,
+            int height,
+            int samplesPerPixel,
+            int bytesPerSample,
+            int c,
+            int z,
+            int t,
+            PixelFunctionImageServer.PixelFunction pixelFunction
+    ) throws DataFormatException {
+        int nTilesX = Math.ceilDiv(width, TILE_SIZE);
+        int nTilesY = Math.ceilDiv(height, TILE_SIZE);
+        for (int tileY=0; tileY<nTilesY; tileY++) {
+            for (int tileX=0; tileX<nTilesX; tileX++) {
+                int[] tile = readTile(buffer, entries, tileY * nTilesX + tileX, samplesPerPixel, bytesPerSample);
+
+                for (int y=tileY*TILE_SIZE; y<Math.min(height, (tileY+1) * TILE_SIZE); y++) {
+                    for (int x=tileX*TILE_SIZE; x<Math.min(width, (tileX+1) * TILE_SIZE); x++) {
+                        for (int sample=0; sample<samplesPerPixel; sample++) {
+                            Assertions.assertEquals(
+                                    pixelFunction.getValue(x, y, c + sample, z, t),
+                                    tile[((y - tileY * TILE_SIZE) * TILE_SIZE + x - tileX * TILE_SIZE) * samplesPerPixel + sample]
+                            );
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertDownsampledPixelsEqual(
+            ByteBuffer buffer,
+            Map<Integer, long[]> entries,
+            int width,
+            int height,
+            int samplesPerPixel,
+            int bytesPerSample,
+            int c,
+            int z,
+            int t,
+            PixelFunctionImageServer.PixelFunction pixelFunction
+    ) throws DataFormatException {
+        int[] tile = readTile(buffer, entries, 0, samplesPerPixel, bytesPerSample);
+
+        for (int y=0; y<height; y++) {
+            for (int x=0; x<width; x++) {
+                for (int sample=0; sample<samplesPerPixel; sample++) {
+                    // Each pixel is the average of the 2x2 pixels it covers at full resolution
+                    double sum = 0;
+                    for (int j=0; j<2; j++) {
+                        for (int i=0; i<2; i++) {
+                            sum += pixelFunction.getValue(2*x + i, 2*y + j, c + sample, z, t);
+                        }
+                    }
+
+                    Assertions.assertEquals(Math.round(sum / 4), tile[(y * TILE_SIZE + x) * samplesPerPixel + sample]);
+                }
+            }
+        }
+    }
+
+    private static int[] readTile(
+            ByteBuffer buffer,
+            Map<Integer, long[]> entries,
+            int index,
+            int samplesPerPixel,
+            int bytesPerSample
+    ) throws DataFormatException {
+        byte[] compressed = new byte[(int) entries.get(TILE_BYTE_COUNTS_TAG)[index]];
+        buffer.get((int) entries.get(TILE_OFFSETS_TAG)[index], compressed);
+
+        byte[] bytes = new byte[TILE_SIZE * TILE_SIZE * samplesPerPixel * bytesPerSample];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (!inflater.finished()) {
+                length += inflater.inflate(bytes, length, bytes.length - length);
+            }
+            Assertions.assertEquals(bytes.length, length);
+        } finally {
+            inflater.end();
+        }
+
+        ByteBuffer tileBuffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int[] samples = new int[TILE_SIZE * TILE_SIZE * samplesPerPixel];
+        for (int i=0; i<samples.length; i++) {
+            samples[i] = bytesPerSample == 1 ? tileBuffer.get() & 0xFF : tileBuffer.getShort() & 0xFFFF;
+        }
+        return samples;
+    }
+
+    /**
+     * @return the top-level directories of the provided BigTIFF file, in the order they are chained
+     */
+    private static List<Directory> readDirectories(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+
+        List<Directory> directories = new ArrayList<>();
+        long position = buffer.getLong(8);
+        while (position != 0) {
+            Directory directory = readDirectory(buffer, position);
+            directories.add(directory);
+            position = directory.nextDirectoryOffset();
+        }
+        return directories;
+    }
+
+    /**
+     * @return the directory located at the provided position. Its entries are mapped from their tags to all their
+     * values
+     */
+    private static Directory readDirectory(ByteBuffer buffer, long position) {
+        long numberOfEntries = buffer.getLong((int) position);
+
+        Map<Integer, long[]> entries = new HashMap<>();
+        for (int i=0; i<numberOfEntries; i++) {
+            int entry = (int) position + 8 + i * 20;
+            int size = switch (buffer.getShort(entry + 2)) {
+                case 2 -> 1;        // ASCII
+                case 3 -> 2;        // SHORT
+                case 4 -> 4;        // LONG
+                default -> 8;       // LONG8 and IFD8
+            };
+            long count = buffer.getLong(entry + 4);
+            int valuesPosition = count * size > 8 ? (int) buffer.getLong(entry + 12) : entry + 12;
+
+            long[] values = new long[(int) count];
+            for (int j=0; j<count; j++) {
+                values[j] = switch (size) {
+                    case 1 -> buffer.get(valuesPosition + j) & 0xFF;
+                    case 2 -> buffer.getShort(valuesPosition + 2 * j) & 0xFFFF;
+                    case 4 -> buffer.getInt(valuesPosition + 4 * j) & 0xFFFFFFFFL;
+                    default -> buffer.getLong(valuesPosition + 8 * j);
+                };
+            }
+            entries.put(buffer.getShort(entry) & 0xFFFF, values);
+        }
+        return new Directory(entries, buffer.getLong((int) position + 8 + (int) numberOfEntries * 20));
+    }
+}
@@ -0,0 +1,152 @@
+package qupath.ext.align.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import qupath.lib.geom.Point2;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.util.Collections;
+import java.util.List;
+
+public class TestPiecewiseAffineTransform {
+
+    @Test
+    void Check_Creation_With_Non_Positive_Tile_Size() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new PiecewiseAffineTransform(new AffineTransform(), 0, 10, 1, 1, List.of(new AffineTransform()))
+        );
+    }
+
+    @Test
+    void Check_Creation_With_Wrong_Number_Of_Tile_Transforms() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new PiecewiseAffineTransform(new AffineTransform(), 10, 10, 2, 2, List.of(new AffineTransform()))
+        );
+    }
+
+    @Test
+    void Check_Creation_With_Non_Invertible_Global_Transform() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new PiecewiseAffineTransform(new AffineTransform(0, 0, 0, 0, 0, 0), 10, 10, 1, 1, List.of(new AffineTransform()))
+        );
+    }
+
+    @Test
+    void Check_Point_Transformed_With_Same_Tile_Transforms() {
+        AffineTransform transform = new AffineTransform(1.2, 0.1, -0.05, 0.9, 12, -4);
+        PiecewiseAffineTransform piecewiseAffineTransform = new PiecewiseAffineTransform(
+                transform,
+                100,
+                100,
+                3,
+                2,
+                Collections.nCopies(6, transform)
+        );
+        Point2D point = new Point2D.Double(143.5, 87.2);
+        Point2D expectedPoint = transform.transform(point, null);
+
+        Point2D transformedPoint = piecewiseAffineTransform.transform(point);
+
+        Assertions.assertEquals(expectedPoint.getX(), transformedPoint.getX(), 1e-9);
+        Assertions.assertEquals(expectedPoint.getY(), transformedPoint.getY(), 1e-9);
+    }
+
+    @Test
+    void Check_Point_At_Tile_Center_Uses_Tile_Transform() {
+        PiecewiseAffineTransform piecewiseAffineTransform = new PiecewiseAffineTransform(
+                new AffineTransform(),
+                100,
+                100,
+                2,
+                1,
+                List.of(AffineTransform.getTranslateInstance(10, 0), AffineTransform.getTranslateInstance(20, 0))
+        );
+        Point2D point = new Point2D.Double(150, 50);
+        Point2D expectedPoint = new Point2D.Double(170, 50);
+
+        Point2D transformedPoint = piecewiseAffineTransform.transform(point);
+
+        Assertions.assertEquals(expectedPoint.getX(), transformedPoint.getX(), 1e-9);
+        Assertions.assertEquals(expectedPoint.getY(), transformedPoint.getY(), 1e-9);
+    }
+
+    @Test
+    void Check_Point_Between_Tile_Centers_Is_Interpolated() {
+        PiecewiseAffineTransform piecewiseAffineTransform = new PiecewiseAffineTransform(
+                new AffineTransform(),
+                100,
+                100,
+                2,
+                1,
+                List.of(AffineTransform.getTranslateInstance(10, 0), AffineTransform.getTranslateInstance(20, 0))
+        );
+        Point2D point = new Point2D.Double(100, 50);
+        Point2D expectedPoint = new Point2D.Double(115, 50);
+
+        Point2D transformedPoint = piecewiseAffineTransform.transform(point);
+
+        Assertions.assertEquals(expectedPoint.getX(), transformedPoint.getX(), 1e-9);
+        Assertions.assertEquals(expectedPoint.getY(), transformedPoint.getY(), 1e-9);
+    }
+
+    @Test
+    void Check_Point_Outside_Grid_Uses_Closest_Tile() {
+        PiecewiseAffineTransform piecewiseAffineTransform = new PiecewiseAffineTransform(
+                new AffineTransform(),
+                100,
+                100,
+                2,
+                1,
+                List.of(AffineTransform.getTranslateInstance(10, 0), AffineTransform.getTranslateInstance(20, 0))
+        );
+        Point2D point = new Point2D.Double(-50, 50);
+        Point2D expectedPoint = new Point2D.Double(-40, 50);
+
+        Point2D transformedPoint = piecewiseAffineTransform.transform(point);
+
+        Assertions.assertEquals(expectedPoint.getX(), transformedPoint.getX(), 1e-9);
+        Assertions.assertEquals(expectedPoint.getY(), transformedPoint.getY(), 1e-9);
+    }
+
+    @Test
+    void Check_Transformed_Points_With_Translation() {
+        PiecewiseAffineTransform piecewiseAffineTransform = new PiecewiseAffineTransform(
+                new AffineTransform(),
+                100,
+                100,
+                2,
+                2,
+                Collections.nCopies(4, AffineTransform.getTranslateInstance(4.5, -6))
+        );
+        ROI roi = ROIs.createPointsROI(List.of(new Point2(4.3, -23), new Point2(150, 50)));
+        ROI expectedTransformedRoi = ROIs.createPointsROI(List.of(new Point2(4.3 + 4.5, -23 - 6), new Point2(150 + 4.5, 50 - 6)));
+
+        ROI transformedRoi = piecewiseAffineTransform.transformROI(roi);
+
+        Assertions.assertEquals(expectedTransformedRoi, transformedRoi);
+    }
+
+    @Test
+    void Check_Transformed_Rectangle_Area_With_Scaling() {
+        PiecewiseAffineTransform piecewiseAffineTransform = new PiecewiseAffineTransform(
+                new AffineTransform(),
+                100,
+                100,
+                2,
+                2,
+                Collections.nCopies(4, AffineTransform.getScaleInstance(2, 3))
+        );
+        ROI roi = ROIs.createRectangleROI(10, 20, 100, 50);
+        double expectedArea = 100 * 50 * 2 * 3;
+
+        ROI transformedRoi = piecewiseAffineTransform.transformROI(roi);
+
+        Assertions.assertEquals(expectedArea, transformedRoi.getArea(), 1e-6);
+    }
+}
@@ -0,0 +1,152 @@
+package qupath.ext.align.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.RegionRequest;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Map;
+
+public class TestTransformedImageServer {
+
+    @Test
+    void Check_Width_Is_Width_Of_Base_Image() throws Exception {
+        ImageServer<BufferedImage> server = createServer(100, 50);
+        ImageServer<BufferedImage> baseServer = createServer(600, 700);
+        int expectedWidth = 600;
+
+        try (ImageServer<BufferedImage> transformedServer = new TransformedImageServer(server, new AffineTransform(), baseServer.getMetadata())) {
+            Assertions.assertEquals(expectedWidth, transformedServer.getWidth());
+        }
+
+        server.close();
+        baseServer.close();
+    }
+
+    @Test
+    void Check_Pixels_With_Identity_Transform() throws Exception {
+        ImageServer<BufferedImage> server = createServer(600, 700);
+        RegionRequest request = RegionRequest.createInstance(server.getPath(), 1, 450, 500, 150, 200);
+        BufferedImage expectedImage = server.readRegion(request);
+
+        try (ImageServer<BufferedImage> transformedServer = new TransformedImageServer(server, new AffineTransform(), server.getMetadata())) {
+            BufferedImage image = transformedServer.readRegion(RegionRequest.createInstance(transformedServer.getPath(), 1, 450, 500, 150, 200));
+
+            assertPixelsEqual(expectedImage, image);
+        }
+
+        server.close();
+    }
+
+    @Test
+    void Check_Pixels_With_Translation() throws Exception {
+        ImageServer<BufferedImage> server = createServer(600, 700);
+        int shiftX = 13;
+        int shiftY = -7;
+        BufferedImage expectedImage = server.readRegion(RegionRequest.createInstance(server.getPath(), 1, 450 + shiftX, 500 + shiftY, 100, 100));
+
+        try (ImageServer<BufferedImage> transformedServer = new TransformedImageServer(
+                server,
+                AffineTransform.getTranslateInstance(shiftX, shiftY),
+                server.getMetadata()
+        )) {
+            BufferedImage image = transformedServer.readRegion(RegionRequest.createInstance(transformedServer.getPath(), 1, 450, 500, 100, 100));
+
+            assertPixelsEqual(expectedImage, image);
+        }
+
+        server.close();
+    }
+
+    @Test
+    void Check_Pixels_With_Plane_Transform() throws Exception {
+        ImageServer<BufferedImage> server = createServer(600, 700);
+        int shiftX = 21;
+        int shiftY = 4;
+        BufferedImage expectedImage = server.readRegion(RegionRequest.createInstance(server.getPath(), 1, 300 + shiftX, 200 + shiftY, 100, 100));
+
+        try (ImageServer<BufferedImage> transformedServer = new TransformedImageServer(
+                server,
+                new AffineTransform(),
+                Map.of(ImagePlane.getDefaultPlane(), AffineTransform.getTranslateInstance(shiftX, shiftY)),
+                null,
+                server.getMetadata()
+        )) {
+            BufferedImage image = transformedServer.readRegion(RegionRequest.createInstance(transformedServer.getPath(), 1, 300, 200, 100, 100));
+
+            assertPixelsEqual(expectedImage, image);
+        }
+
+        server.close();
+    }
+
+    @Test
+    void Check_Pixels_With_Local_Transform() throws Exception {
+        ImageServer<BufferedImage> server = createServer(600, 700);
+        int shiftX = -9;
+        int shiftY = 17;
+        AffineTransform translation = AffineTransform.getTranslateInstance(shiftX, shiftY);
+        PiecewiseAffineTransform localTransform = new PiecewiseAffineTransform(
+                new AffineTransform(),
+                300,
+                350,
+                2,
+                2,
+                List.of(translation, translation, translation, translation)
+        );
+        BufferedImage expectedImage = server.readRegion(RegionRequest.createInstance(server.getPath(), 1, 250 + shiftX, 300 + shiftY, 100, 100));
+
+        try (ImageServer<BufferedImage> transformedServer = new TransformedImageServer(
+                server,
+                new AffineTransform(),
+                Map.of(),
+                localTransform,
+                server.getMetadata()
+        )) {
+            BufferedImage image = transformedServer.readRegion(RegionRequest.createInstance(transformedServer.getPath(), 1, 250, 300, 100, 100));
+
+            assertPixelsEqual(expectedImage, image);
+        }
+
+        server.close();
+    }
+
+    @Test
+    void Check_Pixels_Outside_Transformed_Image_Are_Zero() throws Exception {
+        ImageServer<BufferedImage> server = createServer(100, 100);
+
+        try (ImageServer<BufferedImage> transformedServer = new TransformedImageServer(
+                server,
+                AffineTransform.getTranslateInstance(1000, 1000),
+                server.getMetadata()
+        )) {
+            BufferedImage image = transformedServer.readRegion(RegionRequest.createInstance(transformedServer.getPath(), 1, 0, 0, 100, 100));
+
+            for (int y=0; y<image.getHeight(); y++) {
+                for (int x=0; x<image.getWidth(); x++) {
+                    Assertions.assertEquals(0, image.getRaster().getSample(x, y, 0));
+                }
+            }
+        }
+
+        server.close();
+    }
+
+    private static void assertPixelsEqual(BufferedImage expectedImage, BufferedImage image) {
+        Assertions.assertEquals(expectedImage.getWidth(), image.getWidth());
+        Assertions.assertEquals(expectedImage.getHeight(), image.getHeight());
+        for (int y=0; y<image.getHeight(); y++) {
+            for (int x=0; x<image.getWidth(); x++) {
+                Assertions.assertEquals(expectedImage.getRaster().getSample(x, y, 0), image.getRaster().getSample(x, y, 0));
+            }
+        }
+    }
+
+    private static ImageServer<BufferedImage> createServer(int width, int height) {
+        return new PixelFunctionImageServer(width, height, (x, y, c, z, t) -> (x * 7 + y * 13) % 65536);
+    }
+}